@@ -1,14 +1,23 @@
 package com.connectsdk.core;
 
+import android.util.Log;
+
+import org.json.JSONException;
 import org.json.JSONObject;
 
 import java.util.List;
 
 /**
  * Created by gomino on 7/8/15.
+ * <p>
+ * The custom data can be set in its serialized JSON form, which is then kept as is and only
+ * parsed the first time it is asked for as a {@link JSONObject}. Media that is only forwarded,
+ * e.g. from one activity to another, never has its custom data parsed.
  */
 public class MediaInfoWithCustomData extends MediaInfo {
 
+    private static final String TAG = MediaInfoWithCustomData.class.getSimpleName();
+
     public static final int STREAM_TYPE_NONE = 0;
     public static final int STREAM_TYPE_BUFFERED = 1;
     public static final int STREAM_TYPE_LIVE = 2;
@@ -16,7 +25,9 @@ public class MediaInfoWithCustomData extends MediaInfo {
     public static final long UNKNOWN_DURATION = -1L;
 
     private JSONObject mCustomData;
+    private String mCustomDataJson;
     private JSONObject mCustomDataForLoad;
+    private String mCustomDataForLoadJson;
     private int mStreamType = STREAM_TYPE_BUFFERED;
 
     public MediaInfoWithCustomData(String url, String mimeType, String title, String description) {
@@ -28,19 +39,59 @@ public class MediaInfoWithCustomData extends MediaInfo {
     }
 
     public JSONObject getCustomData() {
+        if (mCustomData == null && mCustomDataJson != null) {
+            mCustomData = parse(mCustomDataJson);
+            if (mCustomData != null) {
+                mCustomDataJson = null;
+            }
+        }
         return mCustomData;
     }
 
     public void setCustomData(JSONObject customData) {
         this.mCustomData = customData;
+        this.mCustomDataJson = null;
+    }
+
+    /**
+     * Returns the custom data in its serialized form, without parsing it if it was set that way.
+     */
+    public String getCustomDataJson() {
+        // once parsed, the object may have been changed by whoever asked for it
+        return mCustomData != null ? mCustomData.toString() : mCustomDataJson;
+    }
+
+    /**
+     * Sets the custom data in its serialized form, which is only parsed by
+     * {@link #getCustomData()}.
+     */
+    public void setCustomDataJson(String customDataJson) {
+        this.mCustomData = null;
+        this.mCustomDataJson = customDataJson;
     }
 
     public JSONObject getCustomDataForLoad() {
+        if (mCustomDataForLoad == null && mCustomDataForLoadJson != null) {
+            mCustomDataForLoad = parse(mCustomDataForLoadJson);
+            if (mCustomDataForLoad != null) {
+                mCustomDataForLoadJson = null;
+            }
+        }
         return mCustomDataForLoad;
     }
 
     public void setCustomDataForLoad(JSONObject customDataForLoad) {
         this.mCustomDataForLoad = customDataForLoad;
+        this.mCustomDataForLoadJson = null;
+    }
+
+    public String getCustomDataForLoadJson() {
+        return mCustomDataForLoad != null ? mCustomDataForLoad.toString() : mCustomDataForLoadJson;
+    }
+
+    public void setCustomDataForLoadJson(String customDataForLoadJson) {
+        this.mCustomDataForLoad = null;
+        this.mCustomDataForLoadJson = customDataForLoadJson;
     }
 
     public int getStreamType() {
@@ -50,4 +101,17 @@ public class MediaInfoWithCustomData extends MediaInfo {
     public void setStreamType(int streamType) {
         this.mStreamType = streamType;
     }
+
+    /*
+     * Returns the parsed object, or null if the json is not valid; the caller then keeps the raw
+     * form, so that it is still forwarded as it was received.
+     */
+    private static JSONObject parse(String json) {
+        try {
+            return new JSONObject(json);
+        } catch (JSONException e) {
+            Log.e(TAG, "Failed to parse the custom data", e);
+            return null;
+        }
+    }
 }
@@ -0,0 +1,199 @@
+package com.connectsdk.core;
+
+import android.os.Parcel;
+import android.os.Parcelable;
+import android.util.Log;
+
+import java.io.UnsupportedEncodingException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A {@link Parcelable} holder of a {@link MediaInfo}, or {@link MediaInfoWithCustomData}, to pass
+ * it from one component to another. Its fields and image urls are written to the parcel as they
+ * are, and the custom data as the UTF-8 bytes of its JSON form, which the rebuilt media keeps
+ * unparsed until its custom data is asked for.
+ * <p>
+ * It can also be turned into a byte array with {@link #marshall()}, to be put in extras that may
+ * be unparceled by a process that does not have this class, e.g. those of a notification intent.
+ */
+public class ParcelableMediaInfo implements Parcelable {
+
+    private static final String TAG = ParcelableMediaInfo.class.getSimpleName();
+    private static final String CHARSET = "UTF-8";
+    // the version of the layout written by marshall()
+    private static final int MARSHALL_VERSION = 1;
+
+    private MediaInfo mMediaInfo;
+    private String mUrl;
+    private String mMimeType;
+    private String mTitle;
+    private String mDescription;
+    private List<String> mImageUrls;
+    private boolean mWithCustomData;
+    private int mStreamType;
+    private byte[] mCustomData;
+    private byte[] mCustomDataForLoad;
+
+    public ParcelableMediaInfo(MediaInfo mediaInfo) {
+        if (mediaInfo == null) {
+            throw new IllegalArgumentException("mediaInfo cannot be null");
+        }
+        mMediaInfo = mediaInfo;
+    }
+
+    private ParcelableMediaInfo(Parcel in) {
+        mUrl = in.readString();
+        mMimeType = in.readString();
+        mTitle = in.readString();
+        mDescription = in.readString();
+        mImageUrls = in.createStringArrayList();
+        mWithCustomData = in.readInt() != 0;
+        if (mWithCustomData) {
+            mStreamType = in.readInt();
+            mCustomData = in.createByteArray();
+            mCustomDataForLoad = in.createByteArray();
+        }
+    }
+
+    /**
+     * Returns the wrapped media, rebuilding it the first time it is asked for on the receiving
+     * side.
+     */
+    public synchronized MediaInfo getMediaInfo() {
+        if (mMediaInfo == null) {
+            List<ImageInfo> images = new ArrayList<>();
+            for (String url : mImageUrls) {
+                images.add(new ImageInfo(url));
+            }
+            if (mWithCustomData) {
+                MediaInfoWithCustomData info = new MediaInfoWithCustomData(mUrl, mMimeType,
+                        mTitle, mDescription, images);
+                info.setStreamType(mStreamType);
+                info.setCustomDataJson(toString(mCustomData));
+                info.setCustomDataForLoadJson(toString(mCustomDataForLoad));
+                mMediaInfo = info;
+            } else {
+                mMediaInfo = new MediaInfo(mUrl, mMimeType, mTitle, mDescription, images);
+            }
+            mCustomData = null;
+            mCustomDataForLoad = null;
+        }
+        return mMediaInfo;
+    }
+
+    /**
+     * Returns the bytes of this media, to be read back with {@link #unmarshall(byte[])} by the
+     * same version of the library.
+     */
+    public byte[] marshall() {
+        Parcel parcel = Parcel.obtain();
+        try {
+            parcel.writeInt(MARSHALL_VERSION);
+            writeToParcel(parcel, 0);
+            return parcel.marshall();
+        } finally {
+            parcel.recycle();
+        }
+    }
+
+    /**
+     * Reads back the bytes returned by {@link #marshall()}, or returns {@code null} if they can
+     * not be read.
+     */
+    public static ParcelableMediaInfo unmarshall(byte[] bytes) {
+        Parcel parcel = Parcel.obtain();
+        try {
+            parcel.unmarshall(bytes, 0, bytes.length);
+            parcel.setDataPosition(0);
+            if (parcel.readInt() != MARSHALL_VERSION) {
+                Log.d(TAG, "Ignoring media written by another version");
+                return null;
+            }
+            return CREATOR.createFromParcel(parcel);
+        } catch (RuntimeException e) {
+            Log.e(TAG, "Failed to read the media", e);
+            return null;
+        } finally {
+            parcel.recycle();
+        }
+    }
+
+    @Override
+    public int describeContents() {
+        return 0;
+    }
+
+    @Override
+    public synchronized void writeToParcel(Parcel dest, int flags) {
+        if (mMediaInfo == null) {
+            // never unwrapped, so the custom data is forwarded without being parsed
+            dest.writeString(mUrl);
+            dest.writeString(mMimeType);
+            dest.writeString(mTitle);
+            dest.writeString(mDescription);
+            dest.writeStringList(mImageUrls);
+            dest.writeInt(mWithCustomData ? 1 : 0);
+            if (mWithCustomData) {
+                dest.writeInt(mStreamType);
+                dest.writeByteArray(mCustomData);
+                dest.writeByteArray(mCustomDataForLoad);
+            }
+            return;
+        }
+        dest.writeString(mMediaInfo.getUrl());
+        dest.writeString(mMediaInfo.getMimeType());
+        dest.writeString(mMediaInfo.getTitle());
+        dest.writeString(mMediaInfo.getDescription());
+        List<String> imageUrls = new ArrayList<>();
+        if (mMediaInfo.getImages() != null) {
+            for (ImageInfo image : mMediaInfo.getImages()) {
+                imageUrls.add(image.getUrl());
+            }
+        }
+        dest.writeStringList(imageUrls);
+        if (mMediaInfo instanceof MediaInfoWithCustomData) {
+            MediaInfoWithCustomData info = (MediaInfoWithCustomData) mMediaInfo;
+            dest.writeInt(1);
+            dest.writeInt(info.getStreamType());
+            dest.writeByteArray(toBytes(info.getCustomDataJson()));
+            dest.writeByteArray(toBytes(info.getCustomDataForLoadJson()));
+        } else {
+            dest.writeInt(0);
+        }
+    }
+
+    private static byte[] toBytes(String json) {
+        if (json == null) {
+            return null;
+        }
+        try {
+            return json.getBytes(CHARSET);
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static String toString(byte[] bytes) {
+        if (bytes == null) {
+            return null;
+        }
+        try {
+            return new String(bytes, CHARSET);
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    public static final Creator<ParcelableMediaInfo> CREATOR = new Creator<ParcelableMediaInfo>() {
+        @Override
+        public ParcelableMediaInfo createFromParcel(Parcel in) {
+            return new ParcelableMediaInfo(in);
+        }
+
+        @Override
+        public ParcelableMediaInfo[] newArray(int size) {
+            return new ParcelableMediaInfo[size];
+        }
+    };
+}
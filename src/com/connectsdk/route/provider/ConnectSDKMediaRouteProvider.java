@@ -9,13 +9,17 @@ import android.media.MediaRouter;
 import android.net.Uri;
 import android.os.Bundle;
 import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
 import android.support.annotation.Nullable;
 import android.support.v7.media.MediaControlIntent;
+import android.support.v7.media.MediaItemMetadata;
 import android.support.v7.media.MediaRouteDescriptor;
 import android.support.v7.media.MediaRouteDiscoveryRequest;
 import android.support.v7.media.MediaRouteProvider;
 import android.support.v7.media.MediaRouteProviderDescriptor;
 import android.support.v7.media.MediaRouter.RouteInfo;
+import android.support.v7.media.MediaSessionStatus;
 import android.util.Log;
 
 import com.connectsdk.device.ConnectableDevice;
@@ -32,9 +36,12 @@ import com.google.android.libraries.cast.companionlibrary.cast.VideoCastManager;
 import com.google.android.libraries.cast.companionlibrary.cast.exceptions.CastException;
 import com.google.android.libraries.cast.companionlibrary.cast.exceptions.NoConnectionException;
 import com.google.android.libraries.cast.companionlibrary.cast.exceptions.TransientNetworkDisconnectionException;
+import com.google.android.libraries.cast.companionlibrary.utils.Utils;
 
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 
@@ -71,6 +78,11 @@ public class ConnectSDKMediaRouteProvider extends MediaRouteProvider{
      */
     public static final String DATA_PLAYBACK_COUNT = "com.connectsdk.android.mediarouteprovider.EXTRA_PLAYBACK_COUNT";
     public static final String EXTRA_CONNECTABLE_DEVICE = "com.connectsdk.android.mediarouteprovider.EXTRA_CONNECTABLE_DEVICE";
+    /**
+     * A boolean route extra, {@code true} for a route published from the {@link WarmStartCache}
+     * that discovery has not confirmed yet; such a route has no device until it is confirmed.
+     */
+    public static final String EXTRA_PROVISIONAL = "com.connectsdk.android.mediarouteprovider.EXTRA_PROVISIONAL";
 
     protected static final ArrayList<IntentFilter> CONTROL_FILTERS_BASIC;
     protected static final ArrayList<IntentFilter> CONTROL_FILTERS_QUEUING;
@@ -139,29 +151,95 @@ public class ConnectSDKMediaRouteProvider extends MediaRouteProvider{
     }
 
     protected static final int VOLUME_MAX = 10;
-    protected Map<String, ConnectableDevice> mRouteIdToDeviceMap;
+
+    /**
+     * The default length of the window discovery events are coalesced in, in milliseconds.
+     */
+    public static final long DEFAULT_PUBLISH_WINDOW_MS = 150;
+    /**
+     * How long a route published from the {@link WarmStartCache} is kept without discovery
+     * confirming it.
+     */
+    public static final long PROVISIONAL_ROUTE_TTL_MS = 10 * 1000;
+
+    protected final RouteIndex mRouteIndex = new RouteIndex();
     protected int mVolume = 5;
     protected int mEnqueueCount;
 
+    // routes of the last published provider descriptor, by route id, in publishing order; only
+    // accessed on the main thread
+    private final Map<String, PublishedRoute> mPublishedRoutes =
+            new LinkedHashMap<String, PublishedRoute>();
+    private int mPublishCount;
+    private int mSkippedPublishCount;
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+    private long mPublishWindowMs = DEFAULT_PUBLISH_WINDOW_MS;
+    private long mLastPublishRequestTime;
+    private boolean mPublishScheduled;
+    private int mSuppressedPublishCount;
+    private final Runnable mPublishRunnable = new Runnable() {
+        @Override
+        public void run() {
+            mPublishScheduled = false;
+            mLastPublishRequestTime = SystemClock.elapsedRealtime();
+            publishRoutes();
+        }
+    };
+    private final WarmStartCache mWarmStartCache;
+    // last known devices not confirmed by discovery yet, by route id; only accessed on the main
+    // thread
+    private final Map<String, WarmStartCache.Entry> mProvisionalRoutes =
+            new LinkedHashMap<String, WarmStartCache.Entry>();
+    private final long mStartTime = SystemClock.elapsedRealtime();
+    private long mTimeToFirstRouteMs = -1;
+    private long mTimeToFirstConfirmedRouteMs = -1;
+    private ConnectSDKRouteController mSelectedController;
+    private final Runnable mExpireProvisionalRunnable = new Runnable() {
+        @Override
+        public void run() {
+            if (!mProvisionalRoutes.isEmpty()) {
+                Log.d(TAG, "Expiring " + mProvisionalRoutes.size() + " unconfirmed routes");
+                mProvisionalRoutes.clear();
+                publishRoutes();
+            }
+        }
+    };
+    // runs once the grace period of devices that left the network is over, to evict them
+    private final Runnable mEvictRunnable = new Runnable() {
+        @Override
+        public void run() {
+            publishRoutes();
+        }
+    };
+
     public ConnectSDKMediaRouteProvider(Context context) {
         super(context);
 
         Log.d(TAG, "");
-        mRouteIdToDeviceMap = new HashMap<String, ConnectableDevice>();
+
+        mWarmStartCache = new WarmStartCache(context);
+        for (WarmStartCache.Entry entry : mWarmStartCache.load(Utils.getWifiSsid(context))) {
+            mProvisionalRoutes.put(entry.getId(), entry);
+        }
+        if (!mProvisionalRoutes.isEmpty()) {
+            // show the last known devices right away, discovery confirms or expires them
+            publishRoutes();
+            mHandler.postDelayed(mExpireProvisionalRunnable, PROVISIONAL_ROUTE_TTL_MS);
+        }
 
         DiscoveryManager.getInstance().addListener(new DiscoveryManagerListener() {
             @Override
             public void onDeviceAdded(DiscoveryManager discoveryManager, ConnectableDevice connectableDevice) {
                 Log.i(TAG, "deviceAdded:" + connectableDevice);
                 //setDiscoveryRequest(null);
-                onDiscoveryRequestChanged(null);
+                requestPublishRoutes();
             }
 
             @Override
             public void onDeviceUpdated(DiscoveryManager discoveryManager, ConnectableDevice connectableDevice) {
                 Log.i(TAG, "onDeviceUpdated:" + connectableDevice);
                 //setDiscoveryRequest(null);
-                onDiscoveryRequestChanged(null);
+                requestPublishRoutes();
             }
 
             @Override
@@ -169,13 +247,13 @@ public class ConnectSDKMediaRouteProvider extends MediaRouteProvider{
                 Log.i(TAG, "onDeviceRemoved:" + connectableDevice);
                 //providerDescriptors.remove(connectableDevice);
                 //setDiscoveryRequest(null);
-                onDiscoveryRequestChanged(null);
+                requestPublishRoutes();
             }
 
             @Override
             public void onDiscoveryFailed(DiscoveryManager discoveryManager, ServiceCommandError serviceCommandError) {
                 Log.i(TAG, "onDiscoveryFailed:" + serviceCommandError);
-                onDiscoveryRequestChanged(null);
+                requestPublishRoutes();
             }
         });
 
@@ -205,21 +283,27 @@ public class ConnectSDKMediaRouteProvider extends MediaRouteProvider{
     }
 
     public MediaRouteDescriptor getMediaRouteDescriptorForDevice(ConnectableDevice device) {
+        return buildRouteDescriptor(device.getId(), device.getFriendlyName(),
+                device.getConnectedServiceNames(), false);
+    }
+
+    private MediaRouteDescriptor buildRouteDescriptor(String descriptorId, String name,
+            String description, boolean provisional) {
         Bundle bundle = new Bundle();
 
         //bundle.putString(EXTRA_CONNECTABLE_DEVICE, device.toJSONObject().toString());
         //bundle.putString(EXTRA_CONNECTABLE_DEVICE, new Gson().toJson(device));
 
-        String descriptorId = device.getId();
         bundle.putString(ConnectableDevice.KEY_ID, descriptorId);
+        bundle.putBoolean(EXTRA_PROVISIONAL, provisional);
 //        try {
 //            bundle.putByteArray(EXTRA_CONNECTABLE_DEVICE, SerializationUtils.object2Bytes(device));
 //        } catch (IOException e) {
 //            e.printStackTrace();
 //        }
 
-        MediaRouteDescriptor routeDescriptor = new MediaRouteDescriptor.Builder(descriptorId, device.getFriendlyName())
-                .setDescription(device.getConnectedServiceNames())
+        MediaRouteDescriptor routeDescriptor = new MediaRouteDescriptor.Builder(descriptorId, name)
+                .setDescription(description)
                 .addControlFilters(CONTROL_FILTERS_SESSION)
                 .setPlaybackStream(AudioManager.STREAM_MUSIC)
                 .setPlaybackType(RouteInfo.PLAYBACK_TYPE_REMOTE)
@@ -238,71 +322,318 @@ public class ConnectSDKMediaRouteProvider extends MediaRouteProvider{
         //String[] uniqueId = routeId.split(":");
 		//String routeDescriptorId = uniqueId[uniqueId.length-1];
         //return mRouteIdToDeviceMap.get(routeDescriptorId);
-        String deviceId = route.getExtras().getString(ConnectableDevice.KEY_ID);
+        Bundle extras = route.getExtras();
+        String deviceId = extras == null ? null : extras.getString(ConnectableDevice.KEY_ID);
         return getDeviceForRouteId(deviceId);
     }
 
+    /**
+     * Returns the device of the given route, or {@code null} if there is none. This can be
+     * called on any thread.
+     */
     public ConnectableDevice getDeviceForRouteId(String routeId)
     {
-        return mRouteIdToDeviceMap.get(routeId);
+        return mRouteIndex.get(routeId);
+    }
+
+    /**
+     * Returns the index of the devices behind the published routes.
+     */
+    public RouteIndex getRouteIndex() {
+        return mRouteIndex;
     }
 
+    /**
+     * Publishes a route for every device known to the {@link DiscoveryManager}. The descriptor of
+     * a device is only rebuilt when one of the fields it is made of has changed, and nothing is
+     * published at all when neither the set of devices nor any of their descriptors changed, so
+     * that the discovery chatter of a busy network does not keep MediaRouter busy. The last known
+     * devices of the current network that discovery has not found yet are published as
+     * provisional routes after the discovered ones.
+     */
     public void publishRoutes() {
-        MediaRouteProviderDescriptor.Builder providerDescriptorBuilder = new MediaRouteProviderDescriptor.Builder();
+        Map<String, PublishedRoute> routes = new LinkedHashMap<String, PublishedRoute>();
+        Map<String, ConnectableDevice> devices = new HashMap<String, ConnectableDevice>();
+        boolean changed = false;
         for(ConnectableDevice device: DiscoveryManager.getInstance().getAllDevices().values()) {
-            MediaRouteDescriptor routeDescriptor = getMediaRouteDescriptorForDevice(device);
-            mRouteIdToDeviceMap.put(routeDescriptor.getId(), device);
-            providerDescriptorBuilder.addRoute(routeDescriptor);
+            String routeId = device.getId();
+            if (routeId == null || routes.containsKey(routeId)) {
+                continue;
+            }
+            PublishedRoute route = mPublishedRoutes.get(routeId);
+            String name = device.getFriendlyName();
+            String description = device.getConnectedServiceNames();
+            if (route == null || !route.matches(name, description, mVolume, false)) {
+                route = new PublishedRoute(getMediaRouteDescriptorForDevice(device), name,
+                        description, mVolume, false);
+                changed = true;
+            }
+            devices.put(routeId, device);
+            routes.put(routeId, route);
+        }
+        boolean confirmed = false;
+        for (Iterator<WarmStartCache.Entry> it = mProvisionalRoutes.values().iterator();
+                it.hasNext(); ) {
+            WarmStartCache.Entry entry = it.next();
+            if (routes.containsKey(entry.getId())) {
+                it.remove();
+                confirmed = true;
+                continue;
+            }
+            PublishedRoute route = mPublishedRoutes.get(entry.getId());
+            if (route == null
+                    || !route.matches(entry.getName(), entry.getDescription(), mVolume, true)) {
+                route = new PublishedRoute(buildRouteDescriptor(entry.getId(), entry.getName(),
+                        entry.getDescription(), true), entry.getName(), entry.getDescription(),
+                        mVolume, true);
+                changed = true;
+            }
+            routes.put(entry.getId(), route);
+        }
+        if (mProvisionalRoutes.isEmpty()) {
+            mHandler.removeCallbacks(mExpireProvisionalRunnable);
+        }
+        recordStartupMetrics(routes.size(), devices.size());
+        mRouteIndex.update(devices, SystemClock.elapsedRealtime());
+        if (mRouteIndex.size() > devices.size()) {
+            mHandler.removeCallbacks(mEvictRunnable);
+            mHandler.postDelayed(mEvictRunnable, mRouteIndex.getGracePeriod());
+        }
+        if (!changed && routes.keySet().equals(mPublishedRoutes.keySet())) {
+            mSkippedPublishCount++;
+            return;
+        }
+
+        MediaRouteProviderDescriptor.Builder providerDescriptorBuilder = new MediaRouteProviderDescriptor.Builder();
+        for (PublishedRoute route : routes.values()) {
+            providerDescriptorBuilder.addRoute(route.mDescriptor);
         }
+        mPublishedRoutes.clear();
+        mPublishedRoutes.putAll(routes);
+        mPublishCount++;
+        Log.d(TAG, "publishRoutes: " + routes.size() + " routes (published " + mPublishCount
+                + ", skipped " + mSkippedPublishCount + ")");
         setDescriptor(providerDescriptorBuilder.build());
+        if (confirmed && mSelectedController != null) {
+            mSelectedController.onDeviceConfirmed();
+        }
+    }
+
+    private void recordStartupMetrics(int routeCount, int confirmedRouteCount) {
+        long elapsed = SystemClock.elapsedRealtime() - mStartTime;
+        if (mTimeToFirstRouteMs < 0 && routeCount > 0) {
+            mTimeToFirstRouteMs = elapsed;
+            Log.d(TAG, "First route published " + elapsed + "ms after start");
+        }
+        if (mTimeToFirstConfirmedRouteMs < 0 && confirmedRouteCount > 0) {
+            mTimeToFirstConfirmedRouteMs = elapsed;
+            Log.d(TAG, "First route discovered " + elapsed + "ms after start");
+        }
+    }
+
+    /**
+     * Returns the time, in milliseconds, between the creation of the provider and the first route
+     * it published, that is, until the cast button could become visible; or -1 if no route was
+     * published yet. With a warm start this is the time to publish the last known devices.
+     */
+    public long getTimeToFirstRoute() {
+        return mTimeToFirstRouteMs;
+    }
+
+    /**
+     * Returns the time, in milliseconds, between the creation of the provider and the first route
+     * found by discovery, or -1 if discovery has not found any yet.
+     */
+    public long getTimeToFirstConfirmedRoute() {
+        return mTimeToFirstConfirmedRouteMs;
+    }
+
+    /**
+     * Returns {@code true} if the given route was published from the {@link WarmStartCache} and
+     * has not been confirmed by discovery yet.
+     */
+    public boolean isProvisional(String routeId) {
+        return mProvisionalRoutes.containsKey(routeId);
+    }
+
+    /**
+     * Publishes the routes for a discovery event. Discovery tends to come in bursts, as each
+     * service of a device (DIAL, DLNA, Cast, ...) is found separately, so events are coalesced:
+     * the first event of a burst is published right away, and any other event within the publish
+     * window is folded into a single publish at the end of that window. Must be called on the
+     * main thread.
+     */
+    protected void requestPublishRoutes() {
+        if (mPublishScheduled) {
+            mSuppressedPublishCount++;
+            return;
+        }
+        long now = SystemClock.elapsedRealtime();
+        long elapsed = now - mLastPublishRequestTime;
+        if (mLastPublishRequestTime == 0 || elapsed >= mPublishWindowMs) {
+            mLastPublishRequestTime = now;
+            publishRoutes();
+        } else {
+            mSuppressedPublishCount++;
+            mPublishScheduled = true;
+            mHandler.postDelayed(mPublishRunnable, mPublishWindowMs - elapsed);
+        }
+    }
+
+    /**
+     * Sets the length of the window discovery events are coalesced in, in milliseconds; 0
+     * publishes every event right away. The default is {@link #DEFAULT_PUBLISH_WINDOW_MS}.
+     */
+    public void setPublishWindow(long windowMs) {
+        if (windowMs < 0) {
+            throw new IllegalArgumentException("windowMs cannot be negative");
+        }
+        mPublishWindowMs = windowMs;
+    }
+
+    public long getPublishWindow() {
+        return mPublishWindowMs;
+    }
+
+    /**
+     * Returns the number of discovery events that did not trigger a publish of their own because
+     * they were coalesced with others.
+     */
+    public int getSuppressedPublishCount() {
+        return mSuppressedPublishCount;
+    }
+
+    /**
+     * Returns the number of times a new provider descriptor was published.
+     */
+    public int getPublishCount() {
+        return mPublishCount;
+    }
+
+    /**
+     * Returns the number of times publishing was skipped because no route had changed.
+     */
+    public int getSkippedPublishCount() {
+        return mSkippedPublishCount;
+    }
+
+    /**
+     * A published route descriptor, along with the device fields it was built from.
+     */
+    private static final class PublishedRoute {
+        private final MediaRouteDescriptor mDescriptor;
+        private final String mName;
+        private final String mDescription;
+        private final int mVolume;
+        private final boolean mProvisional;
+
+        PublishedRoute(MediaRouteDescriptor descriptor, String name, String description,
+                int volume, boolean provisional) {
+            mDescriptor = descriptor;
+            mName = name;
+            mDescription = description;
+            mVolume = volume;
+            mProvisional = provisional;
+        }
+
+        boolean matches(String name, String description, int volume, boolean provisional) {
+            return mVolume == volume && mProvisional == provisional && equals(mName, name)
+                    && equals(mDescription, description);
+        }
+
+        private static boolean equals(String a, String b) {
+            return a == null ? b == null : a.equals(b);
+        }
     }
 
 
     private final class ConnectSDKRouteController extends RouteController {
         private final String mRouteId;
+        private final SessionManager mSessionManager;
         private PendingIntent mSessionReceiver;
         private ServiceSubscription mVolumeSubscription;
 
         public ConnectSDKRouteController(String routeId) {
             mRouteId = routeId;
+            mSessionManager = new SessionManager(routeId);
+            mSessionManager.setCallback(new SessionManager.Callback() {
+                @Override
+                public void onItemStatusChanged(PlaylistItem item) {
+                    handleStatusChange(item);
+                }
+
+                @Override
+                public void onSessionStatusChanged(String sessionId) {
+                    handleSessionStatusChange(sessionId);
+                }
+            });
             Log.d(TAG, mRouteId + ": Controller created");
         }
 
         @Override
         public void onRelease() {
             Log.d(TAG, mRouteId + ": Controller released");
-
+            if (mSelectedController == this) {
+                mSelectedController = null;
+            }
+            mSessionManager.release();
         }
 
         @Override
         public void onSelect() {
             Log.d(TAG, mRouteId + ": Selected");
+            mSelectedController = this;
             ConnectableDevice device = getDeviceForRouteId(mRouteId);
-            if(device!=null) {
-                VolumeControl volumControl = device.getCapability(VolumeControl.class);
-                if (volumControl != null) {
-                    mVolumeSubscription = volumControl.subscribeVolume(new VolumeControl.VolumeListener() {
-                        @Override
-                        public void onSuccess(Float volume) {
-                            mVolume = Math.round(volume * 10);
-                            publishRoutes();
-                        }
-
-                        @Override
-                        public void onError(ServiceCommandError error) {
-                            Log.d(TAG, "onVolumeChanged error:"+error);
-                        }
-                    });
-                }
+            if (device == null) {
+                // a provisional route, the device is attached once discovery confirms it
+                Log.d(TAG, mRouteId + ": Waiting for discovery to confirm the route");
+                return;
+            }
+            attachDevice(device);
+        }
+
+        /*
+         * Called when discovery confirmed provisional routes, possibly this one.
+         */
+        void onDeviceConfirmed() {
+            ConnectableDevice device = getDeviceForRouteId(mRouteId);
+            if (device != null && mSessionManager.getDevice() == null) {
+                Log.d(TAG, mRouteId + ": Route confirmed by discovery");
+                attachDevice(device);
+            }
+        }
+
+        private void attachDevice(ConnectableDevice device) {
+            mSessionManager.setDevice(device);
+            mWarmStartCache.remember(Utils.getWifiSsid(getContext()), device.getId(),
+                    device.getFriendlyName(), device.getConnectedServiceNames());
+            VolumeControl volumControl = device.getCapability(VolumeControl.class);
+            if (volumControl != null) {
+                mVolumeSubscription = volumControl.subscribeVolume(new VolumeControl.VolumeListener() {
+                    @Override
+                    public void onSuccess(Float volume) {
+                        mVolume = Math.round(volume * 10);
+                        publishRoutes();
+                    }
+
+                    @Override
+                    public void onError(ServiceCommandError error) {
+                        Log.d(TAG, "onVolumeChanged error:"+error);
+                    }
+                });
             }
         }
 
         @Override
         public void onUnselect() {
             Log.d(TAG, mRouteId + ": Unselected");
+            if (mSelectedController == this) {
+                mSelectedController = null;
+            }
             if(mVolumeSubscription!=null) {
                 mVolumeSubscription.unsubscribe();
             }
+            mSessionManager.release();
         }
 
         @Override
@@ -346,7 +677,7 @@ public class ConnectSDKMediaRouteProvider extends MediaRouteProvider{
                 } else if (action.equals(MediaControlIntent.ACTION_END_SESSION)) {
                     success = handleEndSession(intent, callback);
                 }
-                //Log.d(TAG, mSessionManager.toString());
+                Log.d(TAG, mSessionManager.toString());
                 return success;
             }
 
@@ -381,21 +712,19 @@ public class ConnectSDKMediaRouteProvider extends MediaRouteProvider{
 
         private boolean handlePlay(Intent intent, android.support.v7.media.MediaRouter.ControlRequestCallback callback) {
             String sid = intent.getStringExtra(MediaControlIntent.EXTRA_SESSION_ID);
-            if (sid != null /* && !sid.equals(mSessionManager.getSessionId())*/ ) {
+            if (sid != null && !sid.equals(mSessionManager.getSessionId())) {
                 Log.d(TAG, "handlePlay fails because of bad sid="+sid);
                 return false;
             }
-            /*
             if (mSessionManager.hasSession()) {
                 mSessionManager.stop();
             }
-            */
             return handleEnqueue(intent, callback);
         }
 
         private boolean handleEnqueue(Intent intent, android.support.v7.media.MediaRouter.ControlRequestCallback callback) {
             String sid = intent.getStringExtra(MediaControlIntent.EXTRA_SESSION_ID);
-            if (sid != null /*&& !sid.equals(mSessionManager.getSessionId())*/) {
+            if (sid != null && !sid.equals(mSessionManager.getSessionId())) {
                 Log.d(TAG, "handleEnqueue fails because of bad sid="+sid);
                 return false;
             }
@@ -422,17 +751,25 @@ public class ConnectSDKMediaRouteProvider extends MediaRouteProvider{
                     + ", metadata=" + metadata
                     + ", headers=" + headers
                     + ", receiver=" + receiver);
-            //PlaylistItem item = mSessionManager.add(uri, mime, receiver);
+            String title = null;
+            String description = null;
+            String artworkUri = null;
+            if (metadata != null) {
+                title = metadata.getString(MediaItemMetadata.KEY_TITLE);
+                description = metadata.getString(MediaItemMetadata.KEY_ARTIST);
+                artworkUri = metadata.getString(MediaItemMetadata.KEY_ARTWORK_URI);
+            }
+            PlaylistItem item = mSessionManager.add(uri, mime, title, description, artworkUri,
+                    receiver);
+            if (pos > 0) {
+                mSessionManager.seek(item.getItemId(), pos);
+            }
             if (callback != null) {
-//                if (item != null) {
-//                    Bundle result = new Bundle();
-//                    result.putString(MediaControlIntent.EXTRA_SESSION_ID, item.getSessionId());
-//                    result.putString(MediaControlIntent.EXTRA_ITEM_ID, item.getItemId());
-//                    result.putBundle(MediaControlIntent.EXTRA_ITEM_STATUS, item.getStatus().asBundle());
-//                    callback.onResult(result);
-//                } else {
-//                    callback.onError("Failed to open " + uri.toString(), null);
-//                }
+                Bundle result = new Bundle();
+                result.putString(MediaControlIntent.EXTRA_SESSION_ID, item.getSessionId());
+                result.putString(MediaControlIntent.EXTRA_ITEM_ID, item.getItemId());
+                result.putBundle(MediaControlIntent.EXTRA_ITEM_STATUS, item.getStatus().asBundle());
+                callback.onResult(result);
             }
             mEnqueueCount +=1;
             return true;
@@ -440,208 +777,191 @@ public class ConnectSDKMediaRouteProvider extends MediaRouteProvider{
 
         private boolean handleRemove(Intent intent, android.support.v7.media.MediaRouter.ControlRequestCallback callback) {
             String sid = intent.getStringExtra(MediaControlIntent.EXTRA_SESSION_ID);
-//            if (sid == null || !sid.equals(mSessionManager.getSessionId())) {
-//                return false;
-//            }
-//
-//            String iid = intent.getStringExtra(MediaControlIntent.EXTRA_ITEM_ID);
-//            PlaylistItem item = mSessionManager.remove(iid);
-//            if (callback != null) {
-//                if (item != null) {
-//                    Bundle result = new Bundle();
-//                    result.putBundle(MediaControlIntent.EXTRA_ITEM_STATUS,
-//                            item.getStatus().asBundle());
-//                    callback.onResult(result);
-//                } else {
-//                    callback.onError("Failed to remove" +
-//                            ", sid=" + sid + ", iid=" + iid, null);
-//                }
-//            }
-//            return (item != null);
-            return true;
+            if (sid == null || !sid.equals(mSessionManager.getSessionId())) {
+                return false;
+            }
+
+            String iid = intent.getStringExtra(MediaControlIntent.EXTRA_ITEM_ID);
+            PlaylistItem item = mSessionManager.remove(iid);
+            if (callback != null) {
+                if (item != null) {
+                    Bundle result = new Bundle();
+                    result.putBundle(MediaControlIntent.EXTRA_ITEM_STATUS,
+                            item.getStatus().asBundle());
+                    callback.onResult(result);
+                } else {
+                    callback.onError("Failed to remove" +
+                            ", sid=" + sid + ", iid=" + iid, null);
+                }
+            }
+            return (item != null);
         }
 
         private boolean handleSeek(Intent intent, android.support.v7.media.MediaRouter.ControlRequestCallback callback) {
             String sid = intent.getStringExtra(MediaControlIntent.EXTRA_SESSION_ID);
-//            if (sid == null || !sid.equals(mSessionManager.getSessionId())) {
-//                return false;
-//            }
-//
-//            String iid = intent.getStringExtra(MediaControlIntent.EXTRA_ITEM_ID);
-//            long pos = intent.getLongExtra(MediaControlIntent.EXTRA_ITEM_CONTENT_POSITION, 0);
-//            Log.d(TAG, mRouteId + ": Received seek request, pos=" + pos);
-//            PlaylistItem item = mSessionManager.seek(iid, pos);
-//            if (callback != null) {
-//                if (item != null) {
-//                    Bundle result = new Bundle();
-//                    result.putBundle(MediaControlIntent.EXTRA_ITEM_STATUS,
-//                            item.getStatus().asBundle());
-//                    callback.onResult(result);
-//                } else {
-//                    callback.onError("Failed to seek" +
-//                            ", sid=" + sid + ", iid=" + iid + ", pos=" + pos, null);
-//                }
-//            }
-//            return (item != null);
+            if (sid == null || !sid.equals(mSessionManager.getSessionId())) {
+                return false;
+            }
 
-            return true;
+            String iid = intent.getStringExtra(MediaControlIntent.EXTRA_ITEM_ID);
+            long pos = intent.getLongExtra(MediaControlIntent.EXTRA_ITEM_CONTENT_POSITION, 0);
+            Log.d(TAG, mRouteId + ": Received seek request, pos=" + pos);
+            PlaylistItem item = mSessionManager.seek(iid, pos);
+            if (callback != null) {
+                if (item != null) {
+                    Bundle result = new Bundle();
+                    result.putBundle(MediaControlIntent.EXTRA_ITEM_STATUS,
+                            item.getStatus().asBundle());
+                    callback.onResult(result);
+                } else {
+                    callback.onError("Failed to seek" +
+                            ", sid=" + sid + ", iid=" + iid + ", pos=" + pos, null);
+                }
+            }
+            return (item != null);
         }
 
         private boolean handleGetStatus(Intent intent, android.support.v7.media.MediaRouter.ControlRequestCallback callback) {
             String sid = intent.getStringExtra(MediaControlIntent.EXTRA_SESSION_ID);
             String iid = intent.getStringExtra(MediaControlIntent.EXTRA_ITEM_ID);
             Log.d(TAG, mRouteId + ": Received getStatus request, sid=" + sid + ", iid=" + iid);
-//            PlaylistItem item = mSessionManager.getStatus(iid);
-//            if (callback != null) {
-//                if (item != null) {
-//                    Bundle result = new Bundle();
-//                    result.putBundle(MediaControlIntent.EXTRA_ITEM_STATUS,
-//                            item.getStatus().asBundle());
-//                    callback.onResult(result);
-//                } else {
-//                    callback.onError("Failed to get status" +
-//                            ", sid=" + sid + ", iid=" + iid, null);
-//                }
-//            }
-//            return (item != null);
-            return true;
+            PlaylistItem item = mSessionManager.getStatus(iid);
+            if (callback != null) {
+                if (item != null) {
+                    Bundle result = new Bundle();
+                    result.putBundle(MediaControlIntent.EXTRA_ITEM_STATUS,
+                            item.getStatus().asBundle());
+                    callback.onResult(result);
+                } else {
+                    callback.onError("Failed to get status" +
+                            ", sid=" + sid + ", iid=" + iid, null);
+                }
+            }
+            return (item != null);
         }
 
         private boolean handlePause(Intent intent, android.support.v7.media.MediaRouter.ControlRequestCallback callback) {
             String sid = intent.getStringExtra(MediaControlIntent.EXTRA_SESSION_ID);
-//            boolean success = (sid != null) && sid.equals(mSessionManager.getSessionId());
-//            mSessionManager.pause();
-//            if (callback != null) {
-//                if (success) {
-//                    callback.onResult(new Bundle());
-//                    handleSessionStatusChange(sid);
-//                } else {
-//                    callback.onError("Failed to pause, sid=" + sid, null);
-//                }
-//            }
-//            return success;
-            return true;
+            boolean success = (sid != null) && sid.equals(mSessionManager.getSessionId());
+            if (success) {
+                mSessionManager.pause();
+            }
+            if (callback != null) {
+                if (success) {
+                    callback.onResult(new Bundle());
+                } else {
+                    callback.onError("Failed to pause, sid=" + sid, null);
+                }
+            }
+            return success;
         }
 
         private boolean handleResume(Intent intent, android.support.v7.media.MediaRouter.ControlRequestCallback callback) {
             String sid = intent.getStringExtra(MediaControlIntent.EXTRA_SESSION_ID);
-//            boolean success = (sid != null) && sid.equals(mSessionManager.getSessionId());
-//            mSessionManager.resume();
-//            if (callback != null) {
-//                if (success) {
-//                    callback.onResult(new Bundle());
-//                    handleSessionStatusChange(sid);
-//                } else {
-//                    callback.onError("Failed to resume, sid=" + sid, null);
-//                }
-//            }
-//            return success;
-            return true;
+            boolean success = (sid != null) && sid.equals(mSessionManager.getSessionId());
+            if (success) {
+                mSessionManager.resume();
+            }
+            if (callback != null) {
+                if (success) {
+                    callback.onResult(new Bundle());
+                } else {
+                    callback.onError("Failed to resume, sid=" + sid, null);
+                }
+            }
+            return success;
         }
 
         private boolean handleStop(Intent intent, android.support.v7.media.MediaRouter.ControlRequestCallback callback) {
             String sid = intent.getStringExtra(MediaControlIntent.EXTRA_SESSION_ID);
-//            boolean success = (sid != null) && sid.equals(mSessionManager.getSessionId());
-//            mSessionManager.stop();
-//            if (callback != null) {
-//                if (success) {
-//                    callback.onResult(new Bundle());
-//                    handleSessionStatusChange(sid);
-//                } else {
-//                    callback.onError("Failed to stop, sid=" + sid, null);
-//                }
-//            }
-//            return success;
-            return true;
+            boolean success = (sid != null) && sid.equals(mSessionManager.getSessionId());
+            if (success) {
+                mSessionManager.stop();
+            }
+            if (callback != null) {
+                if (success) {
+                    callback.onResult(new Bundle());
+                } else {
+                    callback.onError("Failed to stop, sid=" + sid, null);
+                }
+            }
+            return success;
         }
 
         private boolean handleStartSession(Intent intent, android.support.v7.media.MediaRouter.ControlRequestCallback callback) {
-//            String sid = mSessionManager.startSession();
-//            Log.d(TAG, "StartSession returns sessionId "+sid);
-//            if (callback != null) {
-//                if (sid != null) {
-//                    Bundle result = new Bundle();
-//                    result.putString(MediaControlIntent.EXTRA_SESSION_ID, sid);
-//                    result.putBundle(MediaControlIntent.EXTRA_SESSION_STATUS,
-//                            mSessionManager.getSessionStatus(sid).asBundle());
-//                    callback.onResult(result);
-//                    mSessionReceiver = (PendingIntent)intent.getParcelableExtra(
-//                            MediaControlIntent.EXTRA_SESSION_STATUS_UPDATE_RECEIVER);
-//                    handleSessionStatusChange(sid);
-//                } else {
-//                    callback.onError("Failed to start session.", null);
-//                }
-//            }
-//            return (sid != null);
-            return true;
+            String sid = mSessionManager.startSession();
+            Log.d(TAG, "StartSession returns sessionId "+sid);
+            if (callback != null) {
+                if (sid != null) {
+                    Bundle result = new Bundle();
+                    result.putString(MediaControlIntent.EXTRA_SESSION_ID, sid);
+                    result.putBundle(MediaControlIntent.EXTRA_SESSION_STATUS,
+                            mSessionManager.getSessionStatus(sid).asBundle());
+                    callback.onResult(result);
+                    mSessionReceiver = (PendingIntent)intent.getParcelableExtra(
+                            MediaControlIntent.EXTRA_SESSION_STATUS_UPDATE_RECEIVER);
+                    handleSessionStatusChange(sid);
+                } else {
+                    callback.onError("Failed to start session.", null);
+                }
+            }
+            return (sid != null);
         }
 
         private boolean handleGetSessionStatus(Intent intent, android.support.v7.media.MediaRouter.ControlRequestCallback callback) {
             String sid = intent.getStringExtra(MediaControlIntent.EXTRA_SESSION_ID);
 
-//            MediaSessionStatus sessionStatus = mSessionManager.getSessionStatus(sid);
-//            if (callback != null) {
-//                if (sessionStatus != null) {
-//                    Bundle result = new Bundle();
-//                    result.putBundle(MediaControlIntent.EXTRA_SESSION_STATUS,
-//                            mSessionManager.getSessionStatus(sid).asBundle());
-//                    callback.onResult(result);
-//                } else {
-//                    callback.onError("Failed to get session status, sid=" + sid, null);
-//                }
-//            }
-//            return (sessionStatus != null);
+            MediaSessionStatus sessionStatus = mSessionManager.getSessionStatus(sid);
+            if (callback != null) {
+                Bundle result = new Bundle();
+                result.putBundle(MediaControlIntent.EXTRA_SESSION_STATUS,
+                        sessionStatus.asBundle());
+                callback.onResult(result);
+            }
             return true;
         }
 
         private boolean handleEndSession(Intent intent, android.support.v7.media.MediaRouter.ControlRequestCallback callback) {
             String sid = intent.getStringExtra(MediaControlIntent.EXTRA_SESSION_ID);
-//            boolean success = (sid != null) && sid.equals(mSessionManager.getSessionId())
-//                    && mSessionManager.endSession();
-//            if (callback != null) {
-//                if (success) {
-//                    Bundle result = new Bundle();
-//                    MediaSessionStatus sessionStatus = new MediaSessionStatus.Builder(
-//                            MediaSessionStatus.SESSION_STATE_ENDED).build();
-//                    result.putBundle(MediaControlIntent.EXTRA_SESSION_STATUS, sessionStatus.asBundle());
-//                    callback.onResult(result);
-//                    handleSessionStatusChange(sid);
-//                    mSessionReceiver = null;
-//                } else {
-//                    callback.onError("Failed to end session, sid=" + sid, null);
-//                }
-//            }
-//            return success;
-            return true;
+            boolean success = (sid != null) && sid.equals(mSessionManager.getSessionId())
+                    && mSessionManager.endSession();
+            if (callback != null) {
+                if (success) {
+                    Bundle result = new Bundle();
+                    MediaSessionStatus sessionStatus = new MediaSessionStatus.Builder(
+                            MediaSessionStatus.SESSION_STATE_ENDED).build();
+                    result.putBundle(MediaControlIntent.EXTRA_SESSION_STATUS, sessionStatus.asBundle());
+                    callback.onResult(result);
+                    mSessionReceiver = null;
+                } else {
+                    callback.onError("Failed to end session, sid=" + sid, null);
+                }
+            }
+            return success;
         }
 
-//        private void handleStatusChange(PlaylistItem item) {
-//            if (item == null) {
-//                item = mSessionManager.getCurrentItem();
-//            }
-//            if (item != null) {
-//                PendingIntent receiver = item.getUpdateReceiver();
-//                if (receiver != null) {
-//                    Intent intent = new Intent();
-//                    intent.putExtra(MediaControlIntent.EXTRA_SESSION_ID, item.getSessionId());
-//                    intent.putExtra(MediaControlIntent.EXTRA_ITEM_ID, item.getItemId());
-//                    intent.putExtra(MediaControlIntent.EXTRA_ITEM_STATUS,
-//                            item.getStatus().asBundle());
-//                    try {
-//                        receiver.send(getContext(), 0, intent);
-//                        Log.d(TAG, mRouteId + ": Sending status update from provider");
-//                    } catch (PendingIntent.CanceledException e) {
-//                        Log.d(TAG, mRouteId + ": Failed to send status update!");
-//                    }
-//                }
-//            }
-//        }
+        private void handleStatusChange(PlaylistItem item) {
+            PendingIntent receiver = item.getUpdateReceiver();
+            if (receiver != null) {
+                Intent intent = new Intent();
+                intent.putExtra(MediaControlIntent.EXTRA_SESSION_ID, item.getSessionId());
+                intent.putExtra(MediaControlIntent.EXTRA_ITEM_ID, item.getItemId());
+                intent.putExtra(MediaControlIntent.EXTRA_ITEM_STATUS,
+                        item.getStatus().asBundle());
+                try {
+                    receiver.send(getContext(), 0, intent);
+                    Log.d(TAG, mRouteId + ": Sending status update from provider");
+                } catch (PendingIntent.CanceledException e) {
+                    Log.d(TAG, mRouteId + ": Failed to send status update!");
+                }
+            }
+        }
 
         private void handleSessionStatusChange(String sid) {
             if (mSessionReceiver != null) {
                 Intent intent = new Intent();
                 intent.putExtra(MediaControlIntent.EXTRA_SESSION_ID, sid);
-                //intent.putExtra(MediaControlIntent.EXTRA_SESSION_STATUS, mSessionManager.getSessionStatus(sid).asBundle());
+                intent.putExtra(MediaControlIntent.EXTRA_SESSION_STATUS, mSessionManager.getSessionStatus(sid).asBundle());
                 try {
                     mSessionReceiver.send(getContext(), 0, intent);
                     Log.d(TAG, mRouteId + ": Sending session status update from provider");
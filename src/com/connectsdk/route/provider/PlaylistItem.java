@@ -0,0 +1,163 @@
+package com.connectsdk.route.provider;
+
+import android.app.PendingIntent;
+import android.net.Uri;
+import android.os.SystemClock;
+import android.support.v7.media.MediaItemStatus;
+
+/**
+ * An item of the playlist of a {@link SessionManager}. Its {@link MediaItemStatus} is built once
+ * and kept until the item actually changes, so that status requests are answered from memory.
+ */
+public final class PlaylistItem {
+
+    // a position that is off the extrapolated one by less than this is not worth a status update
+    private static final long POSITION_TOLERANCE_MS = 1000;
+
+    private final String mSessionId;
+    private final String mItemId;
+    private final Uri mUri;
+    private final String mMime;
+    private final String mTitle;
+    private final String mDescription;
+    private final String mArtworkUri;
+    private final PendingIntent mUpdateReceiver;
+
+    private int mPlaybackState = MediaItemStatus.PLAYBACK_STATE_PENDING;
+    private long mContentPosition;
+    private long mContentDuration;
+    private long mTimestamp = SystemClock.elapsedRealtime();
+    private MediaItemStatus mStatus;
+
+    PlaylistItem(String sessionId, String itemId, Uri uri, String mime, String title,
+            String description, String artworkUri, PendingIntent updateReceiver) {
+        mSessionId = sessionId;
+        mItemId = itemId;
+        mUri = uri;
+        mMime = mime;
+        mTitle = title;
+        mDescription = description;
+        mArtworkUri = artworkUri;
+        mUpdateReceiver = updateReceiver;
+    }
+
+    public String getSessionId() {
+        return mSessionId;
+    }
+
+    public String getItemId() {
+        return mItemId;
+    }
+
+    public Uri getUri() {
+        return mUri;
+    }
+
+    public String getMime() {
+        return mMime;
+    }
+
+    public String getTitle() {
+        return mTitle;
+    }
+
+    public String getDescription() {
+        return mDescription;
+    }
+
+    public String getArtworkUri() {
+        return mArtworkUri;
+    }
+
+    public PendingIntent getUpdateReceiver() {
+        return mUpdateReceiver;
+    }
+
+    public int getPlaybackState() {
+        return mPlaybackState;
+    }
+
+    public long getContentPosition() {
+        return mContentPosition;
+    }
+
+    public long getContentDuration() {
+        return mContentDuration;
+    }
+
+    /**
+     * Returns {@code true} once the item has finished, was canceled or failed to play.
+     */
+    public boolean isDone() {
+        return mPlaybackState == MediaItemStatus.PLAYBACK_STATE_FINISHED
+                || mPlaybackState == MediaItemStatus.PLAYBACK_STATE_CANCELED
+                || mPlaybackState == MediaItemStatus.PLAYBACK_STATE_INVALIDATED
+                || mPlaybackState == MediaItemStatus.PLAYBACK_STATE_ERROR;
+    }
+
+    /**
+     * Returns the status of the item. The position it holds is the one at the time of its
+     * timestamp; clients extrapolate it while the item is playing.
+     */
+    public MediaItemStatus getStatus() {
+        if (mStatus == null) {
+            mStatus = new MediaItemStatus.Builder(mPlaybackState)
+                    .setContentPosition(mContentPosition)
+                    .setContentDuration(mContentDuration)
+                    .setTimestamp(mTimestamp)
+                    .build();
+        }
+        return mStatus;
+    }
+
+    /**
+     * Sets the playback state, along with the position at this time.
+     *
+     * @return {@code true} if the state changed.
+     */
+    boolean setPlaybackState(int playbackState, long position) {
+        if (playbackState == mPlaybackState) {
+            return false;
+        }
+        mPlaybackState = playbackState;
+        mContentPosition = Math.max(0, position);
+        mTimestamp = SystemClock.elapsedRealtime();
+        mStatus = null;
+        return true;
+    }
+
+    /**
+     * Updates the position and duration with values read from the device.
+     *
+     * @return {@code true} if they differ from what clients would extrapolate from the current
+     * status by a noticeable amount.
+     */
+    boolean setPosition(long position, long duration) {
+        long now = SystemClock.elapsedRealtime();
+        long expected = mContentPosition;
+        if (mPlaybackState == MediaItemStatus.PLAYBACK_STATE_PLAYING) {
+            expected += now - mTimestamp;
+        }
+        if (duration == mContentDuration
+                && Math.abs(position - expected) < POSITION_TOLERANCE_MS) {
+            return false;
+        }
+        mContentPosition = Math.max(0, position);
+        mContentDuration = duration;
+        mTimestamp = now;
+        mStatus = null;
+        return true;
+    }
+
+    @Override
+    public String toString() {
+        String[] states = {
+                "PENDING", "PLAYING", "PAUSED", "BUFFERING", "FINISHED", "CANCELED",
+                "INVALIDATED", "ERROR"
+        };
+        return "[" + mSessionId + "|" + mItemId + "|"
+                + (mPlaybackState >= 0 && mPlaybackState < states.length
+                ? states[mPlaybackState] : mPlaybackState)
+                + "] " + mUri;
+    }
+}
@@ -0,0 +1,158 @@
+package com.connectsdk.route.provider;
+
+import com.connectsdk.device.ConnectableDevice;
+
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Maps route ids to the {@link ConnectableDevice} they were published for.
+ * <p>
+ * Lookups are lock-free: they read an immutable snapshot that {@link #update(Map, long)} replaces
+ * atomically, so a reader never sees a half-applied update. Devices that disappear from
+ * discovery are kept for a grace period, so that a route that is selected (or being reconnected
+ * to) while its device briefly drops off the network still resolves, and are evicted after
+ * that. At most {@code maxStaleEntries} of those are kept at any time, the ones that left first
+ * being evicted first, so that memory stays bounded however many transient devices are seen.
+ */
+public class RouteIndex {
+
+    public static final long DEFAULT_GRACE_PERIOD_MS = 60 * 1000;
+    public static final int DEFAULT_MAX_STALE_ENTRIES = 32;
+
+    private final long mGracePeriodMs;
+    private final int mMaxStaleEntries;
+    private volatile Map<String, Entry> mSnapshot = Collections.emptyMap();
+    private int mEvictionCount;
+
+    public RouteIndex() {
+        this(DEFAULT_GRACE_PERIOD_MS, DEFAULT_MAX_STALE_ENTRIES);
+    }
+
+    public RouteIndex(long gracePeriodMs, int maxStaleEntries) {
+        mGracePeriodMs = gracePeriodMs;
+        mMaxStaleEntries = maxStaleEntries;
+    }
+
+    /**
+     * Returns the device of the given route, or {@code null} if there is none. This can be
+     * called on any thread.
+     */
+    public ConnectableDevice get(String routeId) {
+        if (routeId == null) {
+            return null;
+        }
+        Entry entry = mSnapshot.get(routeId);
+        return entry == null ? null : entry.mDevice;
+    }
+
+    /**
+     * Returns {@code true} if the device of the given route is currently discovered, as opposed
+     * to being kept for its grace period.
+     */
+    public boolean isLive(String routeId) {
+        Entry entry = routeId == null ? null : mSnapshot.get(routeId);
+        return entry != null && entry.mRemovedAt == 0;
+    }
+
+    public int size() {
+        return mSnapshot.size();
+    }
+
+    public long getGracePeriod() {
+        return mGracePeriodMs;
+    }
+
+    /**
+     * Replaces the index with the devices that are currently discovered, by route id. Devices
+     * that are no longer in {@code liveDevices} are kept until their grace period expires.
+     *
+     * @param now the current time, from {@code SystemClock.elapsedRealtime()}
+     */
+    public synchronized void update(Map<String, ConnectableDevice> liveDevices, long now) {
+        Map<String, Entry> previous = mSnapshot;
+        Map<String, Entry> next = new HashMap<String, Entry>(
+                Math.max(previous.size(), liveDevices.size()) * 4 / 3 + 1);
+        boolean changed = false;
+        for (Map.Entry<String, ConnectableDevice> live : liveDevices.entrySet()) {
+            Entry entry = previous.get(live.getKey());
+            if (entry == null || entry.mDevice != live.getValue() || entry.mRemovedAt != 0) {
+                entry = new Entry(live.getValue(), 0);
+                changed = true;
+            }
+            next.put(live.getKey(), entry);
+        }
+
+        List<Map.Entry<String, Entry>> stale = new ArrayList<Map.Entry<String, Entry>>();
+        for (Map.Entry<String, Entry> old : previous.entrySet()) {
+            if (next.containsKey(old.getKey())) {
+                continue;
+            }
+            Entry entry = old.getValue();
+            if (entry.mRemovedAt == 0) {
+                entry = new Entry(entry.mDevice, now);
+                changed = true;
+            } else if (now - entry.mRemovedAt >= mGracePeriodMs) {
+                mEvictionCount++;
+                changed = true;
+                continue;
+            }
+            next.put(old.getKey(), entry);
+            stale.add(new AbstractMap.SimpleImmutableEntry<String, Entry>(old.getKey(), entry));
+        }
+
+        if (stale.size() > mMaxStaleEntries) {
+            Collections.sort(stale, OLDEST_REMOVED_FIRST);
+            for (int i = 0; i < stale.size() - mMaxStaleEntries; i++) {
+                next.remove(stale.get(i).getKey());
+                mEvictionCount++;
+            }
+            changed = true;
+        }
+
+        if (changed) {
+            mSnapshot = Collections.unmodifiableMap(next);
+        }
+    }
+
+    /**
+     * Empties the index.
+     */
+    public synchronized void clear() {
+        mSnapshot = Collections.emptyMap();
+    }
+
+    /**
+     * Returns the number of devices that were dropped from the index, either because their grace
+     * period expired or to keep the index bounded.
+     */
+    public synchronized int getEvictionCount() {
+        return mEvictionCount;
+    }
+
+    private static final Comparator<Map.Entry<String, Entry>> OLDEST_REMOVED_FIRST =
+            new Comparator<Map.Entry<String, Entry>>() {
+                @Override
+                public int compare(Map.Entry<String, Entry> lhs, Map.Entry<String, Entry> rhs) {
+                    long a = lhs.getValue().mRemovedAt;
+                    long b = rhs.getValue().mRemovedAt;
+                    return a < b ? -1 : (a == b ? 0 : 1);
+                }
+            };
+
+    private static final class Entry {
+        private final ConnectableDevice mDevice;
+        // when the device stopped being discovered, or 0 while it is
+        private final long mRemovedAt;
+
+        Entry(ConnectableDevice device, long removedAt) {
+            mDevice = device;
+            mRemovedAt = removedAt;
+        }
+    }
+}
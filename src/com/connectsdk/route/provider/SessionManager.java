@@ -0,0 +1,481 @@
+package com.connectsdk.route.provider;
+
+import android.app.PendingIntent;
+import android.net.Uri;
+import android.support.v7.media.MediaItemStatus;
+import android.support.v7.media.MediaSessionStatus;
+import android.util.Log;
+
+import com.connectsdk.core.ImageInfo;
+import com.connectsdk.core.MediaInfo;
+import com.connectsdk.device.ConnectableDevice;
+import com.connectsdk.service.capability.MediaControl;
+import com.connectsdk.service.capability.MediaPlayer;
+import com.connectsdk.service.capability.listeners.ResponseListener;
+import com.connectsdk.service.command.ServiceCommandError;
+import com.connectsdk.service.command.ServiceSubscription;
+import com.google.android.libraries.cast.companionlibrary.cast.PlayheadClock;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+
+/**
+ * The session and playlist of a route, as seen by {@link android.support.v7.media.MediaRouter}
+ * clients through {@link android.support.v7.media.MediaControlIntent}s, played on the
+ * {@link ConnectableDevice} of that route.
+ * <p>
+ * Items are kept in a {@link LinkedHashMap} by item id, in playing order, so that they can be
+ * looked up, seeked or removed without scanning the playlist. Item and session statuses are
+ * cached and only rebuilt when they change; the position of the current item comes from a
+ * {@link PlayheadClock} that is re-anchored on the device when the play state changes, so status
+ * requests never need a round trip to the device. The {@link Callback} is only called when a
+ * status actually changed. Must be used on the main thread.
+ */
+public class SessionManager {
+
+    private static final String TAG = SessionManager.class.getSimpleName();
+
+    /**
+     * Notified of status changes, to forward them to the receivers registered by clients.
+     */
+    public interface Callback {
+
+        void onItemStatusChanged(PlaylistItem item);
+
+        void onSessionStatusChanged(String sessionId);
+    }
+
+    private final String mName;
+    private final LinkedHashMap<String, PlaylistItem> mPlaylist =
+            new LinkedHashMap<String, PlaylistItem>();
+    private final PlayheadClock mClock = new PlayheadClock();
+    private int mSessionId;
+    private int mItemId;
+    private boolean mSessionValid;
+    private boolean mPaused;
+    private MediaSessionStatus mSessionStatus;
+    private Callback mCallback;
+
+    private ConnectableDevice mDevice;
+    private MediaControl mMediaControl;
+    private ServiceSubscription<MediaControl.PlayStateListener> mPlayStateSubscription;
+    // the item whose media is loaded on the device, if any
+    private PlaylistItem mLoadedItem;
+    // where to seek the loaded item to once it has started, or -1
+    private long mPendingSeekMs = -1;
+
+    public SessionManager(String name) {
+        mName = name;
+    }
+
+    public void setCallback(Callback callback) {
+        mCallback = callback;
+    }
+
+    /**
+     * Sets the device the playlist is played on, or {@code null}.
+     */
+    public void setDevice(ConnectableDevice device) {
+        if (device != mDevice) {
+            unloadMedia(false);
+            mDevice = device;
+        }
+    }
+
+    public ConnectableDevice getDevice() {
+        return mDevice;
+    }
+
+    public boolean hasSession() {
+        return mSessionValid;
+    }
+
+    public String getSessionId() {
+        return mSessionValid ? Integer.toString(mSessionId) : null;
+    }
+
+    public PlaylistItem getCurrentItem() {
+        Iterator<PlaylistItem> it = mPlaylist.values().iterator();
+        return it.hasNext() ? it.next() : null;
+    }
+
+    public boolean isPaused() {
+        return mSessionValid && mPaused;
+    }
+
+    /**
+     * Starts a new session and returns its id, or {@code null} if there already is one.
+     */
+    public String startSession() {
+        if (mSessionValid) {
+            return null;
+        }
+        mSessionId++;
+        mItemId = 0;
+        mPaused = false;
+        mSessionValid = true;
+        mSessionStatus = null;
+        return getSessionId();
+    }
+
+    /**
+     * Ends the current session, canceling its items. Returns {@code false} if there is none.
+     */
+    public boolean endSession() {
+        if (!mSessionValid) {
+            return false;
+        }
+        String sid = getSessionId();
+        cancelAll();
+        mSessionValid = false;
+        mPaused = false;
+        mSessionStatus = null;
+        notifySessionStatusChanged(sid);
+        return true;
+    }
+
+    /**
+     * Returns the status of the given session; sessions that are not the current one are
+     * reported as invalidated.
+     */
+    public MediaSessionStatus getSessionStatus(String sid) {
+        if (sid == null || !sid.equals(getSessionId())) {
+            return new MediaSessionStatus.Builder(MediaSessionStatus.SESSION_STATE_INVALIDATED)
+                    .build();
+        }
+        if (mSessionStatus == null) {
+            mSessionStatus = new MediaSessionStatus.Builder(
+                    MediaSessionStatus.SESSION_STATE_ACTIVE)
+                    .setQueuePaused(mPaused)
+                    .build();
+        }
+        return mSessionStatus;
+    }
+
+    /**
+     * Appends an item to the playlist, starting a session if there is none, and starts playing
+     * it if it is the only one.
+     */
+    public PlaylistItem add(Uri uri, String mime, String title, String description,
+            String artworkUri, PendingIntent receiver) {
+        if (!mSessionValid) {
+            startSession();
+        }
+        PlaylistItem item = new PlaylistItem(getSessionId(), Integer.toString(++mItemId), uri,
+                mime, title, description, artworkUri, receiver);
+        mPlaylist.put(item.getItemId(), item);
+        Log.d(TAG, mName + ": add " + item);
+        if (getCurrentItem() == item) {
+            loadCurrentItem();
+        }
+        return item;
+    }
+
+    /**
+     * Removes an item from the playlist, moving on to the next one if it was playing.
+     */
+    public PlaylistItem remove(String iid) {
+        if (!mSessionValid) {
+            return null;
+        }
+        boolean wasCurrent = getCurrentItem() != null && getCurrentItem().getItemId().equals(iid);
+        PlaylistItem item = mPlaylist.remove(iid);
+        if (item == null) {
+            return null;
+        }
+        Log.d(TAG, mName + ": remove " + item);
+        setItemState(item, MediaItemStatus.PLAYBACK_STATE_CANCELED);
+        if (wasCurrent) {
+            unloadMedia(true);
+            loadCurrentItem();
+        }
+        return item;
+    }
+
+    /**
+     * Seeks the current item, which {@code iid} must be, to {@code position}.
+     */
+    public PlaylistItem seek(String iid, long position) {
+        PlaylistItem item = getItem(iid);
+        if (item == null || item != getCurrentItem()) {
+            return null;
+        }
+        if (mMediaControl != null && item == mLoadedItem) {
+            mClock.seekTo(position);
+            mMediaControl.seek(position, new LoggingListener("seek"));
+        } else if (item == mLoadedItem) {
+            // still launching
+            mPendingSeekMs = position;
+        }
+        if (item.setPosition(position, item.getContentDuration())) {
+            notifyItemStatusChanged(item);
+        }
+        return item;
+    }
+
+    /**
+     * Returns the given item of the current session; the status it holds is the cached one.
+     */
+    public PlaylistItem getStatus(String iid) {
+        return getItem(iid);
+    }
+
+    public void pause() {
+        if (!mSessionValid || mPaused) {
+            return;
+        }
+        mPaused = true;
+        if (mMediaControl != null) {
+            mMediaControl.pause(new LoggingListener("pause"));
+        }
+        mSessionStatus = null;
+        notifySessionStatusChanged(getSessionId());
+    }
+
+    public void resume() {
+        if (!mSessionValid || !mPaused) {
+            return;
+        }
+        mPaused = false;
+        if (mLoadedItem != null && mLoadedItem == getCurrentItem()) {
+            // if it is still launching, it starts playing when the launch succeeds
+            if (mMediaControl != null) {
+                mMediaControl.play(new LoggingListener("play"));
+            }
+        } else {
+            loadCurrentItem();
+        }
+        mSessionStatus = null;
+        notifySessionStatusChanged(getSessionId());
+    }
+
+    /**
+     * Stops playback and cancels every item, keeping the session.
+     */
+    public void stop() {
+        if (!mSessionValid) {
+            return;
+        }
+        cancelAll();
+        if (mPaused) {
+            mPaused = false;
+            mSessionStatus = null;
+            notifySessionStatusChanged(getSessionId());
+        }
+    }
+
+    /**
+     * Releases the device; the playlist is kept.
+     */
+    public void release() {
+        unloadMedia(false);
+        mDevice = null;
+    }
+
+    private PlaylistItem getItem(String iid) {
+        return mSessionValid && iid != null ? mPlaylist.get(iid) : null;
+    }
+
+    private void cancelAll() {
+        unloadMedia(true);
+        List<PlaylistItem> items = new ArrayList<PlaylistItem>(mPlaylist.values());
+        mPlaylist.clear();
+        for (PlaylistItem item : items) {
+            setItemState(item, MediaItemStatus.PLAYBACK_STATE_CANCELED);
+        }
+    }
+
+    private void loadCurrentItem() {
+        final PlaylistItem item = getCurrentItem();
+        if (item == null || mPaused) {
+            return;
+        }
+        MediaPlayer player = mDevice == null ? null : mDevice.getCapability(MediaPlayer.class);
+        if (player == null) {
+            Log.d(TAG, mName + ": no media player to play " + item);
+            return;
+        }
+        List<ImageInfo> images = new ArrayList<ImageInfo>();
+        if (item.getArtworkUri() != null) {
+            images.add(new ImageInfo(item.getArtworkUri()));
+        }
+        MediaInfo media = new MediaInfo(item.getUri().toString(), item.getMime(), item.getTitle(),
+                item.getDescription(), images);
+        // drop the control of the previous item, so that nothing is sent to it until this launch
+        // succeeds
+        unloadMedia(false);
+        mLoadedItem = item;
+        player.playMedia(media, false, new MediaPlayer.LaunchListener() {
+            @Override
+            public void onSuccess(MediaPlayer.MediaLaunchObject mediaLaunchObject) {
+                if (item != mLoadedItem) {
+                    return;
+                }
+                mMediaControl = mediaLaunchObject.mediaControl;
+                if (mMediaControl != null && mPendingSeekMs >= 0) {
+                    mMediaControl.seek(mPendingSeekMs, new LoggingListener("seek"));
+                }
+                mPendingSeekMs = -1;
+                if (mMediaControl != null && mPaused) {
+                    // paused while launching
+                    mMediaControl.pause(new LoggingListener("pause"));
+                }
+                if (mMediaControl != null) {
+                    mPlayStateSubscription = mMediaControl.subscribePlayState(
+                            new MediaControl.PlayStateListener() {
+                                @Override
+                                public void onSuccess(MediaControl.PlayStateStatus status) {
+                                    if (item == mLoadedItem) {
+                                        onPlayStateChanged(item, status);
+                                    }
+                                }
+
+                                @Override
+                                public void onError(ServiceCommandError error) {
+                                    Log.d(TAG, mName + ": play state error " + error);
+                                }
+                            });
+                }
+            }
+
+            @Override
+            public void onError(ServiceCommandError error) {
+                Log.d(TAG, mName + ": failed to play " + item + ": " + error);
+                if (item == mLoadedItem) {
+                    mLoadedItem = null;
+                    mPlaylist.remove(item.getItemId());
+                    setItemState(item, MediaItemStatus.PLAYBACK_STATE_ERROR);
+                    loadCurrentItem();
+                }
+            }
+        });
+    }
+
+    private void unloadMedia(boolean stopDevice) {
+        if (mPlayStateSubscription != null) {
+            mPlayStateSubscription.unsubscribe();
+            mPlayStateSubscription = null;
+        }
+        if (stopDevice && mMediaControl != null) {
+            mMediaControl.stop(new LoggingListener("stop"));
+        }
+        mMediaControl = null;
+        mLoadedItem = null;
+        mPendingSeekMs = -1;
+        mClock.reset();
+    }
+
+    private void onPlayStateChanged(final PlaylistItem item, MediaControl.PlayStateStatus status) {
+        int state;
+        switch (status) {
+            case Playing:
+                state = MediaItemStatus.PLAYBACK_STATE_PLAYING;
+                break;
+            case Paused:
+                state = MediaItemStatus.PLAYBACK_STATE_PAUSED;
+                break;
+            case Buffering:
+                state = MediaItemStatus.PLAYBACK_STATE_BUFFERING;
+                break;
+            case Finished:
+                state = MediaItemStatus.PLAYBACK_STATE_FINISHED;
+                break;
+            default:
+                return;
+        }
+        boolean advancing = state == MediaItemStatus.PLAYBACK_STATE_PLAYING;
+        mClock.setAdvancing(advancing);
+        if (state == MediaItemStatus.PLAYBACK_STATE_FINISHED) {
+            mPlaylist.remove(item.getItemId());
+            setItemState(item, state);
+            unloadMedia(false);
+            loadCurrentItem();
+            return;
+        }
+        setItemState(item, state);
+        if (mClock.isResyncDue() && mMediaControl != null) {
+            resyncPosition(item, advancing);
+        }
+    }
+
+    private void resyncPosition(final PlaylistItem item, final boolean advancing) {
+        final MediaControl control = mMediaControl;
+        control.getDuration(new MediaControl.DurationListener() {
+            @Override
+            public void onSuccess(final Long duration) {
+                control.getPosition(new MediaControl.PositionListener() {
+                    @Override
+                    public void onSuccess(Long position) {
+                        if (item != mLoadedItem) {
+                            return;
+                        }
+                        mClock.sync(position, duration, advancing);
+                        if (item.setPosition(position, duration)) {
+                            notifyItemStatusChanged(item);
+                        }
+                    }
+
+                    @Override
+                    public void onError(ServiceCommandError error) {
+                        Log.d(TAG, mName + ": getPosition error " + error);
+                    }
+                });
+            }
+
+            @Override
+            public void onError(ServiceCommandError error) {
+                Log.d(TAG, mName + ": getDuration error " + error);
+            }
+        });
+    }
+
+    private void setItemState(PlaylistItem item, int state) {
+        long position = item == mLoadedItem && mClock.isSynced()
+                ? mClock.getPositionMs() : item.getContentPosition();
+        if (item.setPlaybackState(state, position)) {
+            notifyItemStatusChanged(item);
+        }
+    }
+
+    private void notifyItemStatusChanged(PlaylistItem item) {
+        Log.d(TAG, mName + ": status changed " + item);
+        if (mCallback != null) {
+            mCallback.onItemStatusChanged(item);
+        }
+    }
+
+    private void notifySessionStatusChanged(String sid) {
+        if (mCallback != null) {
+            mCallback.onSessionStatusChanged(sid);
+        }
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder(mName).append(": session=").append(getSessionId())
+                .append(mPaused ? " (paused)" : "");
+        for (PlaylistItem item : mPlaylist.values()) {
+            sb.append("\n  ").append(item);
+        }
+        return sb.toString();
+    }
+
+    private final class LoggingListener implements ResponseListener<Object> {
+        private final String mCommand;
+
+        LoggingListener(String command) {
+            mCommand = command;
+        }
+
+        @Override
+        public void onSuccess(Object object) {
+        }
+
+        @Override
+        public void onError(ServiceCommandError error) {
+            Log.d(TAG, mName + ": " + mCommand + " failed: " + error);
+        }
+    }
+}
@@ -0,0 +1,141 @@
+package com.connectsdk.route.provider;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.util.Log;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Remembers the devices recently used on each Wi-Fi network, so that their routes can be
+ * published as soon as the provider starts, before discovery has found them again. Entries are
+ * kept most recently used first, at most {@link #MAX_ENTRIES_PER_NETWORK} per network, and are
+ * forgotten after {@link #MAX_AGE_MS} without use.
+ */
+public class WarmStartCache {
+
+    private static final String TAG = WarmStartCache.class.getSimpleName();
+
+    public static final int MAX_ENTRIES_PER_NETWORK = 8;
+    public static final long MAX_AGE_MS = 7 * 24 * 60 * 60 * 1000L;
+
+    private static final String PREFS_NAME = "com.connectsdk.route.provider.warm_start";
+    private static final String KEY_PREFIX = "routes:";
+    private static final String JSON_ID = "id";
+    private static final String JSON_NAME = "name";
+    private static final String JSON_DESCRIPTION = "description";
+    private static final String JSON_LAST_USED = "lastUsed";
+
+    /**
+     * A device as it was last seen.
+     */
+    public static final class Entry {
+        private final String mId;
+        private final String mName;
+        private final String mDescription;
+        private final long mLastUsed;
+
+        Entry(String id, String name, String description, long lastUsed) {
+            mId = id;
+            mName = name;
+            mDescription = description;
+            mLastUsed = lastUsed;
+        }
+
+        public String getId() {
+            return mId;
+        }
+
+        public String getName() {
+            return mName;
+        }
+
+        public String getDescription() {
+            return mDescription;
+        }
+
+        /**
+         * Returns when the device was last used, in milliseconds since the epoch.
+         */
+        public long getLastUsed() {
+            return mLastUsed;
+        }
+    }
+
+    private final SharedPreferences mPreferences;
+
+    public WarmStartCache(Context context) {
+        mPreferences = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+    }
+
+    /**
+     * Returns the devices recently used on the given network, most recently used first.
+     */
+    public List<Entry> load(String ssid) {
+        if (ssid == null) {
+            return Collections.emptyList();
+        }
+        String json = mPreferences.getString(KEY_PREFIX + ssid, null);
+        if (json == null) {
+            return Collections.emptyList();
+        }
+        List<Entry> entries = new ArrayList<Entry>();
+        long oldest = System.currentTimeMillis() - MAX_AGE_MS;
+        try {
+            JSONArray array = new JSONArray(json);
+            for (int i = 0; i < array.length(); i++) {
+                JSONObject object = array.getJSONObject(i);
+                long lastUsed = object.optLong(JSON_LAST_USED);
+                if (lastUsed < oldest) {
+                    continue;
+                }
+                entries.add(new Entry(object.getString(JSON_ID), object.optString(JSON_NAME, null),
+                        object.optString(JSON_DESCRIPTION, null), lastUsed));
+            }
+        } catch (JSONException e) {
+            Log.d(TAG, "Ignoring the unreadable devices of " + ssid, e);
+            return Collections.emptyList();
+        }
+        return entries;
+    }
+
+    /**
+     * Records that the given device was used on the given network.
+     */
+    public void remember(String ssid, String id, String name, String description) {
+        if (ssid == null || id == null) {
+            return;
+        }
+        List<Entry> entries = new ArrayList<Entry>();
+        entries.add(new Entry(id, name, description, System.currentTimeMillis()));
+        for (Entry entry : load(ssid)) {
+            if (entries.size() == MAX_ENTRIES_PER_NETWORK) {
+                break;
+            }
+            if (!entry.mId.equals(id)) {
+                entries.add(entry);
+            }
+        }
+        JSONArray array = new JSONArray();
+        try {
+            for (Entry entry : entries) {
+                JSONObject object = new JSONObject();
+                object.put(JSON_ID, entry.mId);
+                object.put(JSON_NAME, entry.mName);
+                object.put(JSON_DESCRIPTION, entry.mDescription);
+                object.put(JSON_LAST_USED, entry.mLastUsed);
+                array.put(object);
+            }
+        } catch (JSONException e) {
+            Log.d(TAG, "Failed to remember " + id, e);
+            return;
+        }
+        mPreferences.edit().putString(KEY_PREFIX + ssid, array.toString()).apply();
+    }
+}
@@ -0,0 +1,222 @@
+/*
+ * Copyright (C) 2015 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.android.libraries.cast.companionlibrary.cast;
+
+import static com.google.android.libraries.cast.companionlibrary.utils.LogUtils.LOGD;
+
+import com.google.android.gms.cast.MediaInfo;
+import com.google.android.gms.cast.MediaMetadata;
+import com.google.android.gms.cast.MediaQueueItem;
+import com.google.android.gms.common.images.WebImage;
+import com.google.android.libraries.cast.companionlibrary.utils.ArtworkSpec;
+import com.google.android.libraries.cast.companionlibrary.utils.FetchBitmapTask;
+import com.google.android.libraries.cast.companionlibrary.utils.LogUtils;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Loads the artwork of the next items of a {@link MediaQueue} ahead of time, at the sizes used by
+ * the mini controllers, the notification and the lock screen (see {@link ArtworkSpec}), so that a
+ * track transition finds its artwork in memory instead of going to the network.
+ * <p>
+ * Prefetching is throttled: one image is loaded at a time, at
+ * {@link FetchBitmapTask#PRIORITY_PREFETCH}, with a short pause in between, so that it never gets
+ * in the way of artwork that is on screen. Lock screen artwork is large, so it is only prefetched
+ * for the very next item. A new call to {@link #prefetch(MediaQueue, boolean)} replaces whatever
+ * was pending, and cancels the image being loaded.
+ */
+public class ArtworkPrefetcher {
+
+    private static final String TAG = LogUtils.makeLogTag(ArtworkPrefetcher.class);
+    public static final int DEFAULT_PREFETCH_COUNT = 2;
+    // pause between two prefetched images
+    private static final long THROTTLE_INTERVAL_MS = 300;
+
+    private final Context mContext;
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+    // only accessed on the main thread
+    private final LinkedList<Request> mPending = new LinkedList<>();
+    private FetchBitmapTask mCurrentTask;
+    private int mPrefetchCount = DEFAULT_PREFETCH_COUNT;
+    private long mIssuedCount;
+    private long mCancelledCount;
+
+    private final Runnable mIssueNextRunnable = new Runnable() {
+        @Override
+        public void run() {
+            issueNext();
+        }
+    };
+
+    ArtworkPrefetcher(Context context) {
+        mContext = context.getApplicationContext();
+    }
+
+    /**
+     * Prefetches the artwork of the items that follow the current item of {@code queue}. This can
+     * be called on any thread.
+     *
+     * @param includeLockScreen {@code true} to also prefetch the lock screen artwork of the next
+     * item.
+     */
+    public void prefetch(final MediaQueue queue, final boolean includeLockScreen) {
+        final List<MediaQueueItem> upcoming = queue == null ? null
+                : queue.getUpcomingItems(getPrefetchCount());
+        mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                cancelPending();
+                if (upcoming == null || upcoming.isEmpty()) {
+                    return;
+                }
+                enqueue(upcoming, includeLockScreen);
+                LOGD(TAG, "Prefetching " + mPending.size() + " images for " + upcoming.size()
+                        + " upcoming items");
+                issueNext();
+            }
+        });
+    }
+
+    /**
+     * Drops any pending prefetch. This can be called on any thread.
+     */
+    public void cancel() {
+        mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                cancelPending();
+            }
+        });
+    }
+
+    /**
+     * Sets how many upcoming items get their artwork prefetched. The default is
+     * {@link #DEFAULT_PREFETCH_COUNT}; 0 disables prefetching.
+     */
+    public synchronized void setPrefetchCount(int prefetchCount) {
+        if (prefetchCount < 0) {
+            throw new IllegalArgumentException("prefetchCount cannot be negative");
+        }
+        mPrefetchCount = prefetchCount;
+    }
+
+    public synchronized int getPrefetchCount() {
+        return mPrefetchCount;
+    }
+
+    /**
+     * Returns the number of images whose prefetch was started. Must be called on the main thread.
+     */
+    public long getIssuedCount() {
+        return mIssuedCount;
+    }
+
+    /**
+     * Returns the number of prefetches that were dropped, pending or in flight, because the queue
+     * changed. Must be called on the main thread.
+     */
+    public long getCancelledCount() {
+        return mCancelledCount;
+    }
+
+    private void enqueue(List<MediaQueueItem> upcoming, boolean includeLockScreen) {
+        ArtworkSpec miniControllerSpec = ArtworkSpec.forMiniController(mContext);
+        ArtworkSpec notificationSpec = ArtworkSpec.forNotification(mContext);
+        ArtworkSpec lockScreenSpec = ArtworkSpec.forLockScreen(mContext);
+        Set<String> keys = new HashSet<>();
+        for (int i = 0; i < upcoming.size(); i++) {
+            List<WebImage> images = getImages(upcoming.get(i));
+            if (images.isEmpty()) {
+                continue;
+            }
+            Uri url = images.get(0).getUrl();
+            add(keys, url, miniControllerSpec);
+            add(keys, url, notificationSpec);
+            if (i == 0 && includeLockScreen) {
+                add(keys, images.get(ArtworkSpec.getLockScreenImageIndex(images.size())).getUrl(),
+                        lockScreenSpec);
+            }
+        }
+    }
+
+    private void add(Set<String> keys, Uri url, ArtworkSpec spec) {
+        if (url != null && keys.add(spec.makeKey(url.toString()))) {
+            mPending.add(new Request(url, spec));
+        }
+    }
+
+    private void issueNext() {
+        if (mCurrentTask != null) {
+            return;
+        }
+        Request request = mPending.poll();
+        if (request == null) {
+            return;
+        }
+        mCurrentTask = new FetchBitmapTask(request.mSpec.getWidth(), request.mSpec.getHeight(),
+                request.mSpec.getFlags()) {
+            @Override
+            protected void onPostExecute(Bitmap bitmap) {
+                if (this == mCurrentTask) {
+                    mCurrentTask = null;
+                    mHandler.postDelayed(mIssueNextRunnable, THROTTLE_INTERVAL_MS);
+                }
+            }
+        };
+        mCurrentTask.setPriority(FetchBitmapTask.PRIORITY_PREFETCH);
+        mIssuedCount++;
+        mCurrentTask.execute(request.mUrl);
+    }
+
+    private void cancelPending() {
+        mHandler.removeCallbacks(mIssueNextRunnable);
+        mCancelledCount += mPending.size();
+        mPending.clear();
+        if (mCurrentTask != null) {
+            mCurrentTask.cancel(true);
+            mCurrentTask = null;
+            mCancelledCount++;
+        }
+    }
+
+    private static List<WebImage> getImages(MediaQueueItem item) {
+        MediaInfo media = item == null ? null : item.getMedia();
+        MediaMetadata metadata = media == null ? null : media.getMetadata();
+        List<WebImage> images = metadata == null ? null : metadata.getImages();
+        return images == null ? Collections.<WebImage>emptyList() : images;
+    }
+
+    private static class Request {
+        private final Uri mUrl;
+        private final ArtworkSpec mSpec;
+
+        private Request(Uri url, ArtworkSpec spec) {
+            mUrl = url;
+            mSpec = spec;
+        }
+    }
+}
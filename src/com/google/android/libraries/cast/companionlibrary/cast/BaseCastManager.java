@@ -53,20 +53,20 @@ import com.google.android.libraries.cast.companionlibrary.cast.exceptions.CastEx
 import com.google.android.libraries.cast.companionlibrary.cast.exceptions.NoConnectionException;
 import com.google.android.libraries.cast.companionlibrary.cast.exceptions.OnFailedListener;
 import com.google.android.libraries.cast.companionlibrary.cast.exceptions.TransientNetworkDisconnectionException;
+import com.google.android.libraries.cast.companionlibrary.cast.reconnection.ReconnectionScheduler;
 import com.google.android.libraries.cast.companionlibrary.cast.reconnection.ReconnectionService;
+import com.google.android.libraries.cast.companionlibrary.utils.LatencyHistogram;
 import com.google.android.libraries.cast.companionlibrary.utils.LogUtils;
 import com.google.android.libraries.cast.companionlibrary.utils.PreferenceAccessor;
 import com.google.android.libraries.cast.companionlibrary.utils.Utils;
 
-import android.annotation.TargetApi;
 import android.app.Activity;
 import android.app.PendingIntent;
 import android.content.Context;
 import android.content.Intent;
 import android.media.RemoteControlClient;
-import android.os.AsyncTask;
-import android.os.Build;
 import android.os.Handler;
+import android.os.Looper;
 import android.os.Message;
 import android.os.SystemClock;
 import android.support.annotation.IntDef;
@@ -88,6 +88,7 @@ import java.util.List;
 import java.util.Locale;
 import java.util.Set;
 import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.TimeUnit;
 
 /**
  * An abstract class that manages connectivity to a cast device. Subclasses are expected to extend
@@ -109,6 +110,8 @@ public abstract class BaseCastManager implements /*ConnectionCallbacks, OnConnec
     public static final int FEATURE_CAPTIONS_PREFERENCE = 1 << 4;
     public static final int FEATURE_AUTO_RECONNECT = 1 << 5;
 
+    // the session id, SSID, media end and route id now live in the SessionRecord; their keys are
+    // only read to migrate older installs
     public static final String PREFS_KEY_SESSION_ID = "session-id";
     public static final String PREFS_KEY_SSID = "ssid";
     public static final String PREFS_KEY_MEDIA_END = "media-end";
@@ -150,6 +153,8 @@ public abstract class BaseCastManager implements /*ConnectionCallbacks, OnConnec
     protected ConnectableDevice mSelectedCastDevice;
     protected String mDeviceName;
     protected PreferenceAccessor mPreferenceAccessor;
+    protected SessionRecord mSessionRecord;
+    protected final CommandQueue mCommandQueue = new CommandQueue();
 
     private final Set<BaseCastConsumer> mBaseCastConsumers = new CopyOnWriteArraySet<>();
     private boolean mDestroyOnDisconnect = false;
@@ -158,7 +163,39 @@ public abstract class BaseCastManager implements /*ConnectionCallbacks, OnConnec
     protected int mVisibilityCounter;
     protected boolean mUiVisible;
     //protected GoogleApiClient mApiClient;
-    protected AsyncTask<Void, Integer, Boolean> mReconnectionTask;
+    private final Handler mRecoveryHandler = new Handler(Looper.getMainLooper());
+    // when the ongoing session recovery started, or 0 if there is none
+    private long mRecoveryStartedAt;
+    private long mFailedRecoveryCount;
+    private final LatencyHistogram mTimeToRecover = new LatencyHistogram("time-to-recover");
+    private final Runnable mRecoveryDeadline = new Runnable() {
+        @Override
+        public void run() {
+            onRecoveryDeadline();
+        }
+    };
+    private final ReconnectionScheduler mReconnectionScheduler = new ReconnectionScheduler(
+            new ReconnectionScheduler.Target() {
+                @Override
+                public boolean isConnected() {
+                    return BaseCastManager.this.isConnected();
+                }
+
+                @Override
+                public boolean attemptReconnection(String ssid, int windowSeconds) {
+                    startCastDiscovery();
+                    reconnectSessionIfPossible(windowSeconds, ssid);
+                    return mRecoveryStartedAt != 0 || BaseCastManager.this.isConnected();
+                }
+
+                @Override
+                public void onReconnectionAbandoned(boolean cancelled) {
+                    // when cancelled, it is by a route change that is already under way
+                    abandonRecovery(!cancelled);
+                }
+            });
+    // the route that the library unselected itself by selecting the default route, if any
+    private String mRouteUnselectedByLibrary;
     protected int mCapabilities;
     protected boolean mConnectionSuspended;
     protected boolean isConnecting;
@@ -224,6 +261,7 @@ public abstract class BaseCastManager implements /*ConnectionCallbacks, OnConnec
         LOGD(TAG, "BaseCastManager is instantiated\nVersion: " + sCclVersion + "\nApplication ID: " + applicationId);
         mContext = context.getApplicationContext();
         mPreferenceAccessor = new PreferenceAccessor(mContext);
+        mSessionRecord = new SessionRecord(mContext, mPreferenceAccessor);
         mUiVisibilityHandler = new Handler(new UpdateUiVisibilityHandlerCallback());
         mApplicationId = applicationId;
         //mLaunchOptions = new LaunchOptions.Builder().setRelaunchIfRunning(false).build();
@@ -388,6 +426,7 @@ public abstract class BaseCastManager implements /*ConnectionCallbacks, OnConnec
             mSelectedCastDevice.removeListener(this);
         	mSelectedCastDevice = null;
         }
+        mCommandQueue.clear();
 
         onDeviceUnselected();
 //        if (mApiClient != null) {
@@ -401,7 +440,7 @@ public abstract class BaseCastManager implements /*ConnectionCallbacks, OnConnec
 //            }
             if ((mMediaRouter != null) && setDefaultRoute) {
                 LOGD(TAG, "disconnectDevice(): Setting route to default");
-                mMediaRouter.selectRoute(mMediaRouter.getDefaultRoute());
+                selectDefaultRoute();
             }
 //            mApiClient = null;
 //        }
@@ -457,7 +496,17 @@ public abstract class BaseCastManager implements /*ConnectionCallbacks, OnConnec
         return mSelectedCastDevice;
     }
 
+    /**
+     * Returns the queue the commands of the selected device go through.
+     */
+    public CommandQueue getCommandQueue() {
+        return mCommandQueue;
+    }
+
     private void setDevice(ConnectableDevice device) {
+        if (device != mSelectedCastDevice) {
+            mCommandQueue.clear();
+        }
         mSelectedCastDevice = device;
         mDeviceName = mSelectedCastDevice.getFriendlyName();
 
@@ -767,9 +816,16 @@ public abstract class BaseCastManager implements /*ConnectionCallbacks, OnConnec
         checkConnectivity();
         try {
             //Cast.CastApi.setVolume(mApiClient, volume);
-            VolumeControl volumeControl = mSelectedCastDevice.getCapability(VolumeControl.class);
+            final VolumeControl volumeControl = mSelectedCastDevice.getCapability(VolumeControl.class);
             if(volumeControl!=null){
-                volumeControl.setVolume((float) volume, null);
+                final float level = (float) volume;
+                mCommandQueue.enqueue(new CommandQueue.Command("setVolume",
+                        CommandQueue.COLLAPSE_KEY_VOLUME) {
+                    @Override
+                    protected void execute(ResponseListener<Object> listener) {
+                        volumeControl.setVolume(level, listener);
+                    }
+                });
             }
 //        } catch (IOException e) {
 //            throw new CastException("Failed to set volume", e);
@@ -864,9 +920,16 @@ public abstract class BaseCastManager implements /*ConnectionCallbacks, OnConnec
         checkConnectivity();
         try {
             //Cast.CastApi.setMute(mApiClient, mute);
-            VolumeControl volumeControl = mSelectedCastDevice.getCapability(VolumeControl.class);
+            final VolumeControl volumeControl = mSelectedCastDevice.getCapability(VolumeControl.class);
             if(volumeControl!=null){
-                volumeControl.setMute(mute, null);
+                final boolean muted = mute;
+                mCommandQueue.enqueue(new CommandQueue.Command("setMute",
+                        CommandQueue.COLLAPSE_KEY_MUTE) {
+                    @Override
+                    protected void execute(ResponseListener<Object> listener) {
+                        volumeControl.setMute(muted, listener);
+                    }
+                });
             }
 //        } catch (IOException e) {
 //            throw new CastException("setDeviceMute", e);
@@ -917,16 +980,16 @@ public abstract class BaseCastManager implements /*ConnectionCallbacks, OnConnec
      * as the <code>ssidName</code>
      */
     public final boolean canConsiderSessionRecovery(String ssidName) {
-        String sessionId = mPreferenceAccessor.getStringFromPreference(PREFS_KEY_SESSION_ID);
-        String routeId = mPreferenceAccessor.getStringFromPreference(PREFS_KEY_ROUTE_ID);
-        String ssid = mPreferenceAccessor.getStringFromPreference(PREFS_KEY_SSID);
+        String sessionId = mSessionRecord.getSessionId();
+        String routeId = mSessionRecord.getRouteId();
+        String ssid = mSessionRecord.getSsid();
         if (sessionId == null || routeId == null) {
             return false;
         }
         if (ssidName != null && (ssid == null || (!ssid.equals(ssidName)))) {
             return false;
         }
-        LOGD(TAG, "Found session info in the preferences, so proceed with an "
+        LOGD(TAG, "Found session info in the session record, so proceed with an "
                 + "attempt to reconnect if possible");
         return true;
     }
@@ -935,9 +998,9 @@ public abstract class BaseCastManager implements /*ConnectionCallbacks, OnConnec
         if (isConnected()) {
             return;
         }
-        String sessionId = mPreferenceAccessor.getStringFromPreference(PREFS_KEY_SESSION_ID);
-        String routeId = mPreferenceAccessor.getStringFromPreference(PREFS_KEY_ROUTE_ID);
-        LOGD(TAG, "reconnectSessionIfPossible() Retrieved from preferences: " + "sessionId="
+        String sessionId = mSessionRecord.getSessionId();
+        String routeId = mSessionRecord.getRouteId();
+        LOGD(TAG, "reconnectSessionIfPossible() Retrieved from session record: " + "sessionId="
                 + sessionId + ", routeId=" + routeId);
         if (sessionId == null || routeId == null) {
             return;
@@ -953,13 +1016,137 @@ public abstract class BaseCastManager implements /*ConnectionCallbacks, OnConnec
     }
 
     /*
-     * Cancels the task responsible for recovery of prior sessions, is used internally.
+     * Cancels the deadline of the recovery of prior sessions, is used internally.
      */
     public final void cancelReconnectionTask() {
         LOGD(TAG, "cancelling reconnection task");
-        if (mReconnectionTask != null && !mReconnectionTask.isCancelled()) {
-            mReconnectionTask.cancel(true);
+        mRecoveryHandler.removeCallbacks(mRecoveryDeadline);
+        mRecoveryStartedAt = 0;
+    }
+
+    /**
+     * Returns the distribution of the time it took past session recoveries to reconnect to the
+     * device.
+     */
+    public LatencyHistogram getTimeToRecoverLatency() {
+        return mTimeToRecover;
+    }
+
+    /**
+     * Returns the scheduler that retries session recovery with backoff, e.g. when Wi-Fi comes
+     * back.
+     */
+    public ReconnectionScheduler getReconnectionScheduler() {
+        return mReconnectionScheduler;
+    }
+
+    /**
+     * Returns the number of session recoveries that failed or timed out.
+     */
+    public long getFailedRecoveryCount() {
+        return mFailedRecoveryCount;
+    }
+
+    /*
+     * Ends the ongoing session recovery, if any.
+     */
+    private void finishRecovery(boolean recovered) {
+        if (mRecoveryStartedAt == 0) {
+            return;
+        }
+        mRecoveryHandler.removeCallbacks(mRecoveryDeadline);
+        long elapsed = SystemClock.elapsedRealtime() - mRecoveryStartedAt;
+        mRecoveryStartedAt = 0;
+        if (recovered) {
+            mTimeToRecover.record(elapsed);
+            LOGD(TAG, "Session recovered in " + elapsed + "ms, " + mTimeToRecover);
+        } else {
+            mFailedRecoveryCount++;
+            LOGD(TAG, "Session recovery failed after " + elapsed + "ms");
+        }
+        mReconnectionScheduler.onAttemptFinished(recovered);
+    }
+
+    private void onRecoveryDeadline() {
+        if (isConnected()) {
+            finishRecovery(true);
+            return;
+        }
+        setReconnectionStatus(RECONNECTION_STATUS_INACTIVE);
+        if (mReconnectionScheduler.isRunning()) {
+            LOGD(TAG, "Couldn't reconnect, releasing the device until the next attempt");
+            releaseRecoveryDevice();
+            finishRecovery(false);
+            return;
+        }
+        LOGD(TAG, "Couldn't reconnect, dropping connection");
+        finishRecovery(false);
+        onDeviceSelected(null);
+    }
+
+    /*
+     * Lets go of the device of a failed recovery attempt without disconnecting the session: the
+     * session record is kept and the route stays selected, for the next attempt of the
+     * ReconnectionScheduler.
+     */
+    private void releaseRecoveryDevice() {
+        if (mSelectedCastDevice == null) {
+            return;
+        }
+        ConnectableDevice device = mSelectedCastDevice;
+        mSelectedCastDevice = null;
+        mDeviceName = null;
+        isConnecting = false;
+        // stop listening first, so that the disconnection does not tear the session down
+        device.removeListener(this);
+        device.disconnect();
+        mCommandQueue.clear();
+        onDeviceUnselected();
+    }
+
+    /*
+     * Tears down what a run of the ReconnectionScheduler kept between its attempts, once it has
+     * given up.
+     */
+    private void abandonRecovery(boolean setDefaultRoute) {
+        LOGD(TAG, "abandonRecovery(" + setDefaultRoute + ")");
+        cancelReconnectionTask();
+        setReconnectionStatus(RECONNECTION_STATUS_INACTIVE);
+        mConnectionSuspended = false;
+        if (mSelectedCastDevice != null) {
+            for (BaseCastConsumer consumer : mBaseCastConsumers) {
+                consumer.onDeviceUnselected(mSelectedCastDevice);
+            }
+            disconnectDevice(mDestroyOnDisconnect, true, setDefaultRoute);
+            return;
+        }
+        clearPersistedConnectionInfo(CLEAR_ALL);
+        stopReconnectionService();
+        if (mMediaRouter != null && setDefaultRoute) {
+            selectDefaultRoute();
+        }
+        onDisconnected(mDestroyOnDisconnect, true, setDefaultRoute);
+    }
+
+    private void selectDefaultRoute() {
+        RouteInfo selected = mMediaRouter.getSelectedRoute();
+        RouteInfo defaultRoute = mMediaRouter.getDefaultRoute();
+        if (selected != null && !selected.equals(defaultRoute)) {
+            mRouteUnselectedByLibrary = selected.getId();
+        }
+        mMediaRouter.selectRoute(defaultRoute);
+    }
+
+    /*
+     * Returns true if the given route was unselected by the library itself rather than by the
+     * user, forgetting it in the process.
+     */
+    boolean consumeRouteUnselectedByLibrary(RouteInfo route) {
+        if (route != null && route.getId().equals(mRouteUnselectedByLibrary)) {
+            mRouteUnselectedByLibrary = null;
+            return true;
         }
+        return false;
     }
 
     /**
@@ -996,20 +1183,26 @@ public abstract class BaseCastManager implements /*ConnectionCallbacks, OnConnec
      * </ul>
      * Under these conditions, a best-effort attempt will be made to continue with the same
      * session.
-     * This attempt will go on for <code>timeoutInSeconds</code> seconds.
+     * This attempt will go on for <code>timeoutInSeconds</code> seconds. Nothing is polled in the
+     * meantime: the attempt moves on when the route is added, the device is ready or the
+     * connection fails, and is only given up when its deadline expires.
      *
      * @param timeoutInSeconds the length of time, in seconds, to attempt reconnection before giving
      * up
      * @param ssidName The name of Wifi SSID
      */
-    @TargetApi(Build.VERSION_CODES.ICE_CREAM_SANDWICH)
     public void reconnectSessionIfPossible(final int timeoutInSeconds, String ssidName) {
         LOGD(TAG, String.format("reconnectSessionIfPossible(%d, %s)", timeoutInSeconds, ssidName));
         if (isConnected()) {
             return;
         }
-        String routeId = mPreferenceAccessor.getStringFromPreference(PREFS_KEY_ROUTE_ID);
+        String routeId = mSessionRecord.getRouteId();
         if (canConsiderSessionRecovery(ssidName)) {
+            // replace the deadline of any prior attempt
+            mRecoveryHandler.removeCallbacks(mRecoveryDeadline);
+            mRecoveryStartedAt = SystemClock.elapsedRealtime();
+            mRecoveryHandler.postDelayed(mRecoveryDeadline,
+                    TimeUnit.SECONDS.toMillis(timeoutInSeconds));
             List<RouteInfo> routes = mMediaRouter.getRoutes();
             RouteInfo theRoute = null;
             if (routes != null) {
@@ -1020,57 +1213,15 @@ public abstract class BaseCastManager implements /*ConnectionCallbacks, OnConnec
                     }
                 }
             }
-            if (theRoute != null) {
+            if (theRoute != null && getDeviceForRouteId(theRoute) != null) {
                 // route has already been discovered, so lets just get the device
                 reconnectSessionIfPossibleInternal(theRoute);
             } else {
-                // we set a flag so if the route is discovered within a short period, we let
-                // onRouteAdded callback of CastMediaRouterCallback take care of that
+                // we set a flag so if the route is discovered (or, if it was published from the
+                // last known devices, confirmed) within a short period, we let the onRouteAdded or
+                // onRouteChanged callback of CastMediaRouterCallback take care of that
                 setReconnectionStatus(RECONNECTION_STATUS_STARTED);
             }
-
-            // cancel any prior reconnection task
-            if (mReconnectionTask != null && !mReconnectionTask.isCancelled()) {
-                mReconnectionTask.cancel(true);
-            }
-
-            // we may need to reconnect to an existing session
-            mReconnectionTask = new AsyncTask<Void, Integer, Boolean>() {
-
-                @Override
-                protected Boolean doInBackground(Void... params) {
-                    for (int i = 0; i < timeoutInSeconds; i++) {
-                        LOGD(TAG, "Reconnection: Attempt " + (i + 1));
-                        if (isCancelled()) {
-                            return true;
-                        }
-                        try {
-                            if (isConnected()) {
-                                cancel(true);
-                            }
-                            Thread.sleep(1000);
-                        } catch (InterruptedException e) {
-                            // ignore
-                        }
-                    }
-                    return false;
-                }
-
-                @Override
-                protected void onPostExecute(Boolean result) {
-                    if (result == null || !result) {
-                        LOGD(TAG, "Couldn't reconnect, dropping connection");
-                        setReconnectionStatus(RECONNECTION_STATUS_INACTIVE);
-                        onDeviceSelected(null);
-                    }
-                }
-
-            };
-            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB) {
-                mReconnectionTask.executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR);
-            } else {
-                mReconnectionTask.execute();
-            }
         }
     }
 
@@ -1192,10 +1343,11 @@ public abstract class BaseCastManager implements /*ConnectionCallbacks, OnConnec
             }
             return;
         }
+        finishRecovery(true);
         try {
             if (isFeatureEnabled(FEATURE_WIFI_RECONNECT)) {
                 String ssid = Utils.getWifiSsid(mContext);
-                mPreferenceAccessor.saveStringToPreference(PREFS_KEY_SSID, ssid);
+                mSessionRecord.setSsid(ssid);
             }
 
             //Cast.CastApi.requestStatus(mApiClient);
@@ -1245,6 +1397,19 @@ public abstract class BaseCastManager implements /*ConnectionCallbacks, OnConnec
     public void onConnectionFailed(ConnectableDevice connectableDevice, ServiceCommandError serviceCommandError) {
         LOGD(TAG, "onConnectionFailed() reached, error code: " + serviceCommandError.getCode() + ", reason: " + serviceCommandError.getPayload());
         isConnecting = false;
+        if (mRecoveryStartedAt != 0) {
+            // no need to wait for the deadline, the device will not come back for this attempt
+            setReconnectionStatus(RECONNECTION_STATUS_INACTIVE);
+            if (mReconnectionScheduler.isRunning()) {
+                releaseRecoveryDevice();
+                finishRecovery(false);
+                for (BaseCastConsumer consumer : mBaseCastConsumers) {
+                    consumer.onConnectionFailed(serviceCommandError);
+                }
+                return;
+            }
+            finishRecovery(false);
+        }
         disconnectDevice(mDestroyOnDisconnect, false, true);
         mConnectionSuspended = false;
 
@@ -1378,7 +1543,7 @@ public abstract class BaseCastManager implements /*ConnectionCallbacks, OnConnec
 
         if (mReconnectionStatus == RECONNECTION_STATUS_IN_PROGRESS) {
             LOGD(TAG, "Attempting to join a previously interrupted session...");
-            String sessionId = mPreferenceAccessor.getStringFromPreference(PREFS_KEY_SESSION_ID);
+            String sessionId = mSessionRecord.getSessionId();
             LOGD(TAG, "joinApplication() -> start");
 //            Cast.CastApi.joinApplication(mApiClient, mApplicationId, sessionId).setResultCallback(
 //                    new ResultCallback<Cast.ApplicationConnectionResult>() {
@@ -1579,6 +1744,13 @@ public abstract class BaseCastManager implements /*ConnectionCallbacks, OnConnec
         return mPreferenceAccessor;
     }
 
+    /**
+     * Returns the persisted information needed to recover the last session.
+     */
+    public SessionRecord getSessionRecord() {
+        return mSessionRecord;
+    }
+
     /**
      * Clears the persisted connection information. Bitwise OR combination of the following options
      * should be passed as the argument:
@@ -1593,18 +1765,21 @@ public abstract class BaseCastManager implements /*ConnectionCallbacks, OnConnec
      */
     public final void clearPersistedConnectionInfo(int what) {
         LOGD(TAG, "clearPersistedConnectionInfo(): Clearing persisted data for " + what);
+        mSessionRecord.beginTransaction();
         if (isFlagSet(what, CLEAR_SESSION)) {
-            mPreferenceAccessor.saveStringToPreference(PREFS_KEY_SESSION_ID, null);
+            mSessionRecord.setSessionId(null);
+            mSessionRecord.setMediaId(null);
         }
         if (isFlagSet(what, CLEAR_ROUTE)) {
-            mPreferenceAccessor.saveStringToPreference(PREFS_KEY_ROUTE_ID, null);
+            mSessionRecord.setRouteId(null);
         }
         if (isFlagSet(what, CLEAR_WIFI)) {
-            mPreferenceAccessor.saveStringToPreference(PREFS_KEY_SSID, null);
+            mSessionRecord.setSsid(null);
         }
         if (isFlagSet(what, CLEAR_MEDIA_END)) {
-            mPreferenceAccessor.saveLongToPreference(PREFS_KEY_MEDIA_END, null);
+            mSessionRecord.setMediaEnd(SessionRecord.NO_MEDIA_END);
         }
+        mSessionRecord.endTransaction();
     }
 
     private static boolean isFlagSet(int mask, int flag) {
@@ -1617,7 +1792,7 @@ public abstract class BaseCastManager implements /*ConnectionCallbacks, OnConnec
         }
         LOGD(TAG, "startReconnectionService() for media length lef = " + mediaDurationLeft);
         long endTime = SystemClock.elapsedRealtime() + mediaDurationLeft;
-        mPreferenceAccessor.saveLongToPreference(PREFS_KEY_MEDIA_END, endTime);
+        mSessionRecord.setMediaEnd(endTime);
         Context applicationContext = mContext.getApplicationContext();
         Intent service = new Intent(applicationContext, ReconnectionService.class);
         service.setPackage(applicationContext.getPackageName());
@@ -39,6 +39,8 @@ public class CastMediaRouterCallback extends MediaRouter.Callback {
     private static final String TAG = LogUtils.makeLogTag(CastMediaRouterCallback.class);
     private final BaseCastManager mCastManager;
     private boolean mRouteAvailable = false;
+    // a selected route that has no device yet, as it was published before discovery found it
+    private String mPendingRouteId;
 
     public CastMediaRouterCallback(BaseCastManager castManager) {
         mCastManager = castManager;
@@ -53,9 +55,18 @@ public class CastMediaRouterCallback extends MediaRouter.Callback {
             mCastManager.cancelReconnectionTask();
             return;
         }
-        mCastManager.getPreferenceAccessor().saveStringToPreference(BaseCastManager.PREFS_KEY_ROUTE_ID, info.getId());
+        // the user picked a route, which takes over any pending reconnection
+        mCastManager.getReconnectionScheduler().cancel();
+        mCastManager.getSessionRecord().setRouteId(info.getId());
 
         ConnectableDevice device = mCastManager.getDeviceForRouteId(info);
+        if (device == null) {
+            LOGD(TAG, "onRouteSelected: no device yet, waiting for discovery to confirm the route");
+            mPendingRouteId = info.getId();
+            mCastManager.setRouteInfo(info);
+            return;
+        }
+        mPendingRouteId = null;
         mCastManager.onDeviceSelected(device);
         LOGD(TAG, "onRouteSelected: mSelectedDevice=" + device.getFriendlyName());
         mCastManager.setRouteInfo(info);
@@ -64,6 +75,10 @@ public class CastMediaRouterCallback extends MediaRouter.Callback {
     @Override
     public void onRouteUnselected(MediaRouter router, RouteInfo route) {
         LOGD(TAG, "onRouteUnselected: route=" + route);
+        if (!mCastManager.consumeRouteUnselectedByLibrary(route)) {
+            mCastManager.getReconnectionScheduler().cancel();
+        }
+        mPendingRouteId = null;
         mCastManager.onDeviceSelected(null);
         mCastManager.setRouteInfo(null);
     }
@@ -75,16 +90,25 @@ public class CastMediaRouterCallback extends MediaRouter.Callback {
             notifyRouteAvailabilityChangedIfNeeded(router);
             mCastManager.onCastDeviceDetected(route);
         }
+        recoverSessionIfPending(route);
+    }
+
+    /*
+     * Resumes a session recovery that was waiting for the given route to show up with a device.
+     */
+    private void recoverSessionIfPending(RouteInfo route) {
         if (mCastManager.getReconnectionStatus()
                 == BaseCastManager.RECONNECTION_STATUS_STARTED) {
-            String routeId = mCastManager.getPreferenceAccessor().getStringFromPreference(
-                    BaseCastManager.PREFS_KEY_ROUTE_ID);
+            String routeId = mCastManager.getSessionRecord().getRouteId();
             if (route.getId().equals(routeId)) {
+                ConnectableDevice device = mCastManager.getDeviceForRouteId(route);
+                if (device == null) {
+                    // published from the last known devices, wait for discovery to confirm it
+                    return;
+                }
                 // we found the route, so lets go with that
                 LOGD(TAG, "onRouteAdded: Attempting to recover a session with info=" + route);
                 mCastManager.setReconnectionStatus(BaseCastManager.RECONNECTION_STATUS_IN_PROGRESS);
-
-                ConnectableDevice device = mCastManager.getDeviceForRouteId(route);
                 LOGD(TAG, "onRouteAdded: Attempting to recover a session with device: " + device.getFriendlyName());
                 mCastManager.onDeviceSelected(device);
             }
@@ -101,6 +125,17 @@ public class CastMediaRouterCallback extends MediaRouter.Callback {
     @Override
     public void onRouteChanged(MediaRouter router, RouteInfo route) {
         notifyRouteAvailabilityChangedIfNeeded(router);
+        recoverSessionIfPending(route);
+        if (route.getId().equals(mPendingRouteId)) {
+            ConnectableDevice device = mCastManager.getDeviceForRouteId(route);
+            if (device != null) {
+                LOGD(TAG, "onRouteChanged: route confirmed, mSelectedDevice="
+                        + device.getFriendlyName());
+                mPendingRouteId = null;
+                mCastManager.onDeviceSelected(device);
+                mCastManager.setRouteInfo(route);
+            }
+        }
     }
 
     private void notifyRouteAvailabilityChangedIfNeeded(MediaRouter router) {
@@ -0,0 +1,355 @@
+/*
+ * Copyright (C) 2015 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.android.libraries.cast.companionlibrary.cast;
+
+import static com.google.android.libraries.cast.companionlibrary.utils.LogUtils.LOGD;
+
+import com.connectsdk.service.capability.listeners.ResponseListener;
+import com.connectsdk.service.command.ServiceCommandError;
+import com.google.android.libraries.cast.companionlibrary.utils.LogUtils;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Sends the commands of the selected device one after the other, in the order they were issued,
+ * with at most {@link #getMaxInFlight()} of them awaiting a response at any time, so that a user
+ * mashing buttons neither gets responses out of order nor overwhelms receivers that drop commands
+ * when too many are in flight.
+ * <p>
+ * Commands that share a collapse key only matter for their latest value (a seek, a volume
+ * level): queuing one drops any command with the same key that has not been sent yet. A command
+ * that gets no response within {@link #DEFAULT_COMMAND_TIMEOUT_MS} fails with
+ * {@link #ERROR_CODE_TIMEOUT} and frees its slot. Commands run on the main thread and can be
+ * queued from any thread.
+ */
+public class CommandQueue {
+
+    private static final String TAG = LogUtils.makeLogTag(CommandQueue.class);
+
+    public static final int DEFAULT_MAX_IN_FLIGHT = 1;
+    public static final long DEFAULT_COMMAND_TIMEOUT_MS = TimeUnit.SECONDS.toMillis(10);
+    public static final int ERROR_CODE_TIMEOUT = -1;
+
+    public static final String COLLAPSE_KEY_SEEK = "seek";
+    public static final String COLLAPSE_KEY_VOLUME = "volume";
+    public static final String COLLAPSE_KEY_MUTE = "mute";
+
+    /**
+     * A command for the device. {@link #execute(ResponseListener)} sends it; exactly one of
+     * {@link #onSuccess(Object)}, {@link #onError(ServiceCommandError)} and {@link #onDropped()}
+     * is then called, on the main thread.
+     */
+    public abstract static class Command {
+        private final String mName;
+        private final String mCollapseKey;
+        private long mQueuedAt;
+
+        /**
+         * @param name A name for logs.
+         * @param collapseKey The key shared by commands of which only the latest matters, or
+         * {@code null}.
+         */
+        protected Command(String name, String collapseKey) {
+            mName = name;
+            mCollapseKey = collapseKey;
+        }
+
+        public String getName() {
+            return mName;
+        }
+
+        public String getCollapseKey() {
+            return mCollapseKey;
+        }
+
+        /**
+         * Sends the command to the device, calling {@code listener} with the response.
+         */
+        protected abstract void execute(ResponseListener<Object> listener);
+
+        protected void onSuccess(Object result) {
+        }
+
+        protected void onError(ServiceCommandError error) {
+        }
+
+        /**
+         * Called instead of sending the command, when it was superseded by a newer command with
+         * the same collapse key or when the queue was cleared.
+         */
+        protected void onDropped() {
+        }
+    }
+
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+    // only accessed on the main thread
+    private final LinkedList<Command> mQueue = new LinkedList<>();
+    // the commands awaiting a response
+    private final List<Completion> mInFlight = new ArrayList<>();
+    private int mMaxInFlight = DEFAULT_MAX_IN_FLIGHT;
+    private long mCommandTimeoutMs = DEFAULT_COMMAND_TIMEOUT_MS;
+
+    private long mSentCount;
+    private long mCollapsedCount;
+    private long mTimeoutCount;
+    private long mTotalWaitMs;
+    private long mMaxWaitMs;
+    private int mMaxQueueDepth;
+
+    /**
+     * Queues a command.
+     */
+    public void enqueue(final Command command) {
+        command.mQueuedAt = SystemClock.elapsedRealtime();
+        runOnMainThread(new Runnable() {
+            @Override
+            public void run() {
+                if (command.getCollapseKey() != null) {
+                    for (Iterator<Command> it = mQueue.iterator(); it.hasNext(); ) {
+                        Command queued = it.next();
+                        if (command.getCollapseKey().equals(queued.getCollapseKey())) {
+                            it.remove();
+                            mCollapsedCount++;
+                            queued.onDropped();
+                        }
+                    }
+                }
+                mQueue.add(command);
+                mMaxQueueDepth = Math.max(mMaxQueueDepth, mQueue.size());
+                pump();
+            }
+        });
+    }
+
+    /**
+     * Drops every queued command and the ones in flight, whose responses are then ignored, for
+     * example when the device changes.
+     */
+    public void clear() {
+        runOnMainThread(new Runnable() {
+            @Override
+            public void run() {
+                List<Completion> inFlight = new ArrayList<>(mInFlight);
+                mInFlight.clear();
+                for (Completion completion : inFlight) {
+                    completion.drop();
+                }
+                while (!mQueue.isEmpty()) {
+                    mQueue.poll().onDropped();
+                }
+            }
+        });
+    }
+
+    /**
+     * Sets how many commands can await a response at the same time. The default is
+     * {@link #DEFAULT_MAX_IN_FLIGHT}, which fully serializes commands.
+     */
+    public void setMaxInFlight(final int maxInFlight) {
+        if (maxInFlight < 1) {
+            throw new IllegalArgumentException("maxInFlight should be at least 1");
+        }
+        runOnMainThread(new Runnable() {
+            @Override
+            public void run() {
+                mMaxInFlight = maxInFlight;
+                pump();
+            }
+        });
+    }
+
+    public int getMaxInFlight() {
+        return mMaxInFlight;
+    }
+
+    /**
+     * Sets how long, in milliseconds, a command can wait for its response before it is failed.
+     */
+    public void setCommandTimeout(long timeoutMs) {
+        if (timeoutMs <= 0) {
+            throw new IllegalArgumentException("timeoutMs should be positive");
+        }
+        mCommandTimeoutMs = timeoutMs;
+    }
+
+    /**
+     * Returns the number of commands waiting to be sent. Must be called on the main thread.
+     */
+    public int getQueueDepth() {
+        return mQueue.size();
+    }
+
+    /**
+     * Returns the largest number of commands that were waiting to be sent at the same time.
+     */
+    public int getMaxQueueDepth() {
+        return mMaxQueueDepth;
+    }
+
+    public int getInFlightCount() {
+        return mInFlight.size();
+    }
+
+    public long getSentCount() {
+        return mSentCount;
+    }
+
+    /**
+     * Returns the number of commands dropped because a newer one with the same collapse key was
+     * queued.
+     */
+    public long getCollapsedCount() {
+        return mCollapsedCount;
+    }
+
+    public long getTimeoutCount() {
+        return mTimeoutCount;
+    }
+
+    /**
+     * Returns the average time, in milliseconds, commands spent in the queue before being sent.
+     */
+    public long getAverageWaitMs() {
+        return mSentCount == 0 ? 0 : mTotalWaitMs / mSentCount;
+    }
+
+    public long getMaxWaitMs() {
+        return mMaxWaitMs;
+    }
+
+    @Override
+    public String toString() {
+        return "CommandQueue{depth=" + mQueue.size() + ", inFlight=" + mInFlight.size() + "/"
+                + mMaxInFlight + ", sent=" + mSentCount + ", collapsed=" + mCollapsedCount
+                + ", timeouts=" + mTimeoutCount + ", avgWaitMs=" + getAverageWaitMs()
+                + ", maxWaitMs=" + mMaxWaitMs + "}";
+    }
+
+    private void pump() {
+        while (mInFlight.size() < mMaxInFlight && !mQueue.isEmpty()) {
+            send(mQueue.poll());
+        }
+    }
+
+    private void send(final Command command) {
+        long waitMs = SystemClock.elapsedRealtime() - command.mQueuedAt;
+        mTotalWaitMs += waitMs;
+        mMaxWaitMs = Math.max(mMaxWaitMs, waitMs);
+        mSentCount++;
+        final Completion completion = new Completion(command);
+        mInFlight.add(completion);
+        mHandler.postDelayed(completion.mTimeout, mCommandTimeoutMs);
+        LOGD(TAG, "Sending " + command.getName() + " after " + waitMs + "ms, " + this);
+        try {
+            command.execute(new ResponseListener<Object>() {
+                @Override
+                public void onSuccess(final Object result) {
+                    runOnMainThread(new Runnable() {
+                        @Override
+                        public void run() {
+                            if (completion.complete()) {
+                                command.onSuccess(result);
+                            }
+                        }
+                    });
+                }
+
+                @Override
+                public void onError(final ServiceCommandError error) {
+                    runOnMainThread(new Runnable() {
+                        @Override
+                        public void run() {
+                            if (completion.complete()) {
+                                command.onError(error);
+                            }
+                        }
+                    });
+                }
+            });
+        } catch (RuntimeException e) {
+            if (completion.complete()) {
+                command.onError(new ServiceCommandError(0, e.toString(), null));
+            }
+        }
+    }
+
+    private void runOnMainThread(Runnable runnable) {
+        if (Looper.myLooper() == Looper.getMainLooper()) {
+            runnable.run();
+        } else {
+            mHandler.post(runnable);
+        }
+    }
+
+    /*
+     * Frees the slot of a command exactly once, whether it got a response, timed out or was
+     * dropped by clear().
+     */
+    private final class Completion {
+        private final Command mCommand;
+        private boolean mDone;
+        private final Runnable mTimeout = new Runnable() {
+            @Override
+            public void run() {
+                if (complete()) {
+                    mTimeoutCount++;
+                    LOGD(TAG, mCommand.getName() + " timed out");
+                    mCommand.onError(new ServiceCommandError(ERROR_CODE_TIMEOUT,
+                            mCommand.getName() + " timed out", null));
+                }
+            }
+        };
+
+        private Completion(Command command) {
+            mCommand = command;
+        }
+
+        /*
+         * Returns true the first time it is called for a command that was not dropped since.
+         */
+        private boolean complete() {
+            if (mDone) {
+                return false;
+            }
+            mDone = true;
+            mHandler.removeCallbacks(mTimeout);
+            mInFlight.remove(this);
+            pump();
+            return true;
+        }
+
+        /*
+         * Completes the command with onDropped(), its slot having already been freed by clear().
+         */
+        private void drop() {
+            if (mDone) {
+                return;
+            }
+            mDone = true;
+            mHandler.removeCallbacks(mTimeout);
+            mCommand.onDropped();
+        }
+    }
+}
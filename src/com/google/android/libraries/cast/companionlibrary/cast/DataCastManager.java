@@ -270,13 +270,13 @@ public class DataCastManager extends BaseCastManager implements Cast.MessageRece
         LOGD(TAG, "onApplicationConnected() reached with sessionId: " + webAppSession.launchSession.getSessionId());
 
         // saving session for future retrieval; we only save the last session info
-        mPreferenceAccessor.saveStringToPreference(PREFS_KEY_SESSION_ID, webAppSession.launchSession.getSessionId());
+        mSessionRecord.setSessionId(webAppSession.launchSession.getSessionId());
         if (mReconnectionStatus == RECONNECTION_STATUS_IN_PROGRESS) {
             // we have tried to reconnect and successfully launched the app, so
             // it is time to select the route and make the cast icon happy :-)
             List<RouteInfo> routes = mMediaRouter.getRoutes();
             if (routes != null) {
-                String routeId = mPreferenceAccessor.getStringFromPreference(PREFS_KEY_ROUTE_ID);
+                String routeId = mSessionRecord.getRouteId();
                 boolean found = false;
                 for (RouteInfo routeInfo : routes) {
                     if (routeId.equals(routeInfo.getId())) {
@@ -17,7 +17,9 @@
 package com.google.android.libraries.cast.companionlibrary.cast;
 
 import com.google.android.gms.cast.MediaQueueItem;
+import com.google.android.gms.cast.MediaStatus;
 
+import java.util.ArrayList;
 import java.util.List;
 import java.util.concurrent.CopyOnWriteArrayList;
 
@@ -107,4 +109,31 @@ public class MediaQueue {
 
         return mQueueItems.indexOf(mCurrentItem);
     }
+
+    /**
+     * Returns up to {@code count} items that come after the current one, in queue order, wrapping
+     * around if the whole queue repeats. If there is no current item, the queue is taken from the
+     * start. In shuffle mode the actual play order is not known, so queue order is used.
+     */
+    public final List<MediaQueueItem> getUpcomingItems(int count) {
+        List<MediaQueueItem> upcoming = new ArrayList<>();
+        List<MediaQueueItem> items = mQueueItems;
+        if (items == null || items.isEmpty() || count <= 0) {
+            return upcoming;
+        }
+        int size = items.size();
+        int position = mCurrentItem == null ? -1 : items.indexOf(mCurrentItem);
+        boolean repeatAll = mRepeatMode == MediaStatus.REPEAT_MODE_REPEAT_ALL
+                || mRepeatMode == MediaStatus.REPEAT_MODE_REPEAT_ALL_AND_SHUFFLE;
+        int available;
+        if (position < 0) {
+            available = size;
+        } else {
+            available = repeatAll ? size - 1 : size - 1 - position;
+        }
+        for (int i = 1; i <= Math.min(count, available); i++) {
+            upcoming.add(items.get((position + i) % size));
+        }
+        return upcoming;
+    }
 }
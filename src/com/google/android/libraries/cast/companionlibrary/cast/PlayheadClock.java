@@ -0,0 +1,189 @@
+/*
+ * Copyright (C) 2015 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.android.libraries.cast.companionlibrary.cast;
+
+import android.os.SystemClock;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A local estimate of the remote playhead. The clock is anchored on a position, a duration and
+ * whether playback is advancing, all read from the device at a known (monotonic) time; in between
+ * anchors the position is extrapolated locally, so that progress UIs can be refreshed every second
+ * without asking the device for its position every second.
+ * <p>
+ * The clock should be re-anchored whenever the play state changes and, to correct any drift, once
+ * every {@link #getResyncIntervalMs()}; {@link #isResyncDue()} tells callers when that is needed.
+ * All methods are thread-safe.
+ */
+public class PlayheadClock {
+
+    public static final long DEFAULT_RESYNC_INTERVAL_MS = TimeUnit.SECONDS.toMillis(10);
+
+    private long mAnchorPositionMs;
+    private long mAnchorTime;
+    private long mDurationMs;
+    private boolean mAdvancing;
+    private boolean mSynced;
+    private boolean mResyncRequested;
+    private long mResyncIntervalMs = DEFAULT_RESYNC_INTERVAL_MS;
+    private long mSyncCount;
+    private long mLastDriftMs;
+
+    /**
+     * Anchors the clock on values that were just read from the device.
+     *
+     * @param positionMs The playback position, in milliseconds.
+     * @param durationMs The duration of the media, in milliseconds.
+     * @param advancing {@code true} if the media is playing.
+     */
+    public synchronized void sync(long positionMs, long durationMs, boolean advancing) {
+        long now = SystemClock.elapsedRealtime();
+        if (mSynced && mAdvancing) {
+            mLastDriftMs = positionMs - estimatePosition(now);
+        }
+        mAnchorPositionMs = Math.max(0, positionMs);
+        mDurationMs = durationMs;
+        mAnchorTime = now;
+        mAdvancing = advancing;
+        mSynced = true;
+        mResyncRequested = false;
+        mSyncCount++;
+    }
+
+    /**
+     * Starts or stops extrapolating the position without a fresh reading from the device, for
+     * example when the play state is known but the position is not. A re-sync is requested so that
+     * the anchor is corrected at the next opportunity.
+     */
+    public synchronized void setAdvancing(boolean advancing) {
+        long now = SystemClock.elapsedRealtime();
+        if (mSynced) {
+            mAnchorPositionMs = estimatePosition(now);
+            mAnchorTime = now;
+        }
+        mAdvancing = advancing;
+        mResyncRequested = true;
+    }
+
+    /**
+     * Moves the playhead to {@code positionMs}, keeping the current advancing state. This is meant
+     * for optimistic updates; a re-sync is requested so the device can confirm the new position.
+     */
+    public synchronized void seekTo(long positionMs) {
+        mAnchorPositionMs = Math.max(0, positionMs);
+        mAnchorTime = SystemClock.elapsedRealtime();
+        mResyncRequested = true;
+    }
+
+    /**
+     * Marks the clock so that {@link #isResyncDue()} returns {@code true} until the next
+     * {@link #sync(long, long, boolean)}.
+     */
+    public synchronized void requestResync() {
+        mResyncRequested = true;
+    }
+
+    /**
+     * Forgets the current anchor, for example when the media or the session changes.
+     */
+    public synchronized void reset() {
+        mSynced = false;
+        mAdvancing = false;
+        mResyncRequested = false;
+        mAnchorPositionMs = 0;
+        mDurationMs = 0;
+    }
+
+    /**
+     * Returns {@code true} if the clock has been anchored at least once since the last
+     * {@link #reset()}.
+     */
+    public synchronized boolean isSynced() {
+        return mSynced;
+    }
+
+    /**
+     * Returns {@code true} if the clock has never been anchored, if a re-sync was requested or if
+     * the last anchor is older than the re-sync interval.
+     */
+    public synchronized boolean isResyncDue() {
+        return !mSynced || mResyncRequested
+                || (mAdvancing
+                && SystemClock.elapsedRealtime() - mAnchorTime >= mResyncIntervalMs);
+    }
+
+    /**
+     * Returns the estimated playback position, in milliseconds. The value never goes beyond the
+     * duration, when the duration is known.
+     */
+    public synchronized long getPositionMs() {
+        return estimatePosition(SystemClock.elapsedRealtime());
+    }
+
+    public synchronized long getDurationMs() {
+        return mDurationMs;
+    }
+
+    public synchronized boolean isAdvancing() {
+        return mAdvancing;
+    }
+
+    /**
+     * Sets how often, in milliseconds, the clock should be re-anchored on the device position
+     * while playback is advancing. The default is {@link #DEFAULT_RESYNC_INTERVAL_MS}.
+     */
+    public synchronized void setResyncIntervalMs(long resyncIntervalMs) {
+        if (resyncIntervalMs <= 0) {
+            throw new IllegalArgumentException("resyncIntervalMs should be positive");
+        }
+        mResyncIntervalMs = resyncIntervalMs;
+    }
+
+    public synchronized long getResyncIntervalMs() {
+        return mResyncIntervalMs;
+    }
+
+    /**
+     * Returns the number of times the clock was anchored on values read from the device.
+     */
+    public synchronized long getSyncCount() {
+        return mSyncCount;
+    }
+
+    /**
+     * Returns the difference, in milliseconds, between the device position and the local estimate
+     * at the time of the last re-sync. Positive values mean the estimate was behind.
+     */
+    public synchronized long getLastDriftMs() {
+        return mLastDriftMs;
+    }
+
+    private long estimatePosition(long now) {
+        if (!mSynced) {
+            return 0;
+        }
+        long position = mAnchorPositionMs;
+        if (mAdvancing) {
+            position += now - mAnchorTime;
+        }
+        if (mDurationMs > 0 && position > mDurationMs) {
+            position = mDurationMs;
+        }
+        return position;
+    }
+}
@@ -0,0 +1,213 @@
+/*
+ * Copyright (C) 2015 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.android.libraries.cast.companionlibrary.cast;
+
+import static com.google.android.libraries.cast.companionlibrary.utils.LogUtils.LOGD;
+import static com.google.android.libraries.cast.companionlibrary.utils.LogUtils.LOGE;
+
+import com.connectsdk.service.capability.MediaControl;
+import com.connectsdk.service.command.ServiceCommandError;
+import com.google.android.libraries.cast.companionlibrary.cast.exceptions.NoConnectionException;
+import com.google.android.libraries.cast.companionlibrary.cast.exceptions.TransientNetworkDisconnectionException;
+import com.google.android.libraries.cast.companionlibrary.utils.LogUtils;
+
+import android.os.SystemClock;
+
+import java.util.Set;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A single, process-wide source of playback progress. Components that display progress (mini
+ * controllers, the full-screen cast controller, etc.) subscribe to it instead of running their own
+ * timers; on each tick, the position is read from the {@link PlayheadClock} and the device is
+ * queried at most once, no matter how many subscribers there are. The underlying timer only runs
+ * while there is at least one subscriber.
+ * <p>
+ * <b>Note:</b> Listeners are called on a worker thread.
+ */
+public class ProgressTicker {
+
+    private static final String TAG = LogUtils.makeLogTag(ProgressTicker.class);
+    // a query that has not come back after this long is considered lost
+    private static final long QUERY_TIMEOUT_MS = TimeUnit.SECONDS.toMillis(5);
+
+    /**
+     * Receives progress updates from {@link ProgressTicker}.
+     */
+    public interface OnProgressListener {
+
+        /**
+         * Called on each tick with the current position and duration of the media, in
+         * milliseconds. This is called on a worker thread.
+         */
+        void onProgressUpdated(int position, int duration);
+    }
+
+    private final VideoCastManager mCastManager;
+    private final long mIntervalMs;
+    private final Set<OnProgressListener> mListeners = new CopyOnWriteArraySet<>();
+    private volatile long mQueryStartedAt;
+    private final AtomicLong mTickCount = new AtomicLong();
+    private final AtomicLong mDeviceQueryCount = new AtomicLong();
+    private Timer mTimer;
+
+    ProgressTicker(VideoCastManager castManager, long intervalMs) {
+        mCastManager = castManager;
+        mIntervalMs = intervalMs;
+    }
+
+    /**
+     * Adds a listener; the ticker starts if this is the first one.
+     */
+    public synchronized void subscribe(OnProgressListener listener) {
+        if (listener == null || !mListeners.add(listener)) {
+            return;
+        }
+        if (mTimer == null) {
+            mTimer = new Timer("ccl-progress", true);
+            mTimer.scheduleAtFixedRate(new TimerTask() {
+                @Override
+                public void run() {
+                    tick();
+                }
+            }, 100, mIntervalMs);
+            LOGD(TAG, "Started progress ticker");
+        }
+    }
+
+    /**
+     * Removes a listener; the ticker stops if there are no more listeners.
+     */
+    public synchronized void unsubscribe(OnProgressListener listener) {
+        if (listener == null || !mListeners.remove(listener)) {
+            return;
+        }
+        if (mListeners.isEmpty() && mTimer != null) {
+            mTimer.cancel();
+            mTimer = null;
+            LOGD(TAG, "Stopped progress ticker");
+        }
+    }
+
+    public int getSubscriberCount() {
+        return mListeners.size();
+    }
+
+    public boolean isRunning() {
+        synchronized (this) {
+            return mTimer != null;
+        }
+    }
+
+    /**
+     * Returns the number of ticks since this ticker was created.
+     */
+    public long getTickCount() {
+        return mTickCount.get();
+    }
+
+    /**
+     * Returns the number of ticks that needed a round trip to the device.
+     */
+    public long getDeviceQueryCount() {
+        return mDeviceQueryCount.get();
+    }
+
+    private void tick() {
+        mTickCount.incrementAndGet();
+        int state = mCastManager.getPlaybackStatus();
+        if (state == MediaControl.PLAYER_STATE_BUFFERING || state == MediaControl.PLAYER_STATE_IDLE
+                || !mCastManager.isConnected() || mCastManager.getRemoteMediaPlayer() == null) {
+            return;
+        }
+        final PlayheadClock clock = mCastManager.getPlayheadClock();
+        if (!clock.isResyncDue() || mCastManager.getSeekScheduler().isSeeking()) {
+            // the local clock is fresh enough, or holds the target of a seek the device has not
+            // reached yet, so there is no need to ask the device
+            long duration = clock.getDurationMs();
+            if (duration > 0) {
+                dispatch((int) clock.getPositionMs(), (int) duration);
+            }
+            return;
+        }
+        long now = SystemClock.elapsedRealtime();
+        if (mQueryStartedAt != 0 && now - mQueryStartedAt < QUERY_TIMEOUT_MS) {
+            // the previous query has not come back yet
+            return;
+        }
+        mQueryStartedAt = now;
+        mDeviceQueryCount.incrementAndGet();
+        try {
+            mCastManager.getMediaDuration(new MediaControl.DurationListener() {
+                @Override
+                public void onSuccess(Long duration) {
+                    final int mediaDuration = duration.intValue();
+                    if (mediaDuration <= 0) {
+                        mQueryStartedAt = 0;
+                        return;
+                    }
+                    try {
+                        mCastManager.getCurrentMediaPosition(new MediaControl.PositionListener() {
+                            @Override
+                            public void onSuccess(Long position) {
+                                mQueryStartedAt = 0;
+                                if (mCastManager.getSeekScheduler().isSeeking()) {
+                                    // a seek started since the query, this position is stale
+                                    return;
+                                }
+                                clock.sync(position, mediaDuration, mCastManager.getPlaybackStatus()
+                                        == MediaControl.PLAYER_STATE_PLAYING);
+                                dispatch(position.intValue(), mediaDuration);
+                            }
+
+                            @Override
+                            public void onError(ServiceCommandError serviceCommandError) {
+                                mQueryStartedAt = 0;
+                                LOGE(TAG, "Failed to update the progress due to network issues",
+                                        serviceCommandError);
+                            }
+                        });
+                    } catch (TransientNetworkDisconnectionException | NoConnectionException e) {
+                        mQueryStartedAt = 0;
+                        LOGE(TAG, "Failed to update the progress due to network issues", e);
+                    }
+                }
+
+                @Override
+                public void onError(ServiceCommandError serviceCommandError) {
+                    mQueryStartedAt = 0;
+                    LOGE(TAG, "Failed to update the progress due to network issues",
+                            serviceCommandError);
+                    mCastManager.onProgressQueryFailed(serviceCommandError);
+                }
+            });
+        } catch (TransientNetworkDisconnectionException | NoConnectionException e) {
+            mQueryStartedAt = 0;
+            LOGE(TAG, "Failed to update the progress due to network issues", e);
+        }
+    }
+
+    private void dispatch(int position, int duration) {
+        for (OnProgressListener listener : mListeners) {
+            listener.onProgressUpdated(position, duration);
+        }
+    }
+}
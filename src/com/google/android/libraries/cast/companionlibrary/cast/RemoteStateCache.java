@@ -0,0 +1,138 @@
+/*
+ * Copyright (C) 2015 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.android.libraries.cast.companionlibrary.cast;
+
+import android.os.SystemClock;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The last values read from the device for the parts of the remote state that are otherwise
+ * fetched on every call, so that the many readers of that state (notification, lock screen,
+ * mini controllers, full screen controller, reconnection) share one device round trip. Each
+ * field has its own time-to-live, and is also invalidated, or refreshed, by the events the
+ * device pushes through its subscriptions. All methods are thread-safe.
+ */
+public class RemoteStateCache {
+
+    public static final int FIELD_VOLUME = 0;
+    public static final int FIELD_MUTE = 1;
+    public static final int FIELD_DURATION = 2;
+    /**
+     * Reads of the position are only counted here; the position itself is extrapolated by the
+     * {@link PlayheadClock}, whose re-sync interval plays the role of its time-to-live.
+     */
+    public static final int FIELD_POSITION = 3;
+    private static final int FIELD_COUNT = 4;
+
+    private static final String[] FIELD_NAMES = {"volume", "mute", "duration", "position"};
+    private static final long[] DEFAULT_TTLS_MS = {
+            TimeUnit.SECONDS.toMillis(5),
+            TimeUnit.SECONDS.toMillis(5),
+            TimeUnit.SECONDS.toMillis(30),
+            0
+    };
+
+    private final Object[] mValues = new Object[FIELD_COUNT];
+    private final long[] mStoredAt = new long[FIELD_COUNT];
+    private final long[] mTtlsMs = DEFAULT_TTLS_MS.clone();
+    private final long[] mHits = new long[FIELD_COUNT];
+    private final long[] mMisses = new long[FIELD_COUNT];
+
+    /**
+     * Returns the cached value of {@code field}, or {@code null} if there is none or it has
+     * expired, in which case the caller is expected to read it from the device and
+     * {@link #put(int, Object)} it.
+     */
+    @SuppressWarnings("unchecked")
+    public synchronized <T> T get(int field) {
+        Object value = mValues[field];
+        if (value != null && SystemClock.elapsedRealtime() - mStoredAt[field] < mTtlsMs[field]) {
+            mHits[field]++;
+            return (T) value;
+        }
+        mValues[field] = null;
+        mMisses[field]++;
+        return null;
+    }
+
+    public synchronized void put(int field, Object value) {
+        mValues[field] = value;
+        mStoredAt[field] = SystemClock.elapsedRealtime();
+    }
+
+    public synchronized void invalidate(int field) {
+        mValues[field] = null;
+    }
+
+    public synchronized void invalidateAll() {
+        for (int i = 0; i < FIELD_COUNT; i++) {
+            mValues[i] = null;
+        }
+    }
+
+    /**
+     * Records a read of {@code field} that was served without the device, or not, by something
+     * other than this cache (e.g. the {@link PlayheadClock} for the position).
+     */
+    synchronized void recordRead(int field, boolean hit) {
+        if (hit) {
+            mHits[field]++;
+        } else {
+            mMisses[field]++;
+        }
+    }
+
+    /**
+     * Sets how long, in milliseconds, a value of {@code field} is served after it was read from
+     * the device.
+     */
+    public synchronized void setTtl(int field, long ttlMs) {
+        if (ttlMs < 0) {
+            throw new IllegalArgumentException("ttlMs cannot be negative");
+        }
+        mTtlsMs[field] = ttlMs;
+    }
+
+    public synchronized long getTtl(int field) {
+        return mTtlsMs[field];
+    }
+
+    /**
+     * Returns the number of reads of {@code field} that did not need the device.
+     */
+    public synchronized long getHitCount(int field) {
+        return mHits[field];
+    }
+
+    /**
+     * Returns the number of reads of {@code field} that went to the device.
+     */
+    public synchronized long getMissCount(int field) {
+        return mMisses[field];
+    }
+
+    @Override
+    public synchronized String toString() {
+        StringBuilder sb = new StringBuilder("RemoteStateCache{");
+        for (int i = 0; i < FIELD_COUNT; i++) {
+            sb.append(i == 0 ? "" : ", ").append(FIELD_NAMES[i]).append('=').append(mHits[i])
+                    .append('/').append(mHits[i] + mMisses[i]);
+        }
+        return sb.append('}').toString();
+    }
+}
@@ -0,0 +1,186 @@
+/*
+ * Copyright (C) 2015 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.android.libraries.cast.companionlibrary.cast;
+
+import static com.google.android.libraries.cast.companionlibrary.utils.LogUtils.LOGD;
+
+import com.connectsdk.service.capability.MediaControl;
+import com.connectsdk.service.capability.VolumeControl;
+import com.connectsdk.service.command.ServiceCommandError;
+import com.google.android.libraries.cast.companionlibrary.utils.LatencyHistogram;
+import com.google.android.libraries.cast.companionlibrary.utils.LogUtils;
+
+import android.os.SystemClock;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Collects the remote player status (play state, volume, mute, duration and position) by sending
+ * all the independent queries at once instead of chaining them, and merges the responses into a
+ * single {@link RemoteStatusSnapshot}. The listener is called exactly once per round, after the
+ * last response (or error) has arrived. If a newer round is started before an older one
+ * completes, the older one is dropped so that listeners never go back in time.
+ */
+public class RemoteStatusFetcher {
+
+    private static final String TAG = LogUtils.makeLogTag(RemoteStatusFetcher.class);
+
+    /**
+     * Receives the merged result of a round of queries.
+     */
+    public interface OnSnapshotListener {
+
+        void onSnapshot(RemoteStatusSnapshot snapshot);
+    }
+
+    private final AtomicInteger mGeneration = new AtomicInteger();
+    private final AtomicLong mSupersededCount = new AtomicLong();
+    private final LatencyHistogram mFanOutLatency = new LatencyHistogram("status-fan-out");
+
+    /**
+     * Starts a new round of queries. Any round that is still pending is superseded by this one.
+     *
+     * @param mediaControl Used for play state, duration and position; must not be {@code null}.
+     * @param volumeControl Used for volume and mute; if {@code null}, these values are reported as
+     * unknown.
+     */
+    public void fetch(MediaControl mediaControl, VolumeControl volumeControl,
+            OnSnapshotListener listener) {
+        final Round round = new Round(mGeneration.incrementAndGet(),
+                volumeControl == null ? 3 : 5, listener);
+
+        mediaControl.getPlayState(new MediaControl.PlayStateListener() {
+            @Override
+            public void onSuccess(MediaControl.PlayStateStatus playStateStatus) {
+                round.mPlayStateStatus = playStateStatus;
+                round.onResponse();
+            }
+
+            @Override
+            public void onError(ServiceCommandError error) {
+                LOGD(TAG, "fetch(): failed to get play state: " + error);
+                round.onResponse();
+            }
+        });
+        mediaControl.getDuration(new MediaControl.DurationListener() {
+            @Override
+            public void onSuccess(Long duration) {
+                round.mDurationMs = duration != null ? duration : RemoteStatusSnapshot.UNKNOWN;
+                round.onResponse();
+            }
+
+            @Override
+            public void onError(ServiceCommandError error) {
+                round.onResponse();
+            }
+        });
+        mediaControl.getPosition(new MediaControl.PositionListener() {
+            @Override
+            public void onSuccess(Long position) {
+                round.mPositionMs = position != null ? position : RemoteStatusSnapshot.UNKNOWN;
+                round.onResponse();
+            }
+
+            @Override
+            public void onError(ServiceCommandError error) {
+                round.onResponse();
+            }
+        });
+        if (volumeControl != null) {
+            volumeControl.getVolume(new VolumeControl.VolumeListener() {
+                @Override
+                public void onSuccess(Float volume) {
+                    round.mVolume = volume != null ? volume : RemoteStatusSnapshot.UNKNOWN;
+                    round.onResponse();
+                }
+
+                @Override
+                public void onError(ServiceCommandError error) {
+                    round.onResponse();
+                }
+            });
+            volumeControl.getMute(new VolumeControl.MuteListener() {
+                @Override
+                public void onSuccess(Boolean mute) {
+                    round.mMute = mute;
+                    round.onResponse();
+                }
+
+                @Override
+                public void onError(ServiceCommandError error) {
+                    round.onResponse();
+                }
+            });
+        }
+    }
+
+    /**
+     * Drops any round that is still pending.
+     */
+    public void cancel() {
+        mGeneration.incrementAndGet();
+    }
+
+    /**
+     * Returns the distribution of the time it took for a whole round of queries to complete.
+     */
+    public LatencyHistogram getFanOutLatency() {
+        return mFanOutLatency;
+    }
+
+    /**
+     * Returns the number of rounds that completed after a newer round had started and were
+     * therefore not delivered.
+     */
+    public long getSupersededCount() {
+        return mSupersededCount.get();
+    }
+
+    private final class Round {
+        private final int mId;
+        private final long mStartTime = SystemClock.elapsedRealtime();
+        private final AtomicInteger mPending;
+        private final OnSnapshotListener mListener;
+        private volatile MediaControl.PlayStateStatus mPlayStateStatus;
+        private volatile float mVolume = RemoteStatusSnapshot.UNKNOWN;
+        private volatile Boolean mMute;
+        private volatile long mDurationMs = RemoteStatusSnapshot.UNKNOWN;
+        private volatile long mPositionMs = RemoteStatusSnapshot.UNKNOWN;
+
+        private Round(int id, int queries, OnSnapshotListener listener) {
+            mId = id;
+            mPending = new AtomicInteger(queries);
+            mListener = listener;
+        }
+
+        private void onResponse() {
+            if (mPending.decrementAndGet() != 0) {
+                return;
+            }
+            if (mId != mGeneration.get()) {
+                mSupersededCount.incrementAndGet();
+                return;
+            }
+            long now = SystemClock.elapsedRealtime();
+            long latency = now - mStartTime;
+            mFanOutLatency.record(latency);
+            mListener.onSnapshot(new RemoteStatusSnapshot(mPlayStateStatus, mVolume, mMute,
+                    mDurationMs, mPositionMs, now, latency));
+        }
+    }
+}
@@ -0,0 +1,162 @@
+/*
+ * Copyright (C) 2015 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.android.libraries.cast.companionlibrary.cast;
+
+import com.connectsdk.service.capability.MediaControl;
+
+/**
+ * An immutable view of the remote player status, as assembled by {@link RemoteStatusFetcher}
+ * from a single round of parallel queries. Values that could not be retrieved are reported as
+ * unknown (see the {@code has*()} methods) rather than failing the whole snapshot.
+ */
+public final class RemoteStatusSnapshot {
+
+    public static final long UNKNOWN = -1;
+
+    private final MediaControl.PlayStateStatus mPlayStateStatus;
+    private final float mVolume;
+    private final Boolean mMute;
+    private final long mDurationMs;
+    private final long mPositionMs;
+    private final long mTimestamp;
+    private final long mFanOutLatencyMs;
+
+    RemoteStatusSnapshot(MediaControl.PlayStateStatus playStateStatus, float volume, Boolean mute,
+            long durationMs, long positionMs, long timestamp, long fanOutLatencyMs) {
+        mPlayStateStatus = playStateStatus;
+        mVolume = volume;
+        mMute = mute;
+        mDurationMs = durationMs;
+        mPositionMs = positionMs;
+        mTimestamp = timestamp;
+        mFanOutLatencyMs = fanOutLatencyMs;
+    }
+
+    /**
+     * Maps a {@link MediaControl.PlayStateStatus} to one of the
+     * {@code MediaControl.PLAYER_STATE_*} values used throughout this library.
+     */
+    public static int toPlayerState(MediaControl.PlayStateStatus playStateStatus) {
+        if (playStateStatus == null) {
+            return MediaControl.PLAYER_STATE_UNKNOWN;
+        }
+        switch (playStateStatus) {
+            case Finished:
+                return MediaControl.PLAYER_STATE_IDLE;
+            case Playing:
+                return MediaControl.PLAYER_STATE_PLAYING;
+            case Paused:
+                return MediaControl.PLAYER_STATE_PAUSED;
+            case Buffering:
+                return MediaControl.PLAYER_STATE_BUFFERING;
+            case Unknown:
+            default:
+                return MediaControl.PLAYER_STATE_UNKNOWN;
+        }
+    }
+
+    public boolean hasPlayState() {
+        return mPlayStateStatus != null;
+    }
+
+    /**
+     * Returns the raw play state reported by the device, or {@code null} if it is unknown.
+     */
+    public MediaControl.PlayStateStatus getPlayStateStatus() {
+        return mPlayStateStatus;
+    }
+
+    /**
+     * Returns one of the {@code MediaControl.PLAYER_STATE_*} values.
+     */
+    public int getPlayerState() {
+        return toPlayerState(mPlayStateStatus);
+    }
+
+    public boolean hasVolume() {
+        return mVolume >= 0;
+    }
+
+    /**
+     * Returns the device volume, between 0 and 1, or {@link #UNKNOWN}.
+     */
+    public float getVolume() {
+        return mVolume;
+    }
+
+    public boolean hasMute() {
+        return mMute != null;
+    }
+
+    public boolean isMute() {
+        return mMute != null && mMute;
+    }
+
+    public boolean hasDuration() {
+        return mDurationMs >= 0;
+    }
+
+    /**
+     * Returns the duration of the loaded media in milliseconds, or {@link #UNKNOWN}.
+     */
+    public long getDurationMs() {
+        return mDurationMs;
+    }
+
+    public boolean hasPosition() {
+        return mPositionMs >= 0;
+    }
+
+    /**
+     * Returns the playback position in milliseconds, or {@link #UNKNOWN}.
+     */
+    public long getPositionMs() {
+        return mPositionMs;
+    }
+
+    /**
+     * Returns the time left of the loaded media in milliseconds, or {@link #UNKNOWN} if either the
+     * duration or the position is not known.
+     */
+    public long getTimeRemainingMs() {
+        if (!hasDuration() || !hasPosition()) {
+            return UNKNOWN;
+        }
+        return Math.max(0, mDurationMs - mPositionMs);
+    }
+
+    /**
+     * Returns the value of {@code SystemClock.elapsedRealtime()} when this snapshot was completed.
+     */
+    public long getTimestamp() {
+        return mTimestamp;
+    }
+
+    /**
+     * Returns the time it took, in milliseconds, for all the queries of this snapshot to complete.
+     */
+    public long getFanOutLatencyMs() {
+        return mFanOutLatencyMs;
+    }
+
+    @Override
+    public String toString() {
+        return "RemoteStatusSnapshot{state=" + mPlayStateStatus + ", volume=" + mVolume
+                + ", mute=" + mMute + ", duration=" + mDurationMs + ", position=" + mPositionMs
+                + ", latency=" + mFanOutLatencyMs + "ms}";
+    }
+}
@@ -0,0 +1,167 @@
+/*
+ * Copyright (C) 2015 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.android.libraries.cast.companionlibrary.cast;
+
+import static com.google.android.libraries.cast.companionlibrary.utils.LogUtils.LOGD;
+
+import com.connectsdk.service.capability.listeners.ResponseListener;
+import com.connectsdk.service.command.ServiceCommandError;
+import com.google.android.libraries.cast.companionlibrary.utils.LogUtils;
+
+/**
+ * Coalesces the seeks of a scrubbing user. At most one seek is sent to the device at a time; a
+ * seek requested while one is in flight replaces any other that is waiting, so the device only
+ * gets the latest target once per round trip instead of stepping through every intermediate
+ * position. The {@link PlayheadClock} is moved to each target right away, so progress UIs follow
+ * the user's finger, and is re-synced on the device once the last seek is confirmed.
+ * Must be used on the main thread.
+ */
+public class SeekScheduler {
+
+    private static final String TAG = LogUtils.makeLogTag(SeekScheduler.class);
+
+    /**
+     * Sends a seek to the device.
+     */
+    public interface SeekSender {
+        void sendSeek(long positionMs, ResponseListener<Object> listener);
+    }
+
+    /**
+     * Notified once the device has settled on the latest target.
+     */
+    public interface Listener {
+
+        /**
+         * @param play {@code true} if any of the seeks that were coalesced into this one asked for
+         * playback to start afterwards.
+         */
+        void onSeekCompleted(long positionMs, boolean play);
+
+        void onSeekFailed(ServiceCommandError error);
+    }
+
+    private final PlayheadClock mClock;
+    private final SeekSender mSender;
+    private final Listener mListener;
+    private boolean mInFlight;
+    private boolean mHasPending;
+    private long mPendingPositionMs;
+    private boolean mPendingPlay;
+    // bumped by reset(), so that the response to a seek sent before is ignored
+    private int mGeneration;
+    private long mRequestedCount;
+    private long mSentCount;
+
+    public SeekScheduler(PlayheadClock clock, SeekSender sender, Listener listener) {
+        mClock = clock;
+        mSender = sender;
+        mListener = listener;
+    }
+
+    /**
+     * Seeks to {@code positionMs}, then starts playback if {@code play} is {@code true}.
+     */
+    public void seek(long positionMs, boolean play) {
+        mRequestedCount++;
+        mClock.seekTo(positionMs);
+        if (mHasPending) {
+            LOGD(TAG, "Replacing pending seek to " + mPendingPositionMs + " with " + positionMs);
+        }
+        mPendingPositionMs = positionMs;
+        mPendingPlay |= play;
+        mHasPending = true;
+        if (!mInFlight) {
+            sendPending();
+        }
+    }
+
+    /**
+     * Returns {@code true} while a seek is waiting for the device, in which case positions read
+     * from the device may not reflect it yet.
+     */
+    public boolean isSeeking() {
+        return mInFlight || mHasPending;
+    }
+
+    /**
+     * Forgets any seek in flight or pending, for example when the media changes.
+     */
+    public void reset() {
+        mGeneration++;
+        mInFlight = false;
+        mHasPending = false;
+        mPendingPlay = false;
+    }
+
+    public long getRequestedCount() {
+        return mRequestedCount;
+    }
+
+    public long getSentCount() {
+        return mSentCount;
+    }
+
+    /**
+     * Returns the number of seeks that were never sent to the device because a newer one
+     * replaced them.
+     */
+    public long getAvoidedCount() {
+        return mRequestedCount - mSentCount - (mHasPending ? 1 : 0);
+    }
+
+    private void sendPending() {
+        final long position = mPendingPositionMs;
+        final boolean play = mPendingPlay;
+        final int generation = mGeneration;
+        mHasPending = false;
+        mPendingPlay = false;
+        mInFlight = true;
+        mSentCount++;
+        mSender.sendSeek(position, new ResponseListener<Object>() {
+            @Override
+            public void onSuccess(Object object) {
+                if (generation != mGeneration) {
+                    return;
+                }
+                mInFlight = false;
+                if (mHasPending) {
+                    mPendingPlay |= play;
+                    sendPending();
+                    return;
+                }
+                mClock.requestResync();
+                mListener.onSeekCompleted(position, play);
+            }
+
+            @Override
+            public void onError(ServiceCommandError error) {
+                if (generation != mGeneration) {
+                    return;
+                }
+                mInFlight = false;
+                if (mHasPending) {
+                    mPendingPlay |= play;
+                    sendPending();
+                    return;
+                }
+                mClock.requestResync();
+                mListener.onSeekFailed(error);
+            }
+        });
+    }
+}
@@ -0,0 +1,301 @@
+/*
+ * Copyright (C) 2015 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.android.libraries.cast.companionlibrary.cast;
+
+import static com.google.android.libraries.cast.companionlibrary.utils.LogUtils.LOGD;
+import static com.google.android.libraries.cast.companionlibrary.utils.LogUtils.LOGE;
+
+import com.google.android.libraries.cast.companionlibrary.utils.LogUtils;
+import com.google.android.libraries.cast.companionlibrary.utils.PreferenceAccessor;
+
+import android.content.Context;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * What is needed to recover the last session: the route and session ids, the Wi-Fi network it was
+ * started on, when its media ends and which media it was playing. These are kept together in one
+ * small, versioned binary file that is read synchronously in one go when the cast manager is
+ * created, so that a recovery can start without waiting for the shared preferences to load. Every
+ * change rewrites the whole record on a background thread, into a temporary file that is then
+ * renamed over the previous one, so a crash never leaves a half-written record behind.
+ * <p>
+ * The first time, the record is migrated from the separate preference keys it used to be stored
+ * in. All methods are thread-safe.
+ */
+public class SessionRecord {
+
+    private static final String TAG = LogUtils.makeLogTag(SessionRecord.class);
+
+    public static final int VERSION = 1;
+    private static final String FILE_NAME = "ccl_session_record";
+    private static final int MAGIC = 0x43434c53;
+    public static final long NO_MEDIA_END = Long.MIN_VALUE;
+
+    private final File mFile;
+    private final File mTempFile;
+    private final ExecutorService mWriter = Executors.newSingleThreadExecutor();
+    private String mRouteId;
+    private String mSessionId;
+    private String mSsid;
+    private long mMediaEnd = NO_MEDIA_END;
+    private String mMediaId;
+    private int mTransactionDepth;
+    private boolean mDirty;
+    private boolean mWriteQueued;
+
+    private final Runnable mWriteRunnable = new Runnable() {
+        @Override
+        public void run() {
+            write();
+        }
+    };
+
+    public SessionRecord(Context context, PreferenceAccessor legacyPreferences) {
+        mFile = new File(context.getFilesDir(), FILE_NAME);
+        mTempFile = new File(context.getFilesDir(), FILE_NAME + ".tmp");
+        if (mFile.exists()) {
+            read();
+        } else {
+            migrate(legacyPreferences);
+        }
+    }
+
+    public synchronized String getRouteId() {
+        return mRouteId;
+    }
+
+    public synchronized String getSessionId() {
+        return mSessionId;
+    }
+
+    public synchronized String getSsid() {
+        return mSsid;
+    }
+
+    /**
+     * Returns when the media of the session ends, in the {@code SystemClock.elapsedRealtime()}
+     * time base, or {@code defaultValue} if it is not known.
+     */
+    public synchronized long getMediaEnd(long defaultValue) {
+        return mMediaEnd == NO_MEDIA_END ? defaultValue : mMediaEnd;
+    }
+
+    /**
+     * Returns the content id of the media the session was playing, or {@code null}.
+     */
+    public synchronized String getMediaId() {
+        return mMediaId;
+    }
+
+    public synchronized void setRouteId(String routeId) {
+        if (!equals(mRouteId, routeId)) {
+            mRouteId = routeId;
+            onChanged();
+        }
+    }
+
+    public synchronized void setSessionId(String sessionId) {
+        if (!equals(mSessionId, sessionId)) {
+            mSessionId = sessionId;
+            onChanged();
+        }
+    }
+
+    public synchronized void setSsid(String ssid) {
+        if (!equals(mSsid, ssid)) {
+            mSsid = ssid;
+            onChanged();
+        }
+    }
+
+    /**
+     * Sets when the media of the session ends, or {@link #NO_MEDIA_END}.
+     */
+    public synchronized void setMediaEnd(long mediaEnd) {
+        if (mMediaEnd != mediaEnd) {
+            mMediaEnd = mediaEnd;
+            onChanged();
+        }
+    }
+
+    public synchronized void setMediaId(String mediaId) {
+        if (!equals(mMediaId, mediaId)) {
+            mMediaId = mediaId;
+            onChanged();
+        }
+    }
+
+    /**
+     * Starts grouping changes into a single write, made when the matching
+     * {@link #endTransaction()} is called.
+     */
+    public synchronized void beginTransaction() {
+        mTransactionDepth++;
+    }
+
+    public synchronized void endTransaction() {
+        if (mTransactionDepth == 0) {
+            throw new IllegalStateException("endTransaction() without beginTransaction()");
+        }
+        if (--mTransactionDepth == 0 && mDirty) {
+            queueWrite();
+        }
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "SessionRecord{routeId=" + mRouteId + ", sessionId=" + mSessionId + ", ssid="
+                + mSsid + ", mediaEnd=" + mMediaEnd + ", mediaId=" + mMediaId + "}";
+    }
+
+    private void onChanged() {
+        mDirty = true;
+        if (mTransactionDepth == 0) {
+            queueWrite();
+        }
+    }
+
+    private void queueWrite() {
+        // a queued write has not taken its snapshot yet, so it will include this change too
+        if (!mWriteQueued) {
+            mWriteQueued = true;
+            mWriter.execute(mWriteRunnable);
+        }
+    }
+
+    private void read() {
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(mFile)));
+            if (in.readInt() != MAGIC) {
+                LOGE(TAG, "Ignoring a session record with an unknown format");
+                return;
+            }
+            int version = in.readInt();
+            if (version > VERSION) {
+                LOGE(TAG, "Ignoring a session record of version " + version);
+                return;
+            }
+            // version 1 is the only one so far; later versions only append fields, so the
+            // fields of older records are read the same way and the new ones keep their defaults
+            mRouteId = readString(in);
+            mSessionId = readString(in);
+            mSsid = readString(in);
+            mMediaEnd = in.readLong();
+            mMediaId = readString(in);
+            LOGD(TAG, "Read " + this);
+        } catch (IOException e) {
+            LOGE(TAG, "Failed to read the session record", e);
+        } finally {
+            close(in);
+        }
+    }
+
+    private void migrate(PreferenceAccessor preferences) {
+        mRouteId = preferences.getStringFromPreference(BaseCastManager.PREFS_KEY_ROUTE_ID);
+        mSessionId = preferences.getStringFromPreference(BaseCastManager.PREFS_KEY_SESSION_ID);
+        mSsid = preferences.getStringFromPreference(BaseCastManager.PREFS_KEY_SSID);
+        mMediaEnd = preferences.getLongFromPreference(BaseCastManager.PREFS_KEY_MEDIA_END,
+                NO_MEDIA_END);
+        LOGD(TAG, "Migrated from the preferences: " + this);
+        preferences.beginTransaction();
+        preferences.saveStringToPreference(BaseCastManager.PREFS_KEY_ROUTE_ID, null);
+        preferences.saveStringToPreference(BaseCastManager.PREFS_KEY_SESSION_ID, null);
+        preferences.saveStringToPreference(BaseCastManager.PREFS_KEY_SSID, null);
+        preferences.saveLongToPreference(BaseCastManager.PREFS_KEY_MEDIA_END, null);
+        preferences.endTransaction();
+        synchronized (this) {
+            onChanged();
+        }
+    }
+
+    private void write() {
+        String routeId;
+        String sessionId;
+        String ssid;
+        long mediaEnd;
+        String mediaId;
+        synchronized (this) {
+            mWriteQueued = false;
+            mDirty = false;
+            routeId = mRouteId;
+            sessionId = mSessionId;
+            ssid = mSsid;
+            mediaEnd = mMediaEnd;
+            mediaId = mMediaId;
+        }
+        FileOutputStream fileOut = null;
+        try {
+            fileOut = new FileOutputStream(mTempFile);
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fileOut));
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            writeString(out, routeId);
+            writeString(out, sessionId);
+            writeString(out, ssid);
+            out.writeLong(mediaEnd);
+            writeString(out, mediaId);
+            out.flush();
+            fileOut.getFD().sync();
+            fileOut.close();
+            fileOut = null;
+            if (!mTempFile.renameTo(mFile)) {
+                LOGE(TAG, "Failed to replace the session record");
+            }
+        } catch (IOException e) {
+            LOGE(TAG, "Failed to write the session record", e);
+        } finally {
+            close(fileOut);
+        }
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        out.writeBoolean(value != null);
+        if (value != null) {
+            out.writeUTF(value);
+        }
+    }
+
+    private static void close(Closeable closeable) {
+        if (closeable != null) {
+            try {
+                closeable.close();
+            } catch (IOException e) {
+                // ignore
+            }
+        }
+    }
+
+    private static boolean equals(String a, String b) {
+        return a == null ? b == null : a.equals(b);
+    }
+}
@@ -29,6 +29,7 @@ import com.connectsdk.service.capability.MediaPlayer;
 import com.connectsdk.service.capability.VolumeControl;
 import com.connectsdk.service.capability.listeners.ResponseListener;
 import com.connectsdk.service.command.ServiceCommandError;
+import com.connectsdk.service.command.ServiceSubscription;
 import com.connectsdk.service.command.URLServiceSubscription;
 import com.connectsdk.service.sessions.WebAppSession;
 //import com.google.android.gms.cast.ApplicationMetadata;
@@ -51,6 +52,7 @@ import com.connectsdk.service.sessions.WebAppSession;
 //import com.google.android.gms.common.api.Status;
 //import com.google.android.gms.common.images.WebImage;
 import com.google.android.gms.cast.CastStatusCodes;
+import com.google.android.gms.cast.MediaQueueItem;
 import com.google.android.gms.common.ConnectionResult;
 import com.google.android.gms.common.GooglePlayServicesUtil;
 import com.google.android.libraries.cast.companionlibrary.R;
@@ -69,7 +71,10 @@ import com.google.android.libraries.cast.companionlibrary.cast.tracks.OnTracksSe
 import com.google.android.libraries.cast.companionlibrary.cast.tracks.TracksPreferenceManager;
 import com.google.android.libraries.cast.companionlibrary.notification.VideoCastNotificationService;
 import com.google.android.libraries.cast.companionlibrary.remotecontrol.VideoIntentReceiver;
+import com.google.android.libraries.cast.companionlibrary.utils.ArtworkCache;
+import com.google.android.libraries.cast.companionlibrary.utils.ArtworkSpec;
 import com.google.android.libraries.cast.companionlibrary.utils.FetchBitmapTask;
+import com.google.android.libraries.cast.companionlibrary.utils.LatencyHistogram;
 import com.google.android.libraries.cast.companionlibrary.utils.LogUtils;
 import com.google.android.libraries.cast.companionlibrary.utils.Utils;
 import com.google.android.libraries.cast.companionlibrary.widgets.IMiniController;
@@ -109,8 +114,6 @@ import java.util.HashSet;
 import java.util.List;
 import java.util.Locale;
 import java.util.Set;
-import java.util.Timer;
-import java.util.TimerTask;
 import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.CopyOnWriteArraySet;
 import java.util.concurrent.CountDownLatch;
@@ -172,9 +175,17 @@ public class VideoCastManager extends BaseCastManager implements OnMiniControlle
     private ComponentName mMediaEventReceiver;
     private MediaQueue mMediaQueue;
     private MediaControl mMediaStatus;
-    private Timer mProgressTimer;
-    private UpdateProgressTask mProgressTask;
+    private final ProgressTicker mProgressTicker =
+            new ProgressTicker(this, PROGRESS_UPDATE_INTERVAL_MS);
+    private final ProgressTicker.OnProgressListener mMiniControllersProgressListener =
+            new ProgressTicker.OnProgressListener() {
+                @Override
+                public void onProgressUpdated(int position, int duration) {
+                    updateProgress(position, duration);
+                }
+            };
     private FetchBitmapTask mLockScreenFetchTask;
+    private Bitmap mLockScreenBitmap;
 
 
     /**
@@ -205,6 +216,106 @@ public class VideoCastManager extends BaseCastManager implements OnMiniControlle
     private long mLiveStreamDuration = DEFAULT_LIVE_STREAM_DURATION_MS;
     private MediaInfo mCurrentMediaInfo;
     private MediaControl.PlayStateStatus mCurrentPlayStateStatus;
+    private final RemoteStatusFetcher mStatusFetcher = new RemoteStatusFetcher();
+    private RemoteStatusSnapshot mLastStatusSnapshot;
+    private final PlayheadClock mPlayheadClock = new PlayheadClock();
+    private final RemoteStateCache mRemoteStateCache = new RemoteStateCache();
+    private final VolumeModel mVolumeModel = new VolumeModel(new VolumeModel.VolumeSender() {
+        @Override
+        public void sendVolume(float level) {
+            mRemoteStateCache.put(RemoteStateCache.FIELD_VOLUME, level);
+            try {
+                setDeviceVolume(level);
+            } catch (CastException | TransientNetworkDisconnectionException
+                    | NoConnectionException e) {
+                LOGE(TAG, "Failed to set the volume", e);
+            }
+        }
+
+        @Override
+        public void requestVolume() {
+            if (!hasVolumeControl()) {
+                mVolumeModel.onRemoteVolumeError();
+                return;
+            }
+            try {
+                getVolume(new VolumeControl.VolumeListener() {
+                    @Override
+                    public void onSuccess(Float volume) {
+                        if (volume != null) {
+                            mVolumeModel.onRemoteVolume(volume);
+                        } else {
+                            mVolumeModel.onRemoteVolumeError();
+                        }
+                    }
+
+                    @Override
+                    public void onError(ServiceCommandError serviceCommandError) {
+                        LOGE(TAG, "Failed to read the volume", serviceCommandError);
+                        mVolumeModel.onRemoteVolumeError();
+                    }
+                });
+            } catch (TransientNetworkDisconnectionException | NoConnectionException e) {
+                LOGE(TAG, "Failed to read the volume", e);
+                mVolumeModel.onRemoteVolumeError();
+            }
+        }
+    });
+    private ServiceSubscription<VolumeControl.VolumeListener> mVolumeSubscription;
+    private final SeekScheduler mSeekScheduler = new SeekScheduler(mPlayheadClock,
+            new SeekScheduler.SeekSender() {
+                @Override
+                public void sendSeek(final long positionMs,
+                        final ResponseListener<Object> listener) {
+                    final MediaControl mediaControl = mMediaStatus;
+                    if (mediaControl == null) {
+                        listener.onError(new ServiceCommandError(0, "No media control", null));
+                        return;
+                    }
+                    mCommandQueue.enqueue(new CommandQueue.Command("seek",
+                            CommandQueue.COLLAPSE_KEY_SEEK) {
+                        @Override
+                        protected void execute(ResponseListener<Object> responseListener) {
+                            mediaControl.seek(positionMs, responseListener);
+                        }
+
+                        @Override
+                        protected void onSuccess(Object result) {
+                            listener.onSuccess(result);
+                        }
+
+                        @Override
+                        protected void onError(ServiceCommandError error) {
+                            listener.onError(error);
+                        }
+
+                        @Override
+                        protected void onDropped() {
+                            listener.onError(new ServiceCommandError(0, "Seek dropped", null));
+                        }
+                    });
+                }
+            },
+            new SeekScheduler.Listener() {
+                @Override
+                public void onSeekCompleted(long positionMs, boolean play) {
+                    LOGD(TAG, "seek success");
+                    if (play) {
+                        try {
+                            play();
+                        } catch (CastException | TransientNetworkDisconnectionException
+                                | NoConnectionException e) {
+                            LOGE(TAG, "Failed to play after seeking", e);
+                        }
+                    }
+                }
+
+                @Override
+                public void onSeekFailed(ServiceCommandError error) {
+                    onFailed(R.string.ccl_failed_seek, error.getCode());
+                }
+            });
+    private final ArtworkPrefetcher mArtworkPrefetcher;
     //private MediaQueueItem mPreLoadingItem;
 
     public static final int QUEUE_OPERATION_LOAD = 1;
@@ -252,6 +363,8 @@ public class VideoCastManager extends BaseCastManager implements OnMiniControlle
         }
 
         mAudioManager = (AudioManager) mContext.getSystemService(Context.AUDIO_SERVICE);
+        ArtworkCache.initialize(mContext);
+        mArtworkPrefetcher = new ArtworkPrefetcher(mContext);
     }
 
     public static synchronized VideoCastManager initialize(Context context, String applicationId, Class<?> targetActivity, String dataNamespace) {
@@ -262,7 +375,6 @@ public class VideoCastManager extends BaseCastManager implements OnMiniControlle
 //                LOGE(TAG, msg);
 //            }
             sInstance = new VideoCastManager(context, applicationId, targetActivity, dataNamespace);
-            sInstance.restartProgressTimer();
         }
         return sInstance;
     }
@@ -668,13 +780,29 @@ public class VideoCastManager extends BaseCastManager implements OnMiniControlle
      * @throws TransientNetworkDisconnectionException If framework is still trying to recover from
      * a possibly transient loss of network
      */
-    public void getVolume(VolumeControl.VolumeListener listener) throws TransientNetworkDisconnectionException, NoConnectionException {
+    public void getVolume(final VolumeControl.VolumeListener listener) throws TransientNetworkDisconnectionException, NoConnectionException {
         checkConnectivity();
 //        if (mVolumeType == VolumeType.STREAM) {
 //            checkRemoteMediaPlayerAvailable();
 //            return mRemoteMediaPlayer.getMediaStatus().getStreamVolume();
 //        }
-        getDeviceVolume(listener);
+        Float volume = mRemoteStateCache.get(RemoteStateCache.FIELD_VOLUME);
+        if (volume != null) {
+            listener.onSuccess(volume);
+            return;
+        }
+        getDeviceVolume(new VolumeControl.VolumeListener() {
+            @Override
+            public void onSuccess(Float volume) {
+                mRemoteStateCache.put(RemoteStateCache.FIELD_VOLUME, volume);
+                listener.onSuccess(volume);
+            }
+
+            @Override
+            public void onError(ServiceCommandError serviceCommandError) {
+                listener.onError(serviceCommandError);
+            }
+        });
         }
 
     /**
@@ -711,7 +839,7 @@ public class VideoCastManager extends BaseCastManager implements OnMiniControlle
 //                    }
 //            );
 //        } else {
-            setDeviceVolume(volume);
+            mVolumeModel.set(volume);
 //        }
         }
 
@@ -727,31 +855,7 @@ public class VideoCastManager extends BaseCastManager implements OnMiniControlle
     public void adjustVolume(final double delta) throws CastException,
             TransientNetworkDisconnectionException, NoConnectionException {
         checkConnectivity();
-        getVolume(new VolumeControl.VolumeListener() {
-            @Override
-            public void onSuccess(Float volume) {
-                double vol = volume + delta;
-        if (vol > 1) {
-            vol = 1;
-        } else if (vol < 0) {
-            vol = 0;
-        }
-                try {
-        setVolume(vol);
-                } catch (CastException e) {
-                    e.printStackTrace();
-                } catch (TransientNetworkDisconnectionException e) {
-                    e.printStackTrace();
-                } catch (NoConnectionException e) {
-                    e.printStackTrace();
-    }
-            }
-
-            @Override
-            public void onError(ServiceCommandError serviceCommandError) {
-
-            }
-        });
+        mVolumeModel.adjust(delta);
     }
 
     /**
@@ -771,13 +875,29 @@ public class VideoCastManager extends BaseCastManager implements OnMiniControlle
      * @throws NoConnectionException
      * @throws TransientNetworkDisconnectionException
      */
-    public void isMute(VolumeControl.MuteListener listener) throws TransientNetworkDisconnectionException, NoConnectionException {
+    public void isMute(final VolumeControl.MuteListener listener) throws TransientNetworkDisconnectionException, NoConnectionException {
         checkConnectivity();
 //        if (mVolumeType == VolumeType.STREAM) {
 //            checkRemoteMediaPlayerAvailable();
 //            return mRemoteMediaPlayer.getMediaStatus().isMute();
 //        } else {
-        isDeviceMute(listener);
+        Boolean mute = mRemoteStateCache.get(RemoteStateCache.FIELD_MUTE);
+        if (mute != null) {
+            listener.onSuccess(mute);
+            return;
+        }
+        isDeviceMute(new VolumeControl.MuteListener() {
+            @Override
+            public void onSuccess(Boolean mute) {
+                mRemoteStateCache.put(RemoteStateCache.FIELD_MUTE, mute);
+                listener.onSuccess(mute);
+            }
+
+            @Override
+            public void onError(ServiceCommandError serviceCommandError) {
+                listener.onError(serviceCommandError);
+            }
+        });
 //        }
         }
 
@@ -797,6 +917,7 @@ public class VideoCastManager extends BaseCastManager implements OnMiniControlle
 //            mRemoteMediaPlayer.setStreamMute(mApiClient, mute);
 //        } else {
             setDeviceMute(mute);
+            mRemoteStateCache.put(RemoteStateCache.FIELD_MUTE, mute);
 //        }
         }
 
@@ -806,11 +927,27 @@ public class VideoCastManager extends BaseCastManager implements OnMiniControlle
      * @throws NoConnectionException
      * @throws TransientNetworkDisconnectionException
      */
-    public void getMediaDuration(MediaControl.DurationListener listener) throws TransientNetworkDisconnectionException, NoConnectionException {
+    public void getMediaDuration(final MediaControl.DurationListener listener) throws TransientNetworkDisconnectionException, NoConnectionException {
         checkConnectivity();
         checkRemoteMediaPlayerAvailable();
         //return mRemoteMediaPlayer.getStreamDuration();
-        mMediaStatus.getDuration(listener);
+        Long duration = mRemoteStateCache.get(RemoteStateCache.FIELD_DURATION);
+        if (duration != null) {
+            listener.onSuccess(duration);
+            return;
+        }
+        mMediaStatus.getDuration(new MediaControl.DurationListener() {
+            @Override
+            public void onSuccess(Long duration) {
+                mRemoteStateCache.put(RemoteStateCache.FIELD_DURATION, duration);
+                listener.onSuccess(duration);
+            }
+
+            @Override
+            public void onError(ServiceCommandError serviceCommandError) {
+                listener.onError(serviceCommandError);
+            }
+        });
     }
 
 
@@ -830,6 +967,8 @@ public class VideoCastManager extends BaseCastManager implements OnMiniControlle
         if(isRemoteStreamLive()) {
             //return mLiveStreamDuration;
             listener.onSuccess(mLiveStreamDuration);
+        } else if (!mPlayheadClock.isResyncDue() && mPlayheadClock.getDurationMs() > 0) {
+            listener.onSuccess(mPlayheadClock.getDurationMs() - mPlayheadClock.getPositionMs());
         } else {
             //return getMediaDuration() - getCurrentMediaPosition();
             getMediaDuration(new MediaControl.DurationListener() {
@@ -905,6 +1044,16 @@ public class VideoCastManager extends BaseCastManager implements OnMiniControlle
         checkConnectivity();
         checkRemoteMediaPlayerAvailable();
         //return mRemoteMediaPlayer.getApproximateStreamPosition();
+        // the position moves on its own, so it is extrapolated by the playhead clock rather than
+        // stored in the cache; while a seek is outstanding, the clock holds its target and the
+        // device would still report the position from before the seek
+        boolean fresh = mSeekScheduler.isSeeking()
+                || (mPlayheadClock.isSynced() && !mPlayheadClock.isResyncDue());
+        mRemoteStateCache.recordRead(RemoteStateCache.FIELD_POSITION, fresh);
+        if (fresh) {
+            listener.onSuccess(mPlayheadClock.getPositionMs());
+            return;
+        }
         mMediaStatus.getPosition(listener);
     }
 
@@ -1020,7 +1169,7 @@ public class VideoCastManager extends BaseCastManager implements OnMiniControlle
             // it is time to select the route and make the cast icon happy :-)
             List<RouteInfo> routes = mMediaRouter.getRoutes();
             if (routes != null) {
-                String routeId = mPreferenceAccessor.getStringFromPreference(PREFS_KEY_ROUTE_ID);
+                String routeId = mSessionRecord.getRouteId();
                 for (RouteInfo routeInfo : routes) {
                     if (routeId.equals(routeInfo.getId())) {
                         // found the right route
@@ -1042,7 +1191,7 @@ public class VideoCastManager extends BaseCastManager implements OnMiniControlle
 
 
             // saving device for future retrieval; we only save the last session info
-            mPreferenceAccessor.saveStringToPreference(PREFS_KEY_SESSION_ID, mSessionId);
+            mSessionRecord.setSessionId(mSessionId);
 //            mRemoteMediaPlayer.requestStatus(mApiClient).
 //                    setResultCallback(new ResultCallback<RemoteMediaPlayer.MediaChannelResult>() {
 //
@@ -1772,7 +1921,12 @@ public class VideoCastManager extends BaseCastManager implements OnMiniControlle
 //
 //                });
 
-        mMediaStatus.play(new ResponseListener<Object>() {
+        final MediaControl mediaControl = mMediaStatus;
+        mCommandQueue.enqueue(new CommandQueue.Command("play", null) {
+            @Override
+            protected void execute(ResponseListener<Object> listener) {
+                mediaControl.play(listener);
+            }
 
             @Override
             public void onSuccess(Object o) {
@@ -1827,7 +1981,12 @@ public class VideoCastManager extends BaseCastManager implements OnMiniControlle
 //                }
 //        );
 
-        mMediaStatus.stop(new ResponseListener<Object>() {
+        final MediaControl mediaControl = mMediaStatus;
+        mCommandQueue.enqueue(new CommandQueue.Command("stop", null) {
+            @Override
+            protected void execute(ResponseListener<Object> listener) {
+                mediaControl.stop(listener);
+            }
 
             @Override
             public void onSuccess(Object o) {
@@ -1897,7 +2056,12 @@ public class VideoCastManager extends BaseCastManager implements OnMiniControlle
 //
 //                });
 
-        mMediaStatus.pause(new ResponseListener<Object>() {
+        final MediaControl mediaControl = mMediaStatus;
+        mCommandQueue.enqueue(new CommandQueue.Command("pause", null) {
+            @Override
+            protected void execute(ResponseListener<Object> listener) {
+                mediaControl.pause(listener);
+            }
 
             @Override
             public void onSuccess(Object o) {
@@ -1940,17 +2104,7 @@ public class VideoCastManager extends BaseCastManager implements OnMiniControlle
 //                    }
 //
 //                });
-        mMediaStatus.seek(position, new ResponseListener<Object>() {
-            @Override
-            public void onSuccess(Object o) {
-				LOGD(TAG, "seek success");
-            }
-
-            @Override
-            public void onError(ServiceCommandError serviceCommandError) {
-                onFailed(R.string.ccl_failed_seek, serviceCommandError.getCode());
-            }
-        });
+        mSeekScheduler.seek(position, false);
     }
 
     /**
@@ -1982,26 +2136,7 @@ public class VideoCastManager extends BaseCastManager implements OnMiniControlle
 //                position,
 //                RemoteMediaPlayer.RESUME_STATE_PLAY).setResultCallback(resultCallback);
 
-        mMediaStatus.seek(position, new ResponseListener<Object>() {
-            @Override
-            public void onSuccess(Object o) {
-				LOGD(TAG, "seek success");
-                try {
-                    play();
-                } catch (CastException e) {
-                    e.printStackTrace();
-                } catch (TransientNetworkDisconnectionException e) {
-                    e.printStackTrace();
-                } catch (NoConnectionException e) {
-                    e.printStackTrace();
-                }
-            }
-
-            @Override
-            public void onError(ServiceCommandError serviceCommandError) {
-                onFailed(R.string.ccl_failed_seek, serviceCommandError.getCode());
-    		}
-        });
+        mSeekScheduler.seek(position, true);
     }
 
     /**
@@ -2103,6 +2238,8 @@ public class VideoCastManager extends BaseCastManager implements OnMiniControlle
                 public void onSuccess(MediaInfo mediaInfo) {
                     LOGD(TAG, "RemoteMediaPlayer::onMetadataUpdated() is reached");
                     mCurrentMediaInfo = mediaInfo;
+                    mSessionRecord.setMediaId(mediaInfo == null ? null : mediaInfo.getUrl());
+                    mRemoteStateCache.invalidate(RemoteStateCache.FIELD_DURATION);
                     VideoCastManager.this.onRemoteMediaPlayerMetadataUpdated();
                 }
 
@@ -2122,6 +2259,10 @@ public class VideoCastManager extends BaseCastManager implements OnMiniControlle
                 @Override
                 public void onSuccess(MediaControl.PlayStateStatus playStateStatus) {
                     LOGD(TAG, "RemoteMediaPlayer::onStatusUpdated() is reached");
+                    if (playStateStatus != mCurrentPlayStateStatus) {
+                        // a new state may mean new media, whose duration is not known yet
+                        mRemoteStateCache.invalidate(RemoteStateCache.FIELD_DURATION);
+                    }
                     mCurrentPlayStateStatus = playStateStatus;
 //                    switch (mCurrentPlayStateStatus)
 //                    {
@@ -2139,6 +2280,24 @@ public class VideoCastManager extends BaseCastManager implements OnMiniControlle
                     }
                 });
 
+            VolumeControl volumeControl = mSelectedCastDevice.getCapability(VolumeControl.class);
+            if (volumeControl != null) {
+                mVolumeSubscription = volumeControl.subscribeVolume(
+                        new VolumeControl.VolumeListener() {
+                            @Override
+                            public void onSuccess(Float volume) {
+                                if (volume != null) {
+                                    mRemoteStateCache.put(RemoteStateCache.FIELD_VOLUME, volume);
+                                    mVolumeModel.onRemoteVolume(volume);
+                                }
+                            }
+
+                            @Override
+                            public void onError(ServiceCommandError serviceCommandError) {
+                                LOGE(TAG, "Volume subscription failed", serviceCommandError);
+                            }
+                        });
+            }
         }
 //        try {
 //            LOGD(TAG, "Registering MediaChannel namespace");
@@ -2172,6 +2331,16 @@ public class VideoCastManager extends BaseCastManager implements OnMiniControlle
 //            }
             mRemoteMediaPlayer = null;
         }
+        mStatusFetcher.cancel();
+        mLastStatusSnapshot = null;
+        mPlayheadClock.reset();
+        mRemoteStateCache.invalidateAll();
+        mSeekScheduler.reset();
+        if (mVolumeSubscription != null) {
+            mVolumeSubscription.unsubscribe();
+            mVolumeSubscription = null;
+        }
+        mVolumeModel.reset();
     }
 
     /**
@@ -2334,141 +2503,141 @@ public class VideoCastManager extends BaseCastManager implements OnMiniControlle
 //                LOGD(TAG, "[queue] Queue Item is: " + item.toJson());
 //            }
 //        }
-        mMediaStatus.getPlayState(new MediaControl.PlayStateListener() {
-            @Override
-            public void onSuccess(MediaControl.PlayStateStatus playStateStatus) {
-                switch(playStateStatus) {
-                    case Unknown:
-                    default:
-                        mState = MediaControl.PLAYER_STATE_UNKNOWN;
-                        break;
-                    case Finished:
-                        mState = MediaControl.PLAYER_STATE_IDLE;
-                        break;
-                    case Playing:
-                        mState = MediaControl.PLAYER_STATE_PLAYING;
-                        break;
-                    case Paused:
-                        mState =  MediaControl.PLAYER_STATE_PAUSED;
-                        break;
-                    case Buffering:
-                        mState = MediaControl.PLAYER_STATE_BUFFERING;
-        		}
-
-                //mIdleReason = mMediaStatus.getIdleReason();
-
-                try {
-                    getVolume(new VolumeControl.VolumeListener() {
-                        @Override
-                        public void onSuccess(final Float volume) {
-                            try {
-                                isMute(new VolumeControl.MuteListener(){
-                                    @Override
-                                    public void onSuccess(Boolean isMute) {
-                                        for (VideoCastConsumer consumer : mVideoConsumers) {
-                                            consumer.onRemoteMediaPlayerStatusUpdated();
-                                            consumer.onVolumeChanged(volume, isMute);
-            							}
-        							}
-
-                                    @Override
-                                    public void onError(ServiceCommandError serviceCommandError) {
-
-                                    }
-                                });
-                            } catch (TransientNetworkDisconnectionException | NoConnectionException e) {
-                                e.printStackTrace();
-                            }
-                        }
-
-                        @Override
-                        public void onError(ServiceCommandError serviceCommandError) {
-
-                        }
-                    });
+        VolumeControl volumeControl = mSelectedCastDevice.getCapability(VolumeControl.class);
+        mStatusFetcher.fetch(mMediaStatus, volumeControl,
+                new RemoteStatusFetcher.OnSnapshotListener() {
+                    @Override
+                    public void onSnapshot(RemoteStatusSnapshot snapshot) {
+                        onRemoteStatusSnapshot(snapshot);
+                    }
+                });
+    }
 
-            		boolean makeUiHidden = false;
-                    if (mState == MediaControl.PLAYER_STATE_PLAYING) {
-                		LOGD(TAG, "onRemoteMediaPlayerStatusUpdated(): Player status = playing");
-                		updateMediaSession(true);
-                        getMediaTimeRemaining(new ResponseListener<Long>() {
-                            @Override
-                            public void onSuccess(Long mediaDurationLeft) {
-                				startReconnectionService(mediaDurationLeft);
-                				startNotificationService();
-                            }
+    /*
+     * Applies a status snapshot that was assembled by mStatusFetcher. Consumers are notified once
+     * per snapshot.
+     */
+    private void onRemoteStatusSnapshot(RemoteStatusSnapshot snapshot) {
+        LOGD(TAG, "onRemoteStatusSnapshot() reached: " + snapshot);
+        if (mSelectedCastDevice == null || mRemoteMediaPlayer == null || mMediaStatus == null) {
+            LOGD(TAG, "mApiClient or mRemoteMediaPlayer is null, so will not proceed");
+            return;
+        }
+        if (!snapshot.hasPlayState()) {
+            LOGE(TAG, "onRemoteStatusSnapshot(): failed to get the play state, ignoring");
+            return;
+        }
+        mLastStatusSnapshot = snapshot;
+        mState = snapshot.getPlayerState();
+        //mIdleReason = mMediaStatus.getIdleReason();
+        boolean advancing = mState == MediaControl.PLAYER_STATE_PLAYING;
+        if (snapshot.hasPosition() && !mSeekScheduler.isSeeking()) {
+            mPlayheadClock.sync(snapshot.getPositionMs(), snapshot.getDurationMs(), advancing);
+        } else {
+            mPlayheadClock.setAdvancing(advancing);
+        }
 
-                            @Override
-                            public void onError(ServiceCommandError serviceCommandError) {
+        if (snapshot.hasVolume()) {
+            mRemoteStateCache.put(RemoteStateCache.FIELD_VOLUME, snapshot.getVolume());
+            mVolumeModel.onRemoteVolume(snapshot.getVolume());
+        }
+        if (snapshot.hasMute()) {
+            mRemoteStateCache.put(RemoteStateCache.FIELD_MUTE, snapshot.isMute());
+        }
+        if (snapshot.hasDuration()) {
+            mRemoteStateCache.put(RemoteStateCache.FIELD_DURATION, snapshot.getDurationMs());
+        }
+        for (VideoCastConsumer consumer : mVideoConsumers) {
+            consumer.onRemoteMediaPlayerStatusUpdated();
+            if (snapshot.hasVolume() && snapshot.hasMute()) {
+                consumer.onVolumeChanged(snapshot.getVolume(), snapshot.isMute());
+            }
+        }
 
-                            }
-                        });
+        try {
+            boolean makeUiHidden = false;
+            if (mState == MediaControl.PLAYER_STATE_PLAYING) {
+                LOGD(TAG, "onRemoteMediaPlayerStatusUpdated(): Player status = playing");
+                updateMediaSession(true);
+                long mediaDurationLeft = isRemoteStreamLive() ? mLiveStreamDuration
+                        : snapshot.getTimeRemainingMs();
+                if (mediaDurationLeft != RemoteStatusSnapshot.UNKNOWN) {
+                    startReconnectionService(mediaDurationLeft);
+                }
+                startNotificationService();
+            } else if (mState == MediaControl.PLAYER_STATE_PAUSED) {
+                LOGD(TAG, "onRemoteMediaPlayerStatusUpdated(): Player status = paused");
+                updateMediaSession(false);
+                startNotificationService();
+            } else if (mState == MediaControl.PLAYER_STATE_IDLE) {
+                LOGD(TAG, "onRemoteMediaPlayerStatusUpdated(): Player status = idle");
+                updateMediaSession(false);
+                clearMediaSession();
+                makeUiHidden = true;
+                mCurrentMediaInfo = null;
+                mPlayheadClock.reset();
+                stopReconnectionService();
+            } else if (mState == MediaControl.PLAYER_STATE_BUFFERING) {
+                LOGD(TAG, "onRemoteMediaPlayerStatusUpdated(): Player status = buffering");
+            } else {
+                LOGD(TAG, "onRemoteMediaPlayerStatusUpdated(): Player status = unknown");
+                makeUiHidden = true;
+            }
+            if (makeUiHidden) {
+                stopNotificationService();
+            }
+            updateMiniControllersVisibility(!makeUiHidden);
+            updateMiniControllers();
+        } catch (TransientNetworkDisconnectionException | NoConnectionException e) {
+            LOGE(TAG, "Failed to update the remote status due to network issues", e);
+        }
+    }
 
+    /**
+     * Returns the most recent status snapshot of the remote player, or {@code null} if none has
+     * been received yet for the current session.
+     */
+    public RemoteStatusSnapshot getLastStatusSnapshot() {
+        return mLastStatusSnapshot;
+    }
 
-                    } else if (mState == MediaControl.PLAYER_STATE_PAUSED) {
-                		LOGD(TAG, "onRemoteMediaPlayerStatusUpdated(): Player status = paused");
-                		updateMediaSession(false);
-                		startNotificationService();
-                    } else if (mState == MediaControl.PLAYER_STATE_IDLE) {
-                		LOGD(TAG, "onRemoteMediaPlayerStatusUpdated(): Player status = idle");
-                		updateMediaSession(false);
-//                		switch (mIdleReason) {
-//                    		case MediaStatus.IDLE_REASON_FINISHED:
-                        		clearMediaSession();
-                        		makeUiHidden = true;
-                        		mCurrentMediaInfo = null;
-//                        		break;
-//                    		case MediaStatus.IDLE_REASON_ERROR:
-//                        		// something bad happened on the cast device
-//                        		LOGD(TAG, "onRemoteMediaPlayerStatusUpdated(): IDLE reason = ERROR");
-//                        		makeUiHidden = true;
-//                        		clearMediaSession();
-//                        		onFailed(R.string.ccl_failed_receiver_player_error, NO_STATUS_CODE);
-//                        		break;
-//                    		case MediaStatus.IDLE_REASON_CANCELED:
-//                        		LOGD(TAG, "onRemoteMediaPlayerStatusUpdated(): IDLE reason = CANCELLED");
-//                        		makeUiHidden = !isRemoteStreamLive();
-//                        		break;
-//                    		case MediaStatus.IDLE_REASON_INTERRUPTED:
-//                        		if (mMediaStatus.getLoadingItemId() == MediaQueueItem.INVALID_ITEM_ID) {
-//                            		// we have reached the end of queue
-//                            		clearMediaSession();
-//                            		makeUiHidden = true;
-//                        		}
-//                        		break;
-//                    		default:
-//                        		LOGE(TAG, "onRemoteMediaPlayerStatusUpdated(): Unexpected Idle Reason " + mIdleReason);
-//                		}
-                		if (makeUiHidden) {
-                    		stopReconnectionService();
-                		}
-                    } else if (mState == MediaControl.PLAYER_STATE_BUFFERING) {
-                		LOGD(TAG, "onRemoteMediaPlayerStatusUpdated(): Player status = buffering");
-            		} else {
-                		LOGD(TAG, "onRemoteMediaPlayerStatusUpdated(): Player status = unknown");
-                		makeUiHidden = true;
-            		}
-            		if (makeUiHidden) {
-                		stopNotificationService();
-            		}
-            		updateMiniControllersVisibility(!makeUiHidden);
-            		updateMiniControllers();
-//                    for (VideoCastConsumer consumer : mVideoConsumers) {
-//                        consumer.onRemoteMediaPlayerStatusUpdated();
-//                        consumer.onVolumeChanged(volume, isMute);
-//                    }
-        		} catch (TransientNetworkDisconnectionException | NoConnectionException e) {
-            		LOGE(TAG, "Failed to get volume state due to network issues", e);
-        		}
+    /**
+     * Returns the distribution of the time it takes to collect a complete status snapshot from the
+     * remote device.
+     */
+    public LatencyHistogram getStatusFanOutLatency() {
+        return mStatusFetcher.getFanOutLatency();
+    }
 
-    		}
+    /**
+     * Returns the local estimate of the remote playhead. Progress UIs should read the position
+     * from this clock rather than querying the device; its re-sync interval can be tuned with
+     * {@link PlayheadClock#setResyncIntervalMs(long)}.
+     */
+    public PlayheadClock getPlayheadClock() {
+        return mPlayheadClock;
+    }
 
-            @Override
-            public void onError(ServiceCommandError serviceCommandError) {
+    /**
+     * Returns the cache that serves reads of the remote volume, mute state and duration, e.g. to
+     * tune its time-to-live per field or read its hit and miss counts.
+     */
+    public RemoteStateCache getRemoteStateCache() {
+        return mRemoteStateCache;
+    }
 
-        	}
-        });
+    /**
+     * Returns the local model of the device volume that volume changes go through.
+     */
+    public VolumeModel getVolumeModel() {
+        return mVolumeModel;
+    }
 
+    /**
+     * Returns the scheduler that coalesces seeks, e.g. to read how many were avoided.
+     */
+    public SeekScheduler getSeekScheduler() {
+        return mSeekScheduler;
     }
 
 //    private void onRemoteMediaPreloadStatusUpdated() {
@@ -2519,12 +2688,46 @@ public class VideoCastManager extends BaseCastManager implements OnMiniControlle
             consumer.onRemoteMediaPlayerMetadataUpdated();
         }
         try {
-            updateLockScreenImage(getRemoteMediaInformation());
+            MediaInfo info = getRemoteMediaInformation();
+            updateLockScreenImage(info);
+            syncMediaQueueCurrentItem(info);
         } catch (TransientNetworkDisconnectionException | NoConnectionException e) {
             LOGE(TAG, "Failed to update lock screen metadata due to a network issue", e);
         }
     }
 
+    /*
+     * Moves the current item of the queue to the one that is now playing, if it can be found, and
+     * prefetches the artwork of what comes next.
+     */
+    private void syncMediaQueueCurrentItem(MediaInfo info) {
+        MediaQueue queue = mMediaQueue;
+        if (queue == null || info == null || info.getUrl() == null) {
+            return;
+        }
+        List<MediaQueueItem> items = queue.getQueueItems();
+        if (items != null) {
+            for (MediaQueueItem item : items) {
+                if (item.getMedia() != null
+                        && info.getUrl().equals(item.getMedia().getContentId())) {
+                    if (item != queue.getCurrentItem()) {
+                        queue.setCurrentItem(item);
+                        prefetchUpcomingArtwork();
+                    }
+                    break;
+                }
+            }
+        }
+    }
+
+    private void prefetchUpcomingArtwork() {
+        if (mMediaQueue == null) {
+            mArtworkPrefetcher.cancel();
+        } else {
+            mArtworkPrefetcher.prefetch(mMediaQueue, isFeatureEnabled(FEATURE_LOCKSCREEN));
+        }
+    }
+
     /**
      * Returns the Media Session Token. If there is no media session, it returns {@code null}
      */
@@ -2618,18 +2821,15 @@ public class VideoCastManager extends BaseCastManager implements OnMiniControlle
         Uri imgUrl = null;
         Bitmap bm = null;
         List<ImageInfo> images = video.getImages();
-        if (Build.VERSION.SDK_INT > Build.VERSION_CODES.JELLY_BEAN_MR2) {
-            if (images.size() > 1) {
-                imgUrl = Uri.parse(images.get(1).getUrl());
-            } else if (images.size() == 1) {
-                imgUrl = Uri.parse(images.get(0).getUrl());
-            } else if (mContext != null) {
+        if (!images.isEmpty()) {
+            imgUrl = Uri.parse(images.get(
+                    ArtworkSpec.getLockScreenImageIndex(images.size())).getUrl());
+        } else if (Build.VERSION.SDK_INT > Build.VERSION_CODES.JELLY_BEAN_MR2) {
+            if (mContext != null) {
                 // we don't have a url for image so get a placeholder image from resources
                 bm = BitmapFactory.decodeResource(mContext.getResources(),
                         R.drawable.album_art_placeholder_large);
             }
-        } else if (!images.isEmpty()) {
-            imgUrl = Uri.parse(images.get(0).getUrl());
         } else {
             // we don't have a url for image so get a placeholder image from resources
             bm = BitmapFactory.decodeResource(mContext.getResources(), R.drawable.album_art_placeholder);
@@ -2642,8 +2842,11 @@ public class VideoCastManager extends BaseCastManager implements OnMiniControlle
             mMediaSessionCompat.setMetadata(newBuilder
                     .putBitmap(MediaMetadataCompat.METADATA_KEY_ALBUM_ART, bm)
                     .build());
+            setLockScreenBitmap(bm);
         } else {
-            mLockScreenFetchTask = new FetchBitmapTask() {
+            ArtworkSpec spec = ArtworkSpec.forLockScreen(mContext);
+            mLockScreenFetchTask = new FetchBitmapTask(spec.getWidth(), spec.getHeight(),
+                    spec.getFlags()) {
                 @Override
                 protected void onPostExecute(Bitmap bitmap) {
                     if (mMediaSessionCompat != null) {
@@ -2655,13 +2858,28 @@ public class VideoCastManager extends BaseCastManager implements OnMiniControlle
                         mMediaSessionCompat.setMetadata(newBuilder
                                 .putBitmap(MediaMetadataCompat.METADATA_KEY_ALBUM_ART, bitmap)
                                 .build());
+                        setLockScreenBitmap(bitmap);
                     }
                     mLockScreenFetchTask = null;
                 }
             };
+            mLockScreenFetchTask.setPriority(FetchBitmapTask.PRIORITY_LOCK_SCREEN);
             mLockScreenFetchTask.execute(imgUrl);
         }
     }
+
+    /*
+     * Keeps the artwork used by the media session out of the bitmap pool for as long as it is
+     * used, since the session may send it to the system again at any time.
+     */
+    private void setLockScreenBitmap(Bitmap bitmap) {
+        if (bitmap != mLockScreenBitmap) {
+            ArtworkCache.getInstance().retain(bitmap);
+            ArtworkCache.getInstance().release(mLockScreenBitmap);
+            mLockScreenBitmap = bitmap;
+        }
+    }
+
     /*
      * Updates the playback status of the Media Session
      */
@@ -2742,6 +2960,7 @@ public class VideoCastManager extends BaseCastManager implements OnMiniControlle
                 mMediaSessionCompat.release();
                 mMediaSessionCompat = null;
             }
+            setLockScreenBitmap(null);
         }
     }
 
@@ -2786,6 +3005,7 @@ public class VideoCastManager extends BaseCastManager implements OnMiniControlle
                 result = mMiniControllers.add(miniController);
             }
             if (result) {
+                mProgressTicker.subscribe(mMiniControllersProgressListener);
                 miniController.setOnMiniControllerChangedListener(onChangedListener == null ? this
                         : onChangedListener);
                 try {
@@ -2820,6 +3040,9 @@ public class VideoCastManager extends BaseCastManager implements OnMiniControlle
             listener.setOnMiniControllerChangedListener(null);
             synchronized (mMiniControllers) {
                 mMiniControllers.remove(listener);
+                if (mMiniControllers.isEmpty()) {
+                    mProgressTicker.unsubscribe(mMiniControllersProgressListener);
+                }
             }
         }
     }
@@ -2859,6 +3082,7 @@ public class VideoCastManager extends BaseCastManager implements OnMiniControlle
         }
         mState = MediaControl.PLAYER_STATE_IDLE;
         mMediaQueue = null;
+        mArtworkPrefetcher.cancel();
         mCurrentMediaInfo = null;
     }
 
@@ -2944,18 +3168,29 @@ public class VideoCastManager extends BaseCastManager implements OnMiniControlle
 //            }
 
             int keyCode = event.getKeyCode();
-            if(isKeyDown && getRouteInfo()!=null) {
-                if (keyCode == KeyEvent.KEYCODE_VOLUME_DOWN || keyCode == KeyEvent.KEYCODE_VOLUME_UP) {
-                    int delta = (int)volumeDelta;
-                    updateVolume(keyCode == KeyEvent.KEYCODE_VOLUME_DOWN ? -delta : delta);
-                    return true;
+            if ((keyCode == KeyEvent.KEYCODE_VOLUME_DOWN || keyCode == KeyEvent.KEYCODE_VOLUME_UP)
+                    && hasVolumeControl()) {
+                // key repeats are batched by the volume model into one level per flush interval
+                if (isKeyDown) {
+                    mVolumeModel.adjust(
+                            keyCode == KeyEvent.KEYCODE_VOLUME_DOWN ? -volumeDelta : volumeDelta);
                 }
+                return true;
             }
 
         }
         return false;
     }
 
+    /*
+     * Returns true if the volume of the selected device can be controlled, so that volume keys
+     * are otherwise left to the local volume.
+     */
+    private boolean hasVolumeControl() {
+        return mSelectedCastDevice != null
+                && mSelectedCastDevice.getCapability(VolumeControl.class) != null;
+    }
+
     private boolean changeVolume(double volumeIncrement, boolean isKeyDown) {
         if ((Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN)
                 && getPlaybackStatus() == MediaControl.PLAYER_STATE_PLAYING
@@ -3210,79 +3445,39 @@ public class VideoCastManager extends BaseCastManager implements OnMiniControlle
         return mMediaQueue;
     }
 
-    private void stopProgressTimer() {
-        LOGD(TAG, "Stopped TrickPlay Timer");
-        if (mProgressTask != null) {
-            mProgressTask.cancel();
-            mProgressTask = null;
-        }
-        if (mProgressTimer != null) {
-            mProgressTimer.cancel();
-            mProgressTimer = null;
-        }
+    /**
+     * Sets the queue of media items the application plays on the receiver, or {@code null} if there
+     * is none. The current item of the queue is kept in sync with the media that is playing, and
+     * the artwork of the upcoming items is prefetched so that it shows up right away when playback
+     * moves on to them. Call this again whenever the queue changes.
+     */
+    public void setMediaQueue(MediaQueue mediaQueue) {
+        mMediaQueue = mediaQueue;
+        prefetchUpcomingArtwork();
     }
 
-    private void restartProgressTimer() {
-        stopProgressTimer();
-        mProgressTimer = new Timer();
-        mProgressTask = new UpdateProgressTask();
-        mProgressTimer.scheduleAtFixedRate(mProgressTask, 100, PROGRESS_UPDATE_INTERVAL_MS);
-        LOGD(TAG, "Restarted Progress Timer");
+    /**
+     * Returns the prefetcher of upcoming artwork, e.g. to change how far ahead it looks.
+     */
+    public ArtworkPrefetcher getArtworkPrefetcher() {
+        return mArtworkPrefetcher;
     }
 
-    private class UpdateProgressTask extends TimerTask {
-
-        @Override
-        public void run() {
-            //final int currentPos;
-            if (mState == MediaControl.PLAYER_STATE_BUFFERING || mState == MediaControl.PLAYER_STATE_IDLE || !isConnected() || mRemoteMediaPlayer == null) {
-                return;
-            }
-            try {
-//                int duration = (int) getMediaDuration();
-//                if (duration > 0) {
-//                    currentPos = (int) getCurrentMediaPosition();
-//                    updateProgress(currentPos, duration);
-//                }
-
-                getMediaDuration(new MediaControl.DurationListener() {
-                    @Override
-                    public void onSuccess(Long duration) {
-                        final int mediaDuration = duration.intValue();
-                        if (mediaDuration > 0) {
-                            try {
-                                getCurrentMediaPosition(new MediaControl.PositionListener() {
-                                    @Override
-                                    public void onSuccess(Long position) {
-                                        final int currentPos = position.intValue();
-                                        updateProgress(currentPos, mediaDuration);
-                					}
-
-                                    @Override
-                                    public void onError(ServiceCommandError serviceCommandError) {
-                                        LOGE(TAG, "Failed to update the progress tracker due to network issues", serviceCommandError);
-                                    }
-                                });
-            				} catch (TransientNetworkDisconnectionException | NoConnectionException e) {
-                				LOGE(TAG, "Failed to update the progress tracker due to network issues", e);
-            				}
-
-        				}
-    				}
-
-                    @Override
-                    public void onError(ServiceCommandError serviceCommandError) {
-                        LOGE(TAG, "Failed to update the progress tracker due to network issues", serviceCommandError);
-                        if(serviceCommandError!=null && serviceCommandError.getPayload() != null) {
-                            boolean wasWaitingForReconnect = (boolean) serviceCommandError.getPayload();
-                            mConnectionSuspended = wasWaitingForReconnect;
-                        }
-                    }
-                });
+    /**
+     * Returns the shared source of playback progress. Components that display progress should
+     * subscribe to it rather than querying the device on their own schedule.
+     */
+    public ProgressTicker getProgressTicker() {
+        return mProgressTicker;
+    }
 
-            } catch (TransientNetworkDisconnectionException | NoConnectionException e) {
-                LOGE(TAG, "Failed to update the progress tracker due to network issues", e);
-            }
+    /*
+     * Called by the progress ticker when the device could not report the media duration.
+     */
+    void onProgressQueryFailed(ServiceCommandError serviceCommandError) {
+        if (serviceCommandError != null && serviceCommandError.getPayload() != null) {
+            boolean wasWaitingForReconnect = (boolean) serviceCommandError.getPayload();
+            mConnectionSuspended = wasWaitingForReconnect;
         }
     }
 
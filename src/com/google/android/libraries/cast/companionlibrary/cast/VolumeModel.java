@@ -0,0 +1,225 @@
+/*
+ * Copyright (C) 2015 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.android.libraries.cast.companionlibrary.cast;
+
+import static com.google.android.libraries.cast.companionlibrary.utils.LogUtils.LOGD;
+
+import com.google.android.libraries.cast.companionlibrary.utils.LogUtils;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+
+/**
+ * A local copy of the device volume, between 0 and 1. Changes, typically from the hardware
+ * volume keys, are applied to the local level right away and the device is sent one absolute
+ * level per flush interval, however many key repeats happened in between; nothing is read from
+ * the device before writing. The local level is seeded, and corrected, from the volume the
+ * device reports through its subscription, except while a write of ours may not have landed yet.
+ * If a change comes in before the device reported anything, the level is read once from the
+ * device, and the change applied when it comes back. Must be used on the main thread.
+ */
+public class VolumeModel {
+
+    private static final String TAG = LogUtils.makeLogTag(VolumeModel.class);
+
+    public static final long DEFAULT_FLUSH_INTERVAL_MS = 100;
+    // how long the device is given to report a level we sent before its reports are trusted again
+    private static final long SETTLE_TIME_MS = 1000;
+    private static final float UNKNOWN = -1;
+
+    /**
+     * Sends an absolute volume to the device, and reads it when it is not known yet.
+     */
+    public interface VolumeSender {
+        void sendVolume(float level);
+
+        /**
+         * Reads the volume of the device once, reporting it through
+         * {@link VolumeModel#onRemoteVolume(float)} or, if it could not be read,
+         * {@link VolumeModel#onRemoteVolumeError()}.
+         */
+        void requestVolume();
+    }
+
+    private final VolumeSender mSender;
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+    private long mFlushIntervalMs = DEFAULT_FLUSH_INTERVAL_MS;
+    private float mLevel = UNKNOWN;
+    // deltas received before the level was known
+    private double mPendingDelta;
+    private boolean mDirty;
+    private boolean mFlushScheduled;
+    private boolean mVolumeRequested;
+    private long mLastSendTime;
+    private long mChangeCount;
+    private long mSentCount;
+    private long mCorrectionCount;
+
+    private final Runnable mFlushRunnable = new Runnable() {
+        @Override
+        public void run() {
+            mFlushScheduled = false;
+            flush();
+        }
+    };
+
+    public VolumeModel(VolumeSender sender) {
+        mSender = sender;
+    }
+
+    /**
+     * Changes the volume by {@code delta}.
+     */
+    public void adjust(double delta) {
+        mChangeCount++;
+        if (mLevel == UNKNOWN) {
+            mPendingDelta += delta;
+            if (!mVolumeRequested) {
+                mVolumeRequested = true;
+                mSender.requestVolume();
+            }
+            return;
+        }
+        setLevel(mLevel + delta);
+    }
+
+    /**
+     * Sets the volume to {@code level}.
+     */
+    public void set(double level) {
+        mChangeCount++;
+        mPendingDelta = 0;
+        setLevel(level);
+    }
+
+    /**
+     * Returns the local volume level, or a negative value if it is not known yet.
+     */
+    public float getLevel() {
+        return mLevel;
+    }
+
+    /**
+     * Feeds the volume reported by the device.
+     */
+    public void onRemoteVolume(float level) {
+        if (level < 0) {
+            return;
+        }
+        mVolumeRequested = false;
+        if (mLevel == UNKNOWN) {
+            mLevel = clamp(level);
+            if (mPendingDelta != 0) {
+                double delta = mPendingDelta;
+                mPendingDelta = 0;
+                setLevel(mLevel + delta);
+            }
+            return;
+        }
+        if (mDirty || SystemClock.elapsedRealtime() - mLastSendTime < SETTLE_TIME_MS) {
+            return;
+        }
+        if (Math.abs(level - mLevel) > 0.001) {
+            LOGD(TAG, "Correcting volume from " + mLevel + " to " + level);
+            mLevel = clamp(level);
+            mCorrectionCount++;
+        }
+    }
+
+    /**
+     * Reports that the volume requested from the device could not be read; the next change asks
+     * again.
+     */
+    public void onRemoteVolumeError() {
+        mVolumeRequested = false;
+    }
+
+    /**
+     * Forgets the level, for example when the device changes.
+     */
+    public void reset() {
+        mHandler.removeCallbacks(mFlushRunnable);
+        mFlushScheduled = false;
+        mDirty = false;
+        mPendingDelta = 0;
+        mLevel = UNKNOWN;
+        mLastSendTime = 0;
+        mVolumeRequested = false;
+    }
+
+    /**
+     * Sets the minimum time, in milliseconds, between two levels sent to the device. The default
+     * is {@link #DEFAULT_FLUSH_INTERVAL_MS}.
+     */
+    public void setFlushInterval(long flushIntervalMs) {
+        if (flushIntervalMs < 0) {
+            throw new IllegalArgumentException("flushIntervalMs cannot be negative");
+        }
+        mFlushIntervalMs = flushIntervalMs;
+    }
+
+    /**
+     * Returns the number of volume changes requested locally.
+     */
+    public long getChangeCount() {
+        return mChangeCount;
+    }
+
+    /**
+     * Returns the number of levels sent to the device.
+     */
+    public long getSentCount() {
+        return mSentCount;
+    }
+
+    /**
+     * Returns the number of times the local level was corrected from the device.
+     */
+    public long getCorrectionCount() {
+        return mCorrectionCount;
+    }
+
+    private void setLevel(double level) {
+        mLevel = clamp(level);
+        mDirty = true;
+        if (mFlushScheduled) {
+            return;
+        }
+        long elapsed = SystemClock.elapsedRealtime() - mLastSendTime;
+        if (elapsed >= mFlushIntervalMs) {
+            flush();
+        } else {
+            mFlushScheduled = true;
+            mHandler.postDelayed(mFlushRunnable, mFlushIntervalMs - elapsed);
+        }
+    }
+
+    private void flush() {
+        if (!mDirty || mLevel == UNKNOWN) {
+            return;
+        }
+        mDirty = false;
+        mLastSendTime = SystemClock.elapsedRealtime();
+        mSentCount++;
+        mSender.sendVolume(mLevel);
+    }
+
+    private static float clamp(double level) {
+        return (float) Math.max(0, Math.min(1, level));
+    }
+}
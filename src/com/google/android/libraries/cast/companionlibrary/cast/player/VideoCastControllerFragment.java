@@ -28,15 +28,17 @@ import static com.google.android.libraries.cast.companionlibrary.utils.LogUtils.
 import com.connectsdk.core.MediaInfo;
 import com.connectsdk.core.MediaInfoWithCustomData;
 import com.connectsdk.service.capability.MediaControl;
-import com.connectsdk.service.command.ServiceCommandError;
 import com.connectsdk.service.sessions.WebAppSession;
 import com.google.android.libraries.cast.companionlibrary.R;
 import com.google.android.libraries.cast.companionlibrary.cast.MediaQueue;
+import com.google.android.libraries.cast.companionlibrary.cast.ProgressTicker;
 import com.google.android.libraries.cast.companionlibrary.cast.VideoCastManager;
 import com.google.android.libraries.cast.companionlibrary.cast.callbacks.VideoCastConsumerImpl;
 import com.google.android.libraries.cast.companionlibrary.cast.exceptions.CastException;
 import com.google.android.libraries.cast.companionlibrary.cast.exceptions.NoConnectionException;
 import com.google.android.libraries.cast.companionlibrary.cast.exceptions.TransientNetworkDisconnectionException;
+import com.google.android.libraries.cast.companionlibrary.utils.ArtworkCache;
+import com.google.android.libraries.cast.companionlibrary.utils.ArtworkSpec;
 import com.google.android.libraries.cast.companionlibrary.utils.FetchBitmapTask;
 import com.google.android.libraries.cast.companionlibrary.utils.LogUtils;
 import com.google.android.libraries.cast.companionlibrary.utils.Utils;
@@ -91,7 +93,6 @@ public class VideoCastControllerFragment extends Fragment implements
     protected boolean mAuthSuccess = true;
     private VideoCastController mCastController;
     private FetchBitmapTask mImageAsyncTask;
-    private Timer mSeekbarTimer;
     private int mPlaybackState;
     private MyCastConsumer mCastConsumer;
     private OverallState mOverallState = OverallState.UNKNOWN;
@@ -299,70 +300,26 @@ public class VideoCastControllerFragment extends Fragment implements
 
     }
 
-    private class UpdateSeekbarTask extends TimerTask {
-
-        @Override
-        public void run() {
-            mHandler.post(new Runnable() {
-
+    /*
+     * Receives progress from the shared ticker of VideoCastManager, on a worker thread.
+     */
+    private final ProgressTicker.OnProgressListener mSeekbarProgressListener =
+            new ProgressTicker.OnProgressListener() {
                 @Override
-                public void run() {
-                    int currentPos;
-                    if (mPlaybackState == MediaControl.PLAYER_STATE_BUFFERING || mPlaybackState == MediaControl.PLAYER_STATE_IDLE) {
-                        return;
-                    }
-                    if (!mCastManager.isConnected()) {
-                        return;
-                    }
-                    try {
-//                        int duration = (int) mCastManager.getMediaDuration();
-//                        if (duration > 0) {
-//                            try {
-//                                currentPos = (int) mCastManager.getCurrentMediaPosition();
-//                                mCastController.updateSeekbar(currentPos, duration);
-//                            } catch (Exception e) {
-//                                LOGE(TAG, "Failed to get current media position", e);
-//                            }
-//                        }
+                public void onProgressUpdated(final int position, final int duration) {
+                    mHandler.post(new Runnable() {
 
-                        mCastManager.getMediaDuration(new MediaControl.DurationListener() {
-                            @Override
-                            public void onSuccess(Long duration) {
-                                final int mediaDuration = duration.intValue();
-                                if (mediaDuration > 0) {
-                                    try {
-                                        mCastManager.getCurrentMediaPosition(new MediaControl.PositionListener() {
-                                            @Override
-                                            public void onSuccess(Long position) {
-                                                final int currentPos = position.intValue();
-                                                mCastController.updateSeekbar(currentPos, mediaDuration);
-                                            }
-
-                                            @Override
-                                            public void onError(ServiceCommandError serviceCommandError) {
-                                                LOGE(TAG, "Failed to get current media position", serviceCommandError);
-                                            }
-                                        });
-                                    } catch (TransientNetworkDisconnectionException | NoConnectionException e) {
-                                        LOGE(TAG, "Failed to get current media position", e);
-                                    }
-                                }
-                            }
-
-                            @Override
-                            public void onError(ServiceCommandError serviceCommandError) {
-                                LOGE(TAG, "Failed to get current media position", serviceCommandError);
+                        @Override
+                        public void run() {
+                            if (mPlaybackState == MediaControl.PLAYER_STATE_BUFFERING
+                                    || mPlaybackState == MediaControl.PLAYER_STATE_IDLE) {
+                                return;
                             }
-                        });
-
-                    } catch (TransientNetworkDisconnectionException | NoConnectionException e) {
-                        LOGE(TAG, "Failed to update the progress bar due to network issues", e);
-                    }
-
+                            mCastController.updateSeekbar(position, duration);
+                        }
+                    });
                 }
-            });
-        }
-    }
+            };
 
     /**
      * Loads the media on the cast device.
@@ -445,15 +402,11 @@ public class VideoCastControllerFragment extends Fragment implements
 
     private void stopTrickplayTimer() {
         LOGD(TAG, "Stopped TrickPlay Timer");
-        if (mSeekbarTimer != null) {
-            mSeekbarTimer.cancel();
-        }
+        mCastManager.getProgressTicker().unsubscribe(mSeekbarProgressListener);
     }
 
     private void restartTrickplayTimer() {
-        stopTrickplayTimer();
-        mSeekbarTimer = new Timer();
-        mSeekbarTimer.scheduleAtFixedRate(new UpdateSeekbarTask(), 100, 1000);
+        mCastManager.getProgressTicker().subscribe(mSeekbarProgressListener);
         LOGD(TAG, "Restarted TrickPlay Timer");
     }
 
@@ -650,6 +603,7 @@ public class VideoCastControllerFragment extends Fragment implements
         }
         if (uri == null) {
             mCastController.setImage(BitmapFactory.decodeResource(getActivity().getResources(), R.drawable.album_art_placeholder_large));
+            releaseImage();
             return;
         }
         if (mUrlAndBitmap != null && mUrlAndBitmap.isMatch(uri)) {
@@ -657,11 +611,16 @@ public class VideoCastControllerFragment extends Fragment implements
             mCastController.setImage(mUrlAndBitmap.mBitmap);
             return;
         }
-        mUrlAndBitmap = null;
-        mImageAsyncTask = new FetchBitmapTask() {
+        // same as the lock screen, so that both share the decoded image
+        ArtworkSpec spec = ArtworkSpec.forLockScreen(getActivity());
+        mImageAsyncTask = new FetchBitmapTask(spec.getWidth(), spec.getHeight(),
+                spec.getFlags()) {
             @Override
             protected void onPostExecute(Bitmap bitmap) {
                 if (bitmap != null) {
+                    // the previous image stays on screen until this one replaces it
+                    ArtworkCache.getInstance().retain(bitmap);
+                    releaseImage();
                     mUrlAndBitmap = new UrlAndBitmap();
                     mUrlAndBitmap.mBitmap = bitmap;
                     mUrlAndBitmap.mUrl = uri;
@@ -677,6 +636,16 @@ public class VideoCastControllerFragment extends Fragment implements
         mImageAsyncTask.execute(uri);
     }
 
+    /*
+     * Lets go of the image that is currently displayed, so that its memory can be reused.
+     */
+    private void releaseImage() {
+        if (mUrlAndBitmap != null) {
+            ArtworkCache.getInstance().release(mUrlAndBitmap.mBitmap);
+            mUrlAndBitmap = null;
+        }
+    }
+
     /**
      * A modal dialog with an OK button, where upon clicking on it, will finish the activity. We
      * use a DialogFragment so during configuration changes, system manages the dialog for us.
@@ -917,9 +886,7 @@ public class VideoCastControllerFragment extends Fragment implements
         if (mHandler != null) {
             mHandler.removeCallbacksAndMessages(null);
         }
-        if (mUrlAndBitmap != null) {
-            mUrlAndBitmap.mBitmap = null;
-        }
+        releaseImage();
         if (!sDialogCanceled && mMediaAuthService != null) {
             mMediaAuthService.abortAuthorization(MediaAuthStatus.CANCELED_BY_USER);
         }
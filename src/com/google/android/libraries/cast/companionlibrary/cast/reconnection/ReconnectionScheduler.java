@@ -0,0 +1,285 @@
+/*
+ * Copyright (C) 2015 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.android.libraries.cast.companionlibrary.cast.reconnection;
+
+import static com.google.android.libraries.cast.companionlibrary.utils.LogUtils.LOGD;
+
+import com.google.android.libraries.cast.companionlibrary.utils.LatencyHistogram;
+import com.google.android.libraries.cast.companionlibrary.utils.LogUtils;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Retries the recovery of an interrupted session with capped exponential backoff. Attempts are
+ * spaced by a delay that doubles after each failure, up to {@link #DEFAULT_MAX_DELAY_MS}, half of
+ * which is randomized so that many senders coming back on the same network do not retry in
+ * lockstep. A run gives up after {@link #DEFAULT_MAX_ATTEMPTS} attempts, and can be cancelled, for
+ * example when the user picks a route. Starting a run while one is going on does not restart it,
+ * so a flapping Wi-Fi connection does not trigger a reconnection each time it comes back.
+ * <p>
+ * The device side is abstracted by {@link Target}, so that the scheduler can be driven by a
+ * simulated device. Must be used on the main thread.
+ */
+public class ReconnectionScheduler {
+
+    private static final String TAG = LogUtils.makeLogTag(ReconnectionScheduler.class);
+
+    public static final long DEFAULT_INITIAL_DELAY_MS = TimeUnit.SECONDS.toMillis(1);
+    public static final long DEFAULT_MAX_DELAY_MS = TimeUnit.SECONDS.toMillis(30);
+    public static final int DEFAULT_MAX_ATTEMPTS = 8;
+    public static final int DEFAULT_ATTEMPT_WINDOW_S = 15;
+
+    /**
+     * The device to reconnect to.
+     */
+    public interface Target {
+
+        boolean isConnected();
+
+        /**
+         * Starts one reconnection attempt that lasts at most {@code windowSeconds}, and reports
+         * its outcome through {@link ReconnectionScheduler#onAttemptFinished(boolean)}.
+         *
+         * @return {@code false} if there is no session to recover, in which case the run stops.
+         */
+        boolean attemptReconnection(String ssid, int windowSeconds);
+
+        /**
+         * Called when a run ends without reconnecting, once it is no longer running, so that what
+         * was kept between attempts can be torn down.
+         *
+         * @param cancelled {@code true} if the run was cancelled, {@code false} if it used up its
+         * attempts.
+         */
+        void onReconnectionAbandoned(boolean cancelled);
+    }
+
+    private final Target mTarget;
+    private final Random mRandom;
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+    private long mInitialDelayMs = DEFAULT_INITIAL_DELAY_MS;
+    private long mMaxDelayMs = DEFAULT_MAX_DELAY_MS;
+    private int mMaxAttempts = DEFAULT_MAX_ATTEMPTS;
+    private int mAttemptWindowS = DEFAULT_ATTEMPT_WINDOW_S;
+
+    private boolean mRunning;
+    private boolean mAttemptInFlight;
+    private String mSsid;
+    private int mAttemptsInRun;
+    private long mRunStartedAt;
+
+    private long mAttemptCount;
+    private long mSuccessCount;
+    private long mExhaustedCount;
+    private long mCancelledCount;
+    private final LatencyHistogram mTimeToSuccess = new LatencyHistogram("time-to-reconnect");
+
+    private final Runnable mAttemptRunnable = new Runnable() {
+        @Override
+        public void run() {
+            attempt();
+        }
+    };
+
+    public ReconnectionScheduler(Target target) {
+        this(target, new Random());
+    }
+
+    /**
+     * @param random The source of the jitter, e.g. seeded for a reproducible simulation.
+     */
+    public ReconnectionScheduler(Target target, Random random) {
+        mTarget = target;
+        mRandom = random;
+    }
+
+    /**
+     * Starts reconnecting, the first attempt being made right away. Does nothing if a run is
+     * already going on, other than remembering {@code ssid} for its next attempts.
+     *
+     * @param ssid The Wi-Fi network the session has to have been started on, or {@code null}.
+     */
+    public void start(String ssid) {
+        mSsid = ssid;
+        if (mRunning) {
+            LOGD(TAG, "start(): a run is already going on, attempt " + mAttemptsInRun);
+            return;
+        }
+        if (mTarget.isConnected()) {
+            return;
+        }
+        mRunning = true;
+        mAttemptsInRun = 0;
+        mRunStartedAt = SystemClock.elapsedRealtime();
+        attempt();
+    }
+
+    /**
+     * Stops the current run, if any, and lets the {@link Target} abandon the attempt in progress.
+     */
+    public void cancel() {
+        if (!mRunning) {
+            return;
+        }
+        LOGD(TAG, "cancel(): giving up after " + mAttemptsInRun + " attempts");
+        mCancelledCount++;
+        stop();
+        mTarget.onReconnectionAbandoned(true);
+    }
+
+    /**
+     * Reports the outcome of the attempt started by {@link Target#attemptReconnection}.
+     */
+    public void onAttemptFinished(boolean recovered) {
+        if (!mAttemptInFlight) {
+            return;
+        }
+        mAttemptInFlight = false;
+        if (recovered || mTarget.isConnected()) {
+            long elapsed = SystemClock.elapsedRealtime() - mRunStartedAt;
+            mSuccessCount++;
+            mTimeToSuccess.record(elapsed);
+            LOGD(TAG, "Reconnected after " + mAttemptsInRun + " attempts and " + elapsed + "ms");
+            stop();
+        } else if (mAttemptsInRun >= mMaxAttempts) {
+            LOGD(TAG, "Giving up after " + mAttemptsInRun + " attempts");
+            mExhaustedCount++;
+            stop();
+            mTarget.onReconnectionAbandoned(false);
+        } else {
+            long delay = getDelayMs(mAttemptsInRun);
+            LOGD(TAG, "Attempt " + mAttemptsInRun + " failed, retrying in " + delay + "ms");
+            mHandler.postDelayed(mAttemptRunnable, delay);
+        }
+    }
+
+    public boolean isRunning() {
+        return mRunning;
+    }
+
+    /**
+     * Sets the delay before the second attempt and the cap of the delay between two attempts,
+     * both in milliseconds.
+     */
+    public void setBackoff(long initialDelayMs, long maxDelayMs) {
+        if (initialDelayMs <= 0 || maxDelayMs < initialDelayMs) {
+            throw new IllegalArgumentException(
+                    "initialDelayMs should be positive and at most maxDelayMs");
+        }
+        mInitialDelayMs = initialDelayMs;
+        mMaxDelayMs = maxDelayMs;
+    }
+
+    /**
+     * Sets the number of attempts of a run before it gives up.
+     */
+    public void setMaxAttempts(int maxAttempts) {
+        if (maxAttempts < 1) {
+            throw new IllegalArgumentException("maxAttempts should be at least 1");
+        }
+        mMaxAttempts = maxAttempts;
+    }
+
+    /**
+     * Sets how long, in seconds, each attempt waits for the device.
+     */
+    public void setAttemptWindow(int attemptWindowS) {
+        if (attemptWindowS < 1) {
+            throw new IllegalArgumentException("attemptWindowS should be at least 1");
+        }
+        mAttemptWindowS = attemptWindowS;
+    }
+
+    /**
+     * Returns the number of attempts made, over all runs.
+     */
+    public long getAttemptCount() {
+        return mAttemptCount;
+    }
+
+    /**
+     * Returns the number of runs that reconnected.
+     */
+    public long getSuccessCount() {
+        return mSuccessCount;
+    }
+
+    /**
+     * Returns the number of runs that used up their attempts without reconnecting.
+     */
+    public long getExhaustedCount() {
+        return mExhaustedCount;
+    }
+
+    public long getCancelledCount() {
+        return mCancelledCount;
+    }
+
+    /**
+     * Returns the distribution of the time between the start of a run and the reconnection.
+     */
+    public LatencyHistogram getTimeToSuccess() {
+        return mTimeToSuccess;
+    }
+
+    @Override
+    public String toString() {
+        return "ReconnectionScheduler{running=" + mRunning + ", attempts=" + mAttemptCount
+                + ", successes=" + mSuccessCount + ", exhausted=" + mExhaustedCount
+                + ", cancelled=" + mCancelledCount + ", " + mTimeToSuccess + "}";
+    }
+
+    private void attempt() {
+        if (mTarget.isConnected()) {
+            mAttemptInFlight = true;
+            onAttemptFinished(true);
+            return;
+        }
+        mAttemptsInRun++;
+        mAttemptCount++;
+        mAttemptInFlight = true;
+        LOGD(TAG, "Reconnection attempt " + mAttemptsInRun + "/" + mMaxAttempts);
+        if (!mTarget.attemptReconnection(mSsid, mAttemptWindowS) && mAttemptInFlight) {
+            LOGD(TAG, "Nothing to reconnect to, stopping");
+            stop();
+        }
+    }
+
+    /*
+     * Returns the delay before the attempt that follows the given number of failed attempts: the
+     * capped exponential delay, of which the upper half is random.
+     */
+    private long getDelayMs(int failedAttempts) {
+        long delay = mMaxDelayMs;
+        if (failedAttempts - 1 < 31) {
+            delay = Math.min(mMaxDelayMs, mInitialDelayMs << (failedAttempts - 1));
+        }
+        long half = delay / 2;
+        return half + (long) (mRandom.nextDouble() * (delay - half));
+    }
+
+    private void stop() {
+        mHandler.removeCallbacks(mAttemptRunnable);
+        mRunning = false;
+        mAttemptInFlight = false;
+    }
+}
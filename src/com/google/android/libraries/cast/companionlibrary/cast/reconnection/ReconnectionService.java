@@ -55,7 +55,6 @@ public class ReconnectionService extends Service {
     private static final String TAG = LogUtils.makeLogTag(ReconnectionService.class);
     // the tolerance for considering a time value (in millis) to be zero
     private static final long EPSILON_MS = 500;
-    private static final int RECONNECTION_ATTEMPT_PERIOD_S = 15;
     private BroadcastReceiver mScreenOnOffBroadcastReceiver;
     private VideoCastManager mCastManager;
     private BroadcastReceiver mWifiBroadcastReceiver;
@@ -118,14 +117,15 @@ public class ReconnectionService extends Service {
     /**
      * Since framework calls this method twice when a change happens, we are guarding against that
      * by caching the state the first time and avoiding the second call if it is the same status.
+     * Reconnection is left to the {@link ReconnectionScheduler} of the cast manager, which keeps a
+     * single run going however many times the network comes back.
      */
     public void onWifiConnectivityChanged(boolean connected, final String networkSsid) {
         LOGD(TAG, "WIFI connectivity changed to " + (connected ? "enabled" : "disabled"));
         if (connected && !mWifiConnectivity) {
             mWifiConnectivity = true;
             if (mCastManager.isFeatureEnabled(BaseCastManager.FEATURE_WIFI_RECONNECT)) {
-                mCastManager.startCastDiscovery();
-                mCastManager.reconnectSessionIfPossible(RECONNECTION_ATTEMPT_PERIOD_S, networkSsid);
+                mCastManager.getReconnectionScheduler().start(networkSsid);
             }
 
         } else {
@@ -148,6 +148,7 @@ public class ReconnectionService extends Service {
         }
 
         clearEndTimer();
+        mCastManager.getReconnectionScheduler().cancel();
         super.onDestroy();
     }
 
@@ -189,8 +190,7 @@ public class ReconnectionService extends Service {
     }
 
     private long getMediaRemainingTime() {
-        long endTime = mCastManager.getPreferenceAccessor().getLongFromPreference(
-                BaseCastManager.PREFS_KEY_MEDIA_END, 0);
+        long endTime = mCastManager.getSessionRecord().getMediaEnd(0);
         return endTime - SystemClock.elapsedRealtime();
     }
 
@@ -216,8 +216,7 @@ public class ReconnectionService extends Service {
                                 stopSelf();
                             } else {
                                 // lets reset the counter
-                                mCastManager.getPreferenceAccessor().saveLongToPreference(
-                                        BaseCastManager.PREFS_KEY_MEDIA_END,
+                                mCastManager.getSessionRecord().setMediaEnd(
                                         time + SystemClock.elapsedRealtime());
                                 LOGD(TAG, "handleTermination(): resetting the timer");
                                 setUpEndTimer();
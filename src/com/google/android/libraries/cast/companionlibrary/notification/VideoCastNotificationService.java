@@ -32,6 +32,8 @@ import com.google.android.libraries.cast.companionlibrary.cast.exceptions.CastEx
 import com.google.android.libraries.cast.companionlibrary.cast.exceptions.NoConnectionException;
 import com.google.android.libraries.cast.companionlibrary.cast.exceptions.TransientNetworkDisconnectionException;
 import com.google.android.libraries.cast.companionlibrary.cast.player.VideoCastControllerActivity;
+import com.google.android.libraries.cast.companionlibrary.utils.ArtworkCache;
+import com.google.android.libraries.cast.companionlibrary.utils.ArtworkSpec;
 import com.google.android.libraries.cast.companionlibrary.utils.FetchBitmapTask;
 import com.google.android.libraries.cast.companionlibrary.utils.LogUtils;
 import com.google.android.libraries.cast.companionlibrary.utils.Utils;
@@ -68,6 +70,7 @@ public class VideoCastNotificationService extends Service {
     public static final String NOTIFICATION_VISIBILITY = "visible";
 
     private Bitmap mVideoArtBitmap;
+    private ArtworkSpec mArtworkSpec;
     private boolean mIsPlaying;
     private Class<?> mTargetActivity;
     private int mOldStatus = -1;
@@ -81,8 +84,8 @@ public class VideoCastNotificationService extends Service {
     @Override
     public void onCreate() {
         super.onCreate();
-        mDimensionInPixels = Utils.convertDpToPixel(VideoCastNotificationService.this,
-                getResources().getDimension(R.dimen.ccl_notification_image_size));
+        mArtworkSpec = ArtworkSpec.forNotification(this);
+        mDimensionInPixels = mArtworkSpec.getWidth();
         mCastManager = VideoCastManager.getInstance();
         readPersistedData();
         if (!mCastManager.isConnected() && !mCastManager.isConnecting()) {
@@ -174,9 +177,11 @@ public class VideoCastNotificationService extends Service {
         } catch (CastException e) {
             LOGE(TAG, "Failed to build notification", e);
         }
-        mBitmapDecoderTask = new FetchBitmapTask() {
+        mBitmapDecoderTask = new FetchBitmapTask(mArtworkSpec.getWidth(),
+                mArtworkSpec.getHeight(), mArtworkSpec.getFlags()) {
             @Override
             protected void onPostExecute(Bitmap bitmap) {
+                Bitmap previous = mVideoArtBitmap;
                 try {
                     mVideoArtBitmap = Utils.scaleAndCenterCropBitmap(bitmap, mDimensionInPixels,
                             mDimensionInPixels);
@@ -188,6 +193,10 @@ public class VideoCastNotificationService extends Service {
                 if (mVisible && (mNotification != null)) {
                     startForeground(NOTIFICATION_ID, mNotification);
                 }
+                if (previous != null && previous != mVideoArtBitmap) {
+                    // the notification no longer references our copy of the old artwork
+                    ArtworkCache.getInstance().getBitmapPool().put(previous);
+                }
                 if (this == mBitmapDecoderTask) {
                     mBitmapDecoderTask = null;
                 }
@@ -256,6 +265,10 @@ public class VideoCastNotificationService extends Service {
             mBitmapDecoderTask.cancel(false);
         }
         removeNotification();
+        if (mVideoArtBitmap != null) {
+            ArtworkCache.getInstance().getBitmapPool().put(mVideoArtBitmap);
+            mVideoArtBitmap = null;
+        }
         if (mCastManager != null && mConsumer != null) {
             mCastManager.removeVideoCastConsumer(mConsumer);
             mCastManager = null;
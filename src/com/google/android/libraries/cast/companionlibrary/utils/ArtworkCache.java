@@ -0,0 +1,693 @@
+/*
+ * Copyright (C) 2015 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.android.libraries.cast.companionlibrary.utils;
+
+import static com.google.android.libraries.cast.companionlibrary.utils.LogUtils.LOGD;
+import static com.google.android.libraries.cast.companionlibrary.utils.LogUtils.LOGE;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.util.LruCache;
+
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A two-tier cache for artwork, shared by everything that goes through {@link FetchBitmapTask}.
+ * <ul>
+ * <li>The memory tier is an LRU of decoded bitmaps, bounded by their size in bytes and keyed by
+ * URL and target size, so the same poster decoded for a notification and for the lock screen are
+ * two separate entries.</li>
+ * <li>The disk tier keeps the encoded bytes, keyed by URL only, so that any target size can be
+ * decoded from it without going to the network. It is bounded in size and evicts the least
+ * recently used files first. Each entry also keeps the HTTP validators (ETag, Last-Modified) and
+ * the expiry time it was served with, so that it can be used without any request while fresh and
+ * revalidated with a conditional request afterwards.</li>
+ * </ul>
+ * The disk tier is only available after {@link #initialize(Context)} has been called; before that,
+ * the cache is memory only.
+ * <p>
+ * Bitmaps evicted from the memory tier go to a {@link BitmapPool} so that their memory can be
+ * reused by later decodes. Since a bitmap can still be on screen when it is evicted, only bitmaps
+ * that were marked with {@link #retain(Bitmap)} while displayed, and that have since been
+ * {@link #release(Bitmap)}d, are ever pooled; others are left to the garbage collector.
+ */
+public class ArtworkCache {
+
+    private static final String TAG = LogUtils.makeLogTag(ArtworkCache.class);
+    private static final String DISK_CACHE_DIR = "ccl-artwork";
+    private static final long DEFAULT_DISK_CACHE_SIZE_BYTES = 10 * 1024 * 1024;
+    private static final int MAX_MEMORY_CACHE_SIZE_BYTES = 16 * 1024 * 1024;
+    // when the disk tier goes over its budget, it is trimmed down to this fraction of it
+    private static final float DISK_TRIM_RATIO = 0.9f;
+    private static final int MAX_BITMAP_POOL_SIZE_BYTES = 4 * 1024 * 1024;
+    private static final String METADATA_SUFFIX = ".meta";
+    private static final int METADATA_VERSION = 1;
+    // number of URLs whose expiry time is remembered in memory
+    private static final int MAX_EXPIRIES = 256;
+
+    private static ArtworkCache sInstance;
+
+    private final LruCache<String, Bitmap> mMemoryCache;
+    private final BitmapPool mBitmapPool;
+    // all guarded by mRetainCounts; a bitmap that was retained at least once stays in
+    // mRetainCounts, with a count of 0 once it is no longer displayed, so that it can be pooled
+    // when evicted. Pins are short-lived holds taken while a bitmap is being handed out.
+    private final Map<Bitmap, Integer> mRetainCounts = new IdentityHashMap<>();
+    private final Map<Bitmap, Integer> mPinCounts = new IdentityHashMap<>();
+    private final Set<Bitmap> mCached =
+            Collections.newSetFromMap(new IdentityHashMap<Bitmap, Boolean>());
+    // expiry times by URL, for the entries of both tiers
+    private final LruCache<String, Long> mExpiries = new LruCache<>(MAX_EXPIRIES);
+    private final Object mDiskLock = new Object();
+    private File mDiskCacheDir;
+    private long mDiskCacheMaxBytes = DEFAULT_DISK_CACHE_SIZE_BYTES;
+    private long mDiskCacheSize = -1;
+
+    private final AtomicLong mMemoryHits = new AtomicLong();
+    private final AtomicLong mMemoryMisses = new AtomicLong();
+    private final AtomicLong mDiskHits = new AtomicLong();
+    private final AtomicLong mDiskMisses = new AtomicLong();
+
+    private ArtworkCache(int memoryCacheBytes, int bitmapPoolBytes) {
+        mBitmapPool = new BitmapPool(bitmapPoolBytes);
+        mMemoryCache = new LruCache<String, Bitmap>(memoryCacheBytes) {
+            @Override
+            protected int sizeOf(String key, Bitmap bitmap) {
+                return bitmap.getByteCount();
+            }
+
+            @Override
+            protected void entryRemoved(boolean evicted, String key, Bitmap oldValue,
+                    Bitmap newValue) {
+                if (oldValue != newValue) {
+                    onBitmapRemoved(oldValue);
+                }
+            }
+        };
+    }
+
+    /**
+     * Enables the disk tier, under the cache directory of the application. Calling this more than
+     * once has no effect.
+     */
+    public static synchronized ArtworkCache initialize(Context context) {
+        ArtworkCache cache = getInstance();
+        synchronized (cache.mDiskLock) {
+            if (cache.mDiskCacheDir == null) {
+                cache.mDiskCacheDir = new File(context.getApplicationContext().getCacheDir(),
+                        DISK_CACHE_DIR);
+            }
+        }
+        return cache;
+    }
+
+    /**
+     * Returns the shared instance of this cache.
+     */
+    public static synchronized ArtworkCache getInstance() {
+        if (sInstance == null) {
+            long maxMemory = Runtime.getRuntime().maxMemory();
+            int memoryBytes = (int) Math.min(maxMemory / 8, MAX_MEMORY_CACHE_SIZE_BYTES);
+            int poolBytes = (int) Math.min(maxMemory / 32, MAX_BITMAP_POOL_SIZE_BYTES);
+            sInstance = new ArtworkCache(memoryBytes, poolBytes);
+        }
+        return sInstance;
+    }
+
+    /**
+     * Builds the key of the memory tier for a given URL, target size and decoding flags (see
+     * {@code FetchBitmapTask.FLAG_*}).
+     */
+    public static String makeKey(String url, int width, int height, int flags) {
+        return url + "#" + width + "x" + height + (flags == 0 ? "" : "/" + flags);
+    }
+
+    /**
+     * Returns the decoded bitmap for the given key (see {@link #makeKey(String, int, int, int)}),
+     * or {@code null} if it is not in memory.
+     */
+    public Bitmap getBitmap(String key) {
+        Bitmap bitmap = mMemoryCache.get(key);
+        (bitmap == null ? mMemoryMisses : mMemoryHits).incrementAndGet();
+        return bitmap;
+    }
+
+    /*
+     * Same as getBitmap(String) but also pins the bitmap, atomically with respect to evictions, so
+     * that it cannot be pooled before the caller is done handing it out. Must be balanced by
+     * unpin(Bitmap).
+     */
+    Bitmap acquireBitmap(String key) {
+        synchronized (mRetainCounts) {
+            Bitmap bitmap = getBitmap(key);
+            pin(bitmap);
+            return bitmap;
+        }
+    }
+
+    void pin(Bitmap bitmap) {
+        if (bitmap == null) {
+            return;
+        }
+        synchronized (mRetainCounts) {
+            Integer count = mPinCounts.get(bitmap);
+            mPinCounts.put(bitmap, count == null ? 1 : count + 1);
+        }
+    }
+
+    void unpin(Bitmap bitmap) {
+        if (bitmap == null) {
+            return;
+        }
+        synchronized (mRetainCounts) {
+            Integer count = mPinCounts.get(bitmap);
+            if (count == null) {
+                return;
+            }
+            if (count > 1) {
+                mPinCounts.put(bitmap, count - 1);
+            } else {
+                mPinCounts.remove(bitmap);
+                poolIfUnused(bitmap);
+            }
+        }
+    }
+
+    public void putBitmap(String key, Bitmap bitmap) {
+        if (key == null || bitmap == null) {
+            return;
+        }
+        synchronized (mRetainCounts) {
+            mCached.add(bitmap);
+        }
+        mMemoryCache.put(key, bitmap);
+    }
+
+    /**
+     * Marks a bitmap obtained from this cache (directly or through {@link FetchBitmapTask}) as
+     * displayed, so that it is not reused while on screen. Each call must be balanced by a call to
+     * {@link #release(Bitmap)} once the bitmap is no longer displayed.
+     */
+    public void retain(Bitmap bitmap) {
+        if (bitmap == null) {
+            return;
+        }
+        synchronized (mRetainCounts) {
+            Integer count = mRetainCounts.get(bitmap);
+            if (count == null && !mCached.contains(bitmap) && !mPinCounts.containsKey(bitmap)) {
+                // not ours, e.g. a placeholder
+                return;
+            }
+            mRetainCounts.put(bitmap, count == null ? 1 : count + 1);
+        }
+    }
+
+    /**
+     * Balances a call to {@link #retain(Bitmap)}. If the bitmap is no longer displayed anywhere and
+     * has already been evicted from the memory tier, it goes to the bitmap pool; the caller must not
+     * use it after this call.
+     */
+    public void release(Bitmap bitmap) {
+        if (bitmap == null) {
+            return;
+        }
+        synchronized (mRetainCounts) {
+            Integer count = mRetainCounts.get(bitmap);
+            if (count == null || count == 0) {
+                return;
+            }
+            mRetainCounts.put(bitmap, count - 1);
+            poolIfUnused(bitmap);
+        }
+    }
+
+    /**
+     * Returns the pool that bitmaps evicted from the memory tier go to.
+     */
+    public BitmapPool getBitmapPool() {
+        return mBitmapPool;
+    }
+
+    /**
+     * Returns the encoded image for the given URL from the disk tier, or {@code null} if it is not
+     * there. This does I/O, so it should not be called on the main thread.
+     */
+    public byte[] getEncoded(String url) {
+        DiskEntry entry = getDiskEntry(url);
+        return entry == null ? null : entry.getData();
+    }
+
+    /**
+     * Returns the entry for the given URL from the disk tier, along with its validators and expiry
+     * time, or {@code null} if it is not there. This does I/O, so it should not be called on the
+     * main thread.
+     */
+    public DiskEntry getDiskEntry(String url) {
+        synchronized (mDiskLock) {
+            File file = getDiskFile(url);
+            if (file == null || !file.isFile()) {
+                mDiskMisses.incrementAndGet();
+                return null;
+            }
+            byte[] data;
+            try {
+                data = readFully(file);
+            } catch (IOException e) {
+                LOGE(TAG, "Failed to read " + file, e);
+                file.delete();
+                getMetadataFile(file).delete();
+                mDiskMisses.incrementAndGet();
+                return null;
+            }
+            // keeps the eviction order close to LRU
+            file.setLastModified(System.currentTimeMillis());
+            mDiskHits.incrementAndGet();
+            DiskEntry entry = readMetadata(getMetadataFile(file), data);
+            mExpiries.put(url, entry.getExpiresAt());
+            return entry;
+        }
+    }
+
+    /**
+     * Stores the encoded image for the given URL in the disk tier, evicting older entries if
+     * needed. The entry has no validators and is considered stale right away. This does I/O, so it
+     * should not be called on the main thread.
+     */
+    public void putEncoded(String url, byte[] data) {
+        putEncoded(url, data, null, null, 0);
+    }
+
+    /**
+     * Stores the encoded image for the given URL in the disk tier, evicting older entries if
+     * needed. This does I/O, so it should not be called on the main thread.
+     *
+     * @param eTag The value of the ETag response header, or {@code null}.
+     * @param lastModified The value of the Last-Modified response header, or {@code null}.
+     * @param expiresAt The time, in milliseconds since the epoch, until which the entry can be used
+     * without revalidation.
+     */
+    public void putEncoded(String url, byte[] data, String eTag, String lastModified,
+            long expiresAt) {
+        if (url == null || data == null) {
+            return;
+        }
+        mExpiries.put(url, expiresAt);
+        if (data.length > mDiskCacheMaxBytes) {
+            return;
+        }
+        synchronized (mDiskLock) {
+            File file = getDiskFile(url);
+            if (file == null) {
+                return;
+            }
+            if (!mDiskCacheDir.isDirectory() && !mDiskCacheDir.mkdirs()) {
+                LOGE(TAG, "Failed to create " + mDiskCacheDir);
+                return;
+            }
+            ensureDiskCacheSize();
+            if (file.isFile()) {
+                mDiskCacheSize -= file.length();
+            }
+            OutputStream out = null;
+            try {
+                out = new FileOutputStream(file);
+                out.write(data);
+                mDiskCacheSize += data.length;
+            } catch (IOException e) {
+                LOGE(TAG, "Failed to write " + file, e);
+                file.delete();
+            } finally {
+                closeQuietly(out);
+            }
+            if (file.isFile()) {
+                writeMetadata(getMetadataFile(file), eTag, lastModified, expiresAt);
+            }
+            if (mDiskCacheSize > mDiskCacheMaxBytes) {
+                trimDiskCache((long) (mDiskCacheMaxBytes * DISK_TRIM_RATIO));
+            }
+        }
+    }
+
+    /**
+     * Records that the entry for the given URL was revalidated by the server (a 304 response), with
+     * new validators if the response carried any. This does I/O, so it should not be called on the
+     * main thread.
+     */
+    public void refreshEncoded(String url, String eTag, String lastModified, long expiresAt) {
+        if (url == null) {
+            return;
+        }
+        mExpiries.put(url, expiresAt);
+        synchronized (mDiskLock) {
+            File file = getDiskFile(url);
+            if (file == null || !file.isFile()) {
+                return;
+            }
+            ensureDiskCacheSize();
+            File metadataFile = getMetadataFile(file);
+            DiskEntry previous = readMetadata(metadataFile, null);
+            writeMetadata(metadataFile, eTag != null ? eTag : previous.getETag(),
+                    lastModified != null ? lastModified : previous.getLastModified(), expiresAt);
+        }
+    }
+
+    /**
+     * Returns {@code false} if the image at the given URL is known to be past its expiry time, in
+     * which case it should be revalidated before being used again. Images whose expiry time is not
+     * known are considered fresh.
+     */
+    public boolean isFresh(String url) {
+        Long expiresAt = url == null ? null : mExpiries.get(url);
+        return expiresAt == null || System.currentTimeMillis() < expiresAt;
+    }
+
+    /**
+     * Sets the maximum size of the disk tier, in bytes.
+     */
+    public void setDiskCacheMaxBytes(long maxBytes) {
+        synchronized (mDiskLock) {
+            mDiskCacheMaxBytes = maxBytes;
+            if (mDiskCacheDir != null) {
+                ensureDiskCacheSize();
+                if (mDiskCacheSize > mDiskCacheMaxBytes) {
+                    trimDiskCache(mDiskCacheMaxBytes);
+                }
+            }
+        }
+    }
+
+    /**
+     * Empties the memory tier and the bitmap pool.
+     */
+    public void clearMemory() {
+        mMemoryCache.evictAll();
+        mBitmapPool.clear();
+    }
+
+    /**
+     * Empties both tiers. This does I/O, so it should not be called on the main thread.
+     */
+    public void clear() {
+        clearMemory();
+        synchronized (mDiskLock) {
+            if (mDiskCacheDir != null) {
+                trimDiskCache(0);
+            }
+        }
+    }
+
+    public long getMemoryHitCount() {
+        return mMemoryHits.get();
+    }
+
+    public long getMemoryMissCount() {
+        return mMemoryMisses.get();
+    }
+
+    public long getDiskHitCount() {
+        return mDiskHits.get();
+    }
+
+    public long getDiskMissCount() {
+        return mDiskMisses.get();
+    }
+
+    /**
+     * Returns the number of bytes currently held by the memory tier.
+     */
+    public int getMemorySize() {
+        return mMemoryCache.size();
+    }
+
+    @Override
+    public String toString() {
+        return "ArtworkCache{memory=" + mMemoryCache.size() + "/" + mMemoryCache.maxSize()
+                + " bytes, memoryHits=" + mMemoryHits + ", memoryMisses=" + mMemoryMisses
+                + ", diskHits=" + mDiskHits + ", diskMisses=" + mDiskMisses + "}";
+    }
+
+    private void onBitmapRemoved(Bitmap bitmap) {
+        synchronized (mRetainCounts) {
+            mCached.remove(bitmap);
+            poolIfUnused(bitmap);
+        }
+    }
+
+    /*
+     * Moves the bitmap to the pool if it is out of the memory tier, not being handed out and no
+     * longer displayed. A bitmap that was never retained may still be in use by a caller that does
+     * not know about retain(), so it is left alone. Must be called with mRetainCounts held.
+     */
+    private void poolIfUnused(Bitmap bitmap) {
+        if (mCached.contains(bitmap) || mPinCounts.containsKey(bitmap)) {
+            return;
+        }
+        Integer count = mRetainCounts.get(bitmap);
+        if (count != null && count == 0) {
+            mRetainCounts.remove(bitmap);
+            mBitmapPool.put(bitmap);
+        }
+    }
+
+    private File getDiskFile(String url) {
+        if (mDiskCacheDir == null || url == null) {
+            return null;
+        }
+        return new File(mDiskCacheDir, hashKey(url));
+    }
+
+    private static File getMetadataFile(File file) {
+        return new File(file.getParentFile(), file.getName() + METADATA_SUFFIX);
+    }
+
+    /*
+     * Reads the metadata of an entry; a missing or unreadable file yields an entry without
+     * validators that is already expired, so it simply gets downloaded again.
+     */
+    private static DiskEntry readMetadata(File metadataFile, byte[] data) {
+        if (!metadataFile.isFile()) {
+            return new DiskEntry(data, null, null, 0);
+        }
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new FileInputStream(metadataFile));
+            if (in.readInt() != METADATA_VERSION) {
+                return new DiskEntry(data, null, null, 0);
+            }
+            long expiresAt = in.readLong();
+            String eTag = in.readUTF();
+            String lastModified = in.readUTF();
+            return new DiskEntry(data, eTag.isEmpty() ? null : eTag,
+                    lastModified.isEmpty() ? null : lastModified, expiresAt);
+        } catch (IOException e) {
+            LOGE(TAG, "Failed to read " + metadataFile, e);
+            return new DiskEntry(data, null, null, 0);
+        } finally {
+            closeQuietly(in);
+        }
+    }
+
+    /*
+     * Must be called with mDiskLock held and the disk size known.
+     */
+    private void writeMetadata(File metadataFile, String eTag, String lastModified,
+            long expiresAt) {
+        if (metadataFile.isFile()) {
+            mDiskCacheSize -= metadataFile.length();
+        }
+        DataOutputStream out = null;
+        boolean written = false;
+        try {
+            out = new DataOutputStream(new FileOutputStream(metadataFile));
+            out.writeInt(METADATA_VERSION);
+            out.writeLong(expiresAt);
+            out.writeUTF(eTag == null ? "" : eTag);
+            out.writeUTF(lastModified == null ? "" : lastModified);
+            written = true;
+        } catch (IOException e) {
+            LOGE(TAG, "Failed to write " + metadataFile, e);
+        } finally {
+            closeQuietly(out);
+        }
+        if (!written) {
+            metadataFile.delete();
+        }
+        mDiskCacheSize += metadataFile.length();
+    }
+
+    private void ensureDiskCacheSize() {
+        if (mDiskCacheSize >= 0) {
+            return;
+        }
+        long size = 0;
+        File[] files = mDiskCacheDir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                size += file.length();
+            }
+        }
+        mDiskCacheSize = size;
+    }
+
+    private void trimDiskCache(long targetBytes) {
+        File[] files = mDiskCacheDir.listFiles();
+        if (files == null) {
+            mDiskCacheSize = 0;
+            return;
+        }
+        // metadata files are removed along with their entry
+        Arrays.sort(files, new Comparator<File>() {
+            @Override
+            public int compare(File lhs, File rhs) {
+                long l = lhs.lastModified();
+                long r = rhs.lastModified();
+                return l < r ? -1 : (l == r ? 0 : 1);
+            }
+        });
+        long size = 0;
+        for (File file : files) {
+            size += file.length();
+        }
+        for (File file : files) {
+            if (size <= targetBytes) {
+                break;
+            }
+            if (file.getName().endsWith(METADATA_SUFFIX)) {
+                continue;
+            }
+            long length = file.length();
+            if (file.delete()) {
+                size -= length;
+            }
+            File metadataFile = getMetadataFile(file);
+            length = metadataFile.length();
+            if (metadataFile.delete()) {
+                size -= length;
+            }
+        }
+        mDiskCacheSize = size;
+        LOGD(TAG, "Trimmed disk cache to " + size + " bytes");
+    }
+
+    private static byte[] readFully(File file) throws IOException {
+        InputStream in = new FileInputStream(file);
+        try {
+            byte[] data = new byte[(int) file.length()];
+            int offset = 0;
+            while (offset < data.length) {
+                int read = in.read(data, offset, data.length - offset);
+                if (read < 0) {
+                    throw new IOException("Unexpected end of file " + file);
+                }
+                offset += read;
+            }
+            return data;
+        } finally {
+            closeQuietly(in);
+        }
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        if (closeable != null) {
+            try {
+                closeable.close();
+            } catch (IOException e) {
+                // ignore
+            }
+        }
+    }
+
+    private static String hashKey(String url) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("MD5");
+            byte[] hash = digest.digest(url.getBytes("UTF-8"));
+            StringBuilder sb = new StringBuilder(hash.length * 2);
+            for (byte b : hash) {
+                sb.append(Character.forDigit((b >> 4) & 0xf, 16));
+                sb.append(Character.forDigit(b & 0xf, 16));
+            }
+            return sb.toString();
+        } catch (NoSuchAlgorithmException | UnsupportedEncodingException e) {
+            return Integer.toHexString(url.hashCode());
+        }
+    }
+
+    /**
+     * An encoded image from the disk tier, along with what is needed to revalidate it.
+     */
+    public static final class DiskEntry {
+        private final byte[] mData;
+        private final String mETag;
+        private final String mLastModified;
+        private final long mExpiresAt;
+
+        private DiskEntry(byte[] data, String eTag, String lastModified, long expiresAt) {
+            mData = data;
+            mETag = eTag;
+            mLastModified = lastModified;
+            mExpiresAt = expiresAt;
+        }
+
+        public byte[] getData() {
+            return mData;
+        }
+
+        /**
+         * Returns the ETag the image was served with, or {@code null}.
+         */
+        public String getETag() {
+            return mETag;
+        }
+
+        /**
+         * Returns the Last-Modified date the image was served with, or {@code null}.
+         */
+        public String getLastModified() {
+            return mLastModified;
+        }
+
+        /**
+         * Returns the time, in milliseconds since the epoch, until which the image can be used
+         * without revalidation.
+         */
+        public long getExpiresAt() {
+            return mExpiresAt;
+        }
+
+        public boolean isFresh() {
+            return System.currentTimeMillis() < mExpiresAt;
+        }
+    }
+}
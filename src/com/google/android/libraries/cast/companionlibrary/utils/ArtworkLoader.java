@@ -0,0 +1,746 @@
+/*
+ * Copyright (C) 2015 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.android.libraries.cast.companionlibrary.utils;
+
+import static com.google.android.libraries.cast.companionlibrary.utils.LogUtils.LOGD;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+import android.graphics.Rect;
+import android.os.Build;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Process;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The image-loading layer behind {@link FetchBitmapTask}. Concurrent requests for the same URL and
+ * target size are merged into a single fetch and a single decode, and the result is handed to
+ * every waiter. A waiter that gets cancelled simply stops being interested; the shared fetch is
+ * only abandoned once all of its waiters are cancelled.
+ * <p>
+ * Results go through the shared {@link ArtworkCache}, and decoding reuses bitmaps from its
+ * {@link BitmapPool} whenever possible.
+ * <p>
+ * Fetches run on a small dedicated pool of background threads, so that artwork does not compete
+ * with other {@link android.os.AsyncTask}s of the library or of the application. Queued fetches
+ * are ordered by priority (see {@code FetchBitmapTask.PRIORITY_*}), then by arrival. A download
+ * whose waiters are all cancelled is aborted by closing its connection, even in the middle of a
+ * blocking read.
+ * <p>
+ * Cached artwork is used without any request for as long as it is fresh, according to the
+ * caching headers it was served with. Once stale, it is revalidated with a conditional request;
+ * a {@code 304 Not Modified} response keeps using the cached copy. Responses are read to the end
+ * and closed rather than disconnected, so that the platform can keep the connection alive and
+ * reuse it for the next image from the same host.
+ */
+public class ArtworkLoader {
+
+    private static final String TAG = LogUtils.makeLogTag(ArtworkLoader.class);
+    private static final int BUFFER_SIZE = 8 * 1024;
+    private static final int THREAD_POOL_SIZE = 3;
+    private static final long THREAD_KEEP_ALIVE_S = 30;
+    private static final int CONNECT_TIMEOUT_MS = (int) TimeUnit.SECONDS.toMillis(10);
+    private static final int READ_TIMEOUT_MS = (int) TimeUnit.SECONDS.toMillis(15);
+    // how often an ongoing download checks whether it is still wanted
+    private static final long ABORT_CHECK_INTERVAL_MS = 250;
+    // upper bound of the freshness lifetime derived from Last-Modified when nothing else is given
+    private static final long MAX_HEURISTIC_FRESHNESS_MS = TimeUnit.DAYS.toMillis(1);
+    /**
+     * How long a response that carries no caching headers at all is used before it is
+     * revalidated, unless changed by {@link #setDefaultFreshness(long)}.
+     */
+    public static final long DEFAULT_FRESHNESS_MS = TimeUnit.MINUTES.toMillis(5);
+
+    /**
+     * A party interested in the result of a load.
+     */
+    public interface Waiter {
+
+        /**
+         * Returns {@code true} if this waiter is no longer interested in the result.
+         */
+        boolean isCancelled();
+
+        /**
+         * Called on the main thread with the loaded bitmap, or {@code null} if loading failed.
+         * This is not called if the waiter has been cancelled in the meantime.
+         */
+        void onArtworkLoaded(Bitmap bitmap);
+    }
+
+    private static ArtworkLoader sInstance;
+
+    private final Object mLock = new Object();
+    private final Map<String, Job> mInFlight = new HashMap<>();
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+    private final ArtworkCache mCache;
+    private final ThreadPoolExecutor mExecutor;
+    private final ScheduledExecutorService mWatchdog;
+    private final AtomicLong mSequence = new AtomicLong();
+    private volatile long mDefaultFreshnessMs = DEFAULT_FRESHNESS_MS;
+
+    private final AtomicLong mRequestCount = new AtomicLong();
+    private final AtomicLong mCoalescedCount = new AtomicLong();
+    private final AtomicLong mFetchCount = new AtomicLong();
+    private final AtomicLong mAbandonedCount = new AtomicLong();
+    private final AtomicLong mAbortedDownloadCount = new AtomicLong();
+    private final AtomicLong mNetworkRequestCount = new AtomicLong();
+    private final AtomicLong mNotModifiedCount = new AtomicLong();
+
+    private ArtworkLoader(ArtworkCache cache) {
+        mCache = cache;
+        mExecutor = new ThreadPoolExecutor(THREAD_POOL_SIZE, THREAD_POOL_SIZE,
+                THREAD_KEEP_ALIVE_S, TimeUnit.SECONDS, new PriorityBlockingQueue<Runnable>(),
+                new BackgroundThreadFactory("ccl-artwork"));
+        mExecutor.allowCoreThreadTimeOut(true);
+        mWatchdog = Executors.newSingleThreadScheduledExecutor(
+                new BackgroundThreadFactory("ccl-artwork-watchdog"));
+    }
+
+    public static synchronized ArtworkLoader getInstance() {
+        if (sInstance == null) {
+            sInstance = new ArtworkLoader(ArtworkCache.getInstance());
+        }
+        return sInstance;
+    }
+
+    /**
+     * Same as {@link #load(String, int, int, int, int, Waiter)} with
+     * {@code FetchBitmapTask.PRIORITY_VISIBLE}.
+     */
+    public void load(String url, int width, int height, int flags, Waiter waiter) {
+        load(url, width, height, flags, FetchBitmapTask.PRIORITY_VISIBLE, waiter);
+    }
+
+    /**
+     * Loads the image at {@code url}, scaled to the given size (no scaling if either dimension is
+     * not positive), and hands it to {@code waiter} on the main thread. If the image is already in
+     * memory and this is called on the main thread, the waiter is called right away.
+     *
+     * @param flags A combination of the {@code FetchBitmapTask.FLAG_*} values, or 0.
+     * @param priority One of the {@code FetchBitmapTask.PRIORITY_*} values. A queued fetch shared
+     * by several waiters runs at the highest of their priorities.
+     */
+    public void load(String url, int width, int height, int flags, int priority, Waiter waiter) {
+        mRequestCount.incrementAndGet();
+        if (url == null) {
+            deliver(waiter, null);
+            return;
+        }
+        String key = ArtworkCache.makeKey(url, width, height, flags);
+        Bitmap bitmap = mCache.acquireBitmap(key);
+        if (bitmap != null) {
+            if (mCache.isFresh(url)) {
+                deliver(waiter, bitmap);
+                return;
+            }
+            // stale: go through a fetch, which revalidates it with the server
+            mCache.unpin(bitmap);
+        }
+        Job job;
+        boolean enqueue = false;
+        synchronized (mLock) {
+            job = mInFlight.get(key);
+            if (job == null) {
+                job = new Job(key, url, width, height, flags, priority);
+                mInFlight.put(key, job);
+                mFetchCount.incrementAndGet();
+                enqueue = true;
+            } else {
+                mCoalescedCount.incrementAndGet();
+                // the queue only orders jobs when they are inserted, so take it out to promote it
+                if (priority > job.mPriority && mExecutor.getQueue().remove(job)) {
+                    job.mPriority = priority;
+                    enqueue = true;
+                }
+            }
+            job.mWaiters.add(waiter);
+        }
+        if (enqueue) {
+            mExecutor.execute(job);
+        }
+    }
+
+    /**
+     * Same as {@link #load(String, int, int, int, int, Waiter)} but blocks the calling thread until
+     * the result is available. This must not be called on the main thread.
+     */
+    public Bitmap loadBlocking(String url, int width, int height, int flags, int priority,
+            final Waiter waiter) {
+        final CountDownLatch latch = new CountDownLatch(1);
+        final Bitmap[] result = new Bitmap[1];
+        load(url, width, height, flags, priority, new Waiter() {
+            @Override
+            public boolean isCancelled() {
+                return waiter.isCancelled();
+            }
+
+            @Override
+            public void onArtworkLoaded(Bitmap bitmap) {
+                result[0] = bitmap;
+                latch.countDown();
+            }
+        });
+        try {
+            // a cancelled waiter never hears back, so do not wait for it forever
+            while (!latch.await(250, TimeUnit.MILLISECONDS)) {
+                if (waiter.isCancelled()) {
+                    return null;
+                }
+            }
+        } catch (InterruptedException e) {
+            return null;
+        }
+        return result[0];
+    }
+
+    /**
+     * Sets how long, in milliseconds, a response without any Cache-Control, Expires or
+     * Last-Modified header is served from the cache before it is revalidated. The default is
+     * {@link #DEFAULT_FRESHNESS_MS}.
+     */
+    public void setDefaultFreshness(long freshnessMs) {
+        if (freshnessMs < 0) {
+            throw new IllegalArgumentException("freshnessMs cannot be negative");
+        }
+        mDefaultFreshnessMs = freshnessMs;
+    }
+
+    /**
+     * Returns the number of load requests received.
+     */
+    public long getRequestCount() {
+        return mRequestCount.get();
+    }
+
+    /**
+     * Returns the number of requests that were served by joining a fetch that was already in
+     * flight.
+     */
+    public long getCoalescedCount() {
+        return mCoalescedCount.get();
+    }
+
+    /**
+     * Returns the number of fetches that were started, i.e. requests that missed the memory tier
+     * and could not join an in-flight fetch.
+     */
+    public long getFetchCount() {
+        return mFetchCount.get();
+    }
+
+    /**
+     * Returns the number of fetches that were abandoned because all their waiters were cancelled.
+     */
+    public long getAbandonedCount() {
+        return mAbandonedCount.get();
+    }
+
+    /**
+     * Returns the number of downloads that were cut short because nobody waited for them any more.
+     */
+    public long getAbortedDownloadCount() {
+        return mAbortedDownloadCount.get();
+    }
+
+    /**
+     * Returns the number of HTTP requests made, conditional or not.
+     */
+    public long getNetworkRequestCount() {
+        return mNetworkRequestCount.get();
+    }
+
+    /**
+     * Returns the number of conditional requests that were answered with
+     * {@code 304 Not Modified}, i.e. downloads that were avoided.
+     */
+    public long getNotModifiedCount() {
+        return mNotModifiedCount.get();
+    }
+
+    /**
+     * Returns the number of fetches waiting for a thread.
+     */
+    public int getQueuedCount() {
+        return mExecutor.getQueue().size();
+    }
+
+    /*
+     * Hands the bitmap to the waiter on the main thread. The bitmap must have been pinned for this
+     * delivery; it is unpinned once the waiter had a chance to retain it.
+     */
+    private void deliver(final Waiter waiter, final Bitmap bitmap) {
+        if (Looper.myLooper() == Looper.getMainLooper()) {
+            deliverNow(waiter, bitmap);
+        } else {
+            mMainHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    deliverNow(waiter, bitmap);
+                }
+            });
+        }
+    }
+
+    private void deliverNow(Waiter waiter, Bitmap bitmap) {
+        try {
+            if (!waiter.isCancelled()) {
+                waiter.onArtworkLoaded(bitmap);
+            }
+        } finally {
+            mCache.unpin(bitmap);
+        }
+    }
+
+    /*
+     * A fetch shared by all the waiters of the same URL and target size.
+     */
+    private final class Job implements Runnable, Comparable<Job> {
+        private final String mKey;
+        private final String mUrl;
+        private final int mWidth;
+        private final int mHeight;
+        private final int mFlags;
+        private final long mSequenceNumber;
+        // only changed while the job is out of the queue
+        private int mPriority;
+        private final List<Waiter> mWaiters = new ArrayList<>();
+
+        private Job(String key, String url, int width, int height, int flags, int priority) {
+            mKey = key;
+            mUrl = url;
+            mWidth = width;
+            mHeight = height;
+            mFlags = flags;
+            mPriority = priority;
+            mSequenceNumber = mSequence.getAndIncrement();
+        }
+
+        @Override
+        public int compareTo(Job another) {
+            if (mPriority != another.mPriority) {
+                return mPriority > another.mPriority ? -1 : 1;
+            }
+            return mSequenceNumber < another.mSequenceNumber ? -1
+                    : (mSequenceNumber == another.mSequenceNumber ? 0 : 1);
+        }
+
+        @Override
+        public void run() {
+            Bitmap bitmap = isAbandoned() ? null : fetch();
+            List<Waiter> waiters;
+            synchronized (mLock) {
+                if (mInFlight.get(mKey) == this) {
+                    mInFlight.remove(mKey);
+                }
+                waiters = new ArrayList<>(mWaiters);
+            }
+            for (Waiter waiter : waiters) {
+                mCache.pin(bitmap);
+                deliver(waiter, bitmap);
+            }
+            // the pin taken by fetch()
+            mCache.unpin(bitmap);
+        }
+
+        /*
+         * Returns true if every waiter is cancelled; in that case the job is also detached so that
+         * later requests start a fresh fetch instead of joining a dying one.
+         */
+        private boolean isAbandoned() {
+            synchronized (mLock) {
+                for (Waiter waiter : mWaiters) {
+                    if (!waiter.isCancelled()) {
+                        return false;
+                    }
+                }
+                if (mInFlight.get(mKey) == this) {
+                    mInFlight.remove(mKey);
+                    mAbandonedCount.incrementAndGet();
+                    LOGD(TAG, "Abandoned fetch for " + mKey);
+                }
+                return true;
+            }
+        }
+
+        /*
+         * Returns the bitmap, pinned, or null.
+         */
+        private Bitmap fetch() {
+            ArtworkCache.DiskEntry entry = mCache.getDiskEntry(mUrl);
+            byte[] data;
+            if (entry != null && entry.isFresh()) {
+                data = entry.getData();
+            } else {
+                data = download(entry);
+                if (data == null) {
+                    return null;
+                }
+            }
+            if (isAbandoned()) {
+                return null;
+            }
+            if (entry != null && data == entry.getData()) {
+                // revalidated, so the bitmap may still be decoded in memory
+                Bitmap bitmap = mCache.acquireBitmap(mKey);
+                if (bitmap != null) {
+                    return bitmap;
+                }
+            }
+            Bitmap bitmap = decode(data);
+            if (bitmap != null && (mWidth > 0) && (mHeight > 0)
+                    && (mFlags & FetchBitmapTask.FLAG_SUBSAMPLE_ONLY) == 0) {
+                Bitmap scaled = scaleBitmap(bitmap, mWidth, mHeight);
+                if (scaled != bitmap) {
+                    // the intermediate bitmap was never handed out
+                    mCache.getBitmapPool().put(bitmap);
+                }
+                bitmap = scaled;
+            }
+            mCache.putBitmap(mKey, bitmap);
+            mCache.pin(bitmap);
+            return bitmap;
+        }
+
+        /*
+         * Reads the header first so that large images are subsampled while decoding, instead of
+         * being decoded at full resolution and scaled down afterwards.
+         */
+        private Bitmap decode(byte[] data) {
+            BitmapFactory.Options options = new BitmapFactory.Options();
+            options.inJustDecodeBounds = true;
+            BitmapFactory.decodeByteArray(data, 0, data.length, options);
+            if (options.outWidth <= 0 || options.outHeight <= 0) {
+                return null;
+            }
+            options.inSampleSize = calculateInSampleSize(options.outWidth, options.outHeight,
+                    mWidth, mHeight);
+            if ((mFlags & FetchBitmapTask.FLAG_PREFER_RGB_565) != 0
+                    && "image/jpeg".equals(options.outMimeType)) {
+                // JPEG has no alpha channel, so 16 bits per pixel lose nothing but some color depth
+                options.inPreferredConfig = Bitmap.Config.RGB_565;
+            }
+            options.inJustDecodeBounds = false;
+            // mutable, so that it can go to the bitmap pool once evicted
+            options.inMutable = true;
+            Bitmap reusable = getReusableBitmap(options);
+            if (reusable != null) {
+                options.inBitmap = reusable;
+                try {
+                    return BitmapFactory.decodeByteArray(data, 0, data.length, options);
+                } catch (IllegalArgumentException e) {
+                    // the decoder could not reuse it after all; fall back to a fresh allocation
+                    LOGD(TAG, "Could not decode " + mKey + " into a pooled bitmap");
+                    options.inBitmap = null;
+                    mCache.getBitmapPool().put(reusable);
+                }
+            }
+            return BitmapFactory.decodeByteArray(data, 0, data.length, options);
+        }
+
+        /*
+         * Returns a pooled bitmap the decode can write into, or null. Before KitKat, the decoder
+         * only reuses bitmaps of the exact same size, and only without subsampling.
+         */
+        private Bitmap getReusableBitmap(BitmapFactory.Options options) {
+            Bitmap.Config config = options.inPreferredConfig != null
+                    ? options.inPreferredConfig : Bitmap.Config.ARGB_8888;
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT) {
+                // rounded up, as decoders differ in how they round subsampled dimensions
+                int sample = options.inSampleSize;
+                return mCache.getBitmapPool().get((options.outWidth + sample - 1) / sample,
+                        (options.outHeight + sample - 1) / sample, config);
+            } else if (options.inSampleSize == 1) {
+                return mCache.getBitmapPool().get(options.outWidth, options.outHeight, config);
+            }
+            return null;
+        }
+
+        /*
+         * Downloads the encoded image and stores it in the disk tier. If there is a stale entry, the
+         * request is conditional and the entry's data is returned when the server says it has not
+         * changed, or when the server cannot be reached. Returns null if the job is abandoned or if
+         * there is nothing to show.
+         */
+        private byte[] download(ArtworkCache.DiskEntry entry) {
+            URL url;
+            try {
+                url = new URL(mUrl);
+            } catch (MalformedURLException e) {
+                return null;
+            }
+            HttpURLConnection urlConnection = null;
+            ScheduledFuture<?> watchdog = null;
+            // a connection whose response was fully read can go back to the keep-alive pool
+            boolean reusable = false;
+            try {
+                urlConnection = (HttpURLConnection) url.openConnection();
+                urlConnection.setDoInput(true);
+                urlConnection.setConnectTimeout(CONNECT_TIMEOUT_MS);
+                urlConnection.setReadTimeout(READ_TIMEOUT_MS);
+                if (entry != null && entry.getETag() != null) {
+                    urlConnection.setRequestProperty("If-None-Match", entry.getETag());
+                }
+                if (entry != null && entry.getLastModified() != null) {
+                    urlConnection.setRequestProperty("If-Modified-Since",
+                            entry.getLastModified());
+                }
+                watchdog = watch(urlConnection);
+                mNetworkRequestCount.incrementAndGet();
+
+                int responseCode = urlConnection.getResponseCode();
+                if (responseCode == HttpURLConnection.HTTP_NOT_MODIFIED && entry != null) {
+                    drainAndClose(urlConnection.getInputStream());
+                    reusable = true;
+                    mNotModifiedCount.incrementAndGet();
+                    mCache.refreshEncoded(mUrl, urlConnection.getHeaderField("ETag"),
+                            urlConnection.getHeaderField("Last-Modified"),
+                            getExpiresAt(urlConnection));
+                    return entry.getData();
+                } else if (responseCode == HttpURLConnection.HTTP_OK) {
+                    InputStream stream = new BufferedInputStream(urlConnection.getInputStream());
+                    ByteArrayOutputStream out = new ByteArrayOutputStream(
+                            Math.max(urlConnection.getContentLength(), BUFFER_SIZE));
+                    byte[] buffer = new byte[BUFFER_SIZE];
+                    int read;
+                    while ((read = stream.read(buffer)) != -1) {
+                        if (isAbandoned()) {
+                            return null;
+                        }
+                        out.write(buffer, 0, read);
+                    }
+                    stream.close();
+                    reusable = true;
+                    byte[] data = out.toByteArray();
+                    mCache.putEncoded(mUrl, data, urlConnection.getHeaderField("ETag"),
+                            urlConnection.getHeaderField("Last-Modified"),
+                            getExpiresAt(urlConnection));
+                    return data;
+                } else {
+                    drainAndClose(urlConnection.getErrorStream());
+                    reusable = true;
+                }
+            } catch (IOException e) { /* ignore */
+            } finally {
+                if (watchdog != null) {
+                    watchdog.cancel(false);
+                }
+                if (urlConnection != null && !reusable) {
+                    urlConnection.disconnect();
+                }
+            }
+            // a stale image is better than no image at all
+            return entry == null || isAbandoned() ? null : entry.getData();
+        }
+
+        /*
+         * Periodically checks whether the download is still wanted and, if not, closes the
+         * connection so that a read blocked on a slow server fails right away.
+         */
+        private ScheduledFuture<?> watch(final HttpURLConnection urlConnection) {
+            final AtomicBoolean aborted = new AtomicBoolean();
+            return mWatchdog.scheduleWithFixedDelay(new Runnable() {
+                @Override
+                public void run() {
+                    if (isAbandoned() && aborted.compareAndSet(false, true)) {
+                        LOGD(TAG, "Aborting download of " + mUrl);
+                        mAbortedDownloadCount.incrementAndGet();
+                        urlConnection.disconnect();
+                    }
+                }
+            }, ABORT_CHECK_INTERVAL_MS, ABORT_CHECK_INTERVAL_MS, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /*
+     * Reads what is left of a response so that its connection can be reused.
+     */
+    private static void drainAndClose(InputStream stream) throws IOException {
+        if (stream == null) {
+            return;
+        }
+        try {
+            byte[] buffer = new byte[BUFFER_SIZE];
+            while (stream.read(buffer) != -1) {
+                // discard
+            }
+        } finally {
+            stream.close();
+        }
+    }
+
+    private long getExpiresAt(HttpURLConnection urlConnection) {
+        return computeExpiresAt(System.currentTimeMillis(),
+                urlConnection.getHeaderField("Cache-Control"), urlConnection.getDate(),
+                urlConnection.getExpiration(), urlConnection.getLastModified(),
+                mDefaultFreshnessMs);
+    }
+
+    /*
+     * Computes until when a response can be used without revalidation, following the usual HTTP
+     * rules: Cache-Control max-age first, then Expires (relative to the server's Date, to cope
+     * with clock skew), then a tenth of the age given by Last-Modified. Header dates are in
+     * milliseconds since the epoch, 0 when absent. Only an explicit no-cache, no-store or
+     * max-age=0 makes a response stale right away; one without any of those headers is fresh for
+     * defaultFreshnessMs, so that artwork servers that send no caching headers are not hit each
+     * time the same image is shown.
+     */
+    static long computeExpiresAt(long now, String cacheControl, long date, long expires,
+            long lastModified, long defaultFreshnessMs) {
+        if (cacheControl != null) {
+            for (String directive : cacheControl.split(",")) {
+                directive = directive.trim().toLowerCase(Locale.US);
+                if (directive.equals("no-cache") || directive.equals("no-store")) {
+                    return now;
+                }
+                if (directive.startsWith("max-age=")) {
+                    try {
+                        return now + TimeUnit.SECONDS.toMillis(
+                                Long.parseLong(directive.substring("max-age=".length())));
+                    } catch (NumberFormatException e) {
+                        // a malformed max-age is ignored, as if it were not there
+                    }
+                }
+            }
+        }
+        long serverNow = date > 0 ? date : now;
+        if (expires > 0) {
+            return now + Math.max(0, expires - serverNow);
+        }
+        if (lastModified > 0 && lastModified < serverNow) {
+            return now + Math.min((serverNow - lastModified) / 10, MAX_HEURISTIC_FRESHNESS_MS);
+        }
+        return now + defaultFreshnessMs;
+    }
+
+    /*
+     * Creates daemon threads that run at background priority, so that image loading does not take
+     * CPU time away from the UI.
+     */
+    private static final class BackgroundThreadFactory implements ThreadFactory {
+        private final String mName;
+        private final AtomicInteger mCount = new AtomicInteger(1);
+
+        private BackgroundThreadFactory(String name) {
+            mName = name;
+        }
+
+        @Override
+        public Thread newThread(final Runnable runnable) {
+            Thread thread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                    runnable.run();
+                }
+            }, mName + "-" + mCount.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+
+    /*
+     * Returns the largest power of two that keeps both dimensions of the decoded image at or above
+     * the requested ones; 1 if no size is requested.
+     */
+    static int calculateInSampleSize(int width, int height, int reqWidth, int reqHeight) {
+        int inSampleSize = 1;
+        if (reqWidth <= 0 || reqHeight <= 0) {
+            return inSampleSize;
+        }
+        while ((width / (inSampleSize * 2)) >= reqWidth
+                && (height / (inSampleSize * 2)) >= reqHeight) {
+            inSampleSize *= 2;
+        }
+        return inSampleSize;
+    }
+
+    /*
+     * Scales the bitmap to the preferred width and height.
+     *
+     * @param bitmap The bitmap to scale.
+     * @return The scaled bitmap.
+     */
+    private static Bitmap scaleBitmap(Bitmap bitmap, int preferredWidth, int preferredHeight) {
+        int width = bitmap.getWidth();
+        int height = bitmap.getHeight();
+
+        // Calculate deltas.
+        int dw = width - preferredWidth;
+        int dh = height - preferredHeight;
+
+        if ((dw == 0) && (dh == 0)) {
+            return bitmap;
+        }
+
+        float scaleFactor;
+        if ((dw > 0) || (dh > 0)) {
+            // Icon is too big; scale down.
+            float scaleWidth = (float) preferredWidth / width;
+            float scaleHeight = (float) preferredHeight / height;
+            scaleFactor = Math.min(scaleHeight, scaleWidth);
+        } else {
+            // Icon is too small; scale up.
+            float scaleWidth = width / (float) preferredWidth;
+            float scaleHeight = height / (float) preferredHeight;
+            scaleFactor = Math.min(scaleHeight, scaleWidth);
+        }
+
+        int finalWidth = (int) ((width * scaleFactor) + 0.5f);
+        int finalHeight = (int) ((height * scaleFactor) + 0.5f);
+
+        Bitmap.Config config = bitmap.getConfig() != null
+                ? bitmap.getConfig() : Bitmap.Config.ARGB_8888;
+        Bitmap scaled = ArtworkCache.getInstance().getBitmapPool()
+                .get(finalWidth, finalHeight, config);
+        if (scaled == null) {
+            scaled = Bitmap.createBitmap(finalWidth, finalHeight, config);
+        } else {
+            scaled.eraseColor(Color.TRANSPARENT);
+        }
+        new Canvas(scaled).drawBitmap(bitmap, null, new Rect(0, 0, finalWidth, finalHeight),
+                new Paint());
+        return scaled;
+    }
+}
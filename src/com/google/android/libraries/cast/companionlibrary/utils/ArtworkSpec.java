@@ -0,0 +1,105 @@
+/*
+ * Copyright (C) 2015 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.android.libraries.cast.companionlibrary.utils;
+
+import com.google.android.libraries.cast.companionlibrary.R;
+
+import android.content.Context;
+import android.os.Build;
+import android.util.DisplayMetrics;
+
+/**
+ * The size and decoding flags artwork is loaded with for a given surface. The surfaces of the
+ * library (mini controller, notification, lock screen) get theirs from here, so that anything
+ * that loads artwork ahead of time for them hits exactly the same cache entries.
+ */
+public final class ArtworkSpec {
+
+    private final int mWidth;
+    private final int mHeight;
+    private final int mFlags;
+
+    public ArtworkSpec(int width, int height, int flags) {
+        mWidth = width;
+        mHeight = height;
+        mFlags = flags;
+    }
+
+    /**
+     * The artwork of the {@code MiniController}.
+     */
+    public static ArtworkSpec forMiniController(Context context) {
+        return new ArtworkSpec(
+                context.getResources().getDimensionPixelSize(
+                        R.dimen.ccl_mini_controller_icon_width),
+                context.getResources().getDimensionPixelSize(
+                        R.dimen.ccl_mini_controller_icon_height),
+                FetchBitmapTask.FLAG_SUBSAMPLE_ONLY | FetchBitmapTask.FLAG_PREFER_RGB_565);
+    }
+
+    /**
+     * The artwork of the cast notification; it is center-cropped to a square afterwards.
+     */
+    public static ArtworkSpec forNotification(Context context) {
+        int size = Utils.convertDpToPixel(context,
+                context.getResources().getDimension(R.dimen.ccl_notification_image_size));
+        return new ArtworkSpec(size, size,
+                FetchBitmapTask.FLAG_SUBSAMPLE_ONLY | FetchBitmapTask.FLAG_PREFER_RGB_565);
+    }
+
+    /**
+     * The artwork of the lock screen, which is also the one of the full-screen cast controller.
+     */
+    public static ArtworkSpec forLockScreen(Context context) {
+        DisplayMetrics metrics = context.getResources().getDisplayMetrics();
+        return new ArtworkSpec(metrics.widthPixels, metrics.heightPixels,
+                FetchBitmapTask.FLAG_SUBSAMPLE_ONLY | FetchBitmapTask.FLAG_PREFER_RGB_565);
+    }
+
+    /**
+     * Returns the index of the image used on the lock screen, among {@code imageCount} images of
+     * a media item. Starting with KitKat the lock screen shows the artwork full-screen, so the
+     * second (larger) image is preferred when there is one.
+     */
+    public static int getLockScreenImageIndex(int imageCount) {
+        return Build.VERSION.SDK_INT > Build.VERSION_CODES.JELLY_BEAN_MR2 && imageCount > 1 ? 1 : 0;
+    }
+
+    public int getWidth() {
+        return mWidth;
+    }
+
+    public int getHeight() {
+        return mHeight;
+    }
+
+    public int getFlags() {
+        return mFlags;
+    }
+
+    /**
+     * Returns the key of the memory tier of {@link ArtworkCache} for the given URL at this size.
+     */
+    public String makeKey(String url) {
+        return ArtworkCache.makeKey(url, mWidth, mHeight, mFlags);
+    }
+
+    @Override
+    public String toString() {
+        return "ArtworkSpec{" + mWidth + "x" + mHeight + ", flags=" + mFlags + "}";
+    }
+}
@@ -0,0 +1,228 @@
+/*
+ * Copyright (C) 2015 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.android.libraries.cast.companionlibrary.utils;
+
+import android.annotation.TargetApi;
+import android.graphics.Bitmap;
+import android.os.Build;
+
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * A pool of bitmaps that are no longer displayed and can be reused, either as the
+ * {@code inBitmap} of a decode or as the destination of a transformation, to avoid allocating a
+ * new bitmap for every piece of artwork.
+ * <p>
+ * Bitmaps are bucketed by their allocation size. On KitKat and above, any bitmap that is large
+ * enough (but not wastefully so) can be reconfigured for a request; on older versions, only a
+ * bitmap with the exact same dimensions and configuration is returned. The pool is bounded in
+ * bytes and drops its oldest entries first.
+ */
+public class BitmapPool {
+
+    // a pooled bitmap is not handed out for a request that needs less than 1/MAX_SIZE_MULTIPLE of it
+    private static final int MAX_SIZE_MULTIPLE = 2;
+
+    private final long mMaxBytes;
+    private final TreeMap<Integer, LinkedList<Bitmap>> mBuckets = new TreeMap<>();
+    // insertion order, used to drop the oldest entries when over budget
+    private final LinkedList<Bitmap> mOrder = new LinkedList<>();
+    private long mCurrentBytes;
+
+    private long mHits;
+    private long mMisses;
+    private long mPuts;
+    private long mRejected;
+    private long mEvictions;
+
+    public BitmapPool(long maxBytes) {
+        mMaxBytes = maxBytes;
+    }
+
+    /**
+     * Adds a bitmap to the pool. The caller must not use the bitmap after this call. Bitmaps that
+     * are immutable, recycled or too large for the pool are ignored.
+     */
+    public synchronized void put(Bitmap bitmap) {
+        if (bitmap == null || bitmap.isRecycled() || !bitmap.isMutable()) {
+            mRejected++;
+            return;
+        }
+        int size = getAllocationSize(bitmap);
+        if (size > mMaxBytes || mOrder.contains(bitmap)) {
+            mRejected++;
+            return;
+        }
+        LinkedList<Bitmap> bucket = mBuckets.get(size);
+        if (bucket == null) {
+            bucket = new LinkedList<>();
+            mBuckets.put(size, bucket);
+        }
+        bucket.addLast(bitmap);
+        mOrder.addLast(bitmap);
+        mCurrentBytes += size;
+        mPuts++;
+        trimTo(mMaxBytes);
+    }
+
+    /**
+     * Returns a mutable bitmap with the given dimensions and configuration, whose content is
+     * undefined, or {@code null} if the pool has none that fits.
+     */
+    public synchronized Bitmap get(int width, int height, Bitmap.Config config) {
+        Bitmap bitmap = Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT
+                ? findReconfigurable(width, height, config) : findExact(width, height, config);
+        if (bitmap == null) {
+            mMisses++;
+        } else {
+            mHits++;
+        }
+        return bitmap;
+    }
+
+    /**
+     * Empties the pool.
+     */
+    public synchronized void clear() {
+        trimTo(0);
+    }
+
+    public synchronized long getHitCount() {
+        return mHits;
+    }
+
+    public synchronized long getMissCount() {
+        return mMisses;
+    }
+
+    /**
+     * Returns the fraction of {@link #get(int, int, Bitmap.Config)} calls that returned a
+     * bitmap, between 0 and 1.
+     */
+    public synchronized float getHitRate() {
+        long total = mHits + mMisses;
+        return total == 0 ? 0 : (float) mHits / total;
+    }
+
+    public synchronized long getPutCount() {
+        return mPuts;
+    }
+
+    public synchronized long getRejectedCount() {
+        return mRejected;
+    }
+
+    public synchronized long getEvictionCount() {
+        return mEvictions;
+    }
+
+    public synchronized long getCurrentBytes() {
+        return mCurrentBytes;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "BitmapPool{bytes=" + mCurrentBytes + "/" + mMaxBytes + ", hits=" + mHits
+                + ", misses=" + mMisses + ", puts=" + mPuts + ", rejected=" + mRejected
+                + ", evictions=" + mEvictions + "}";
+    }
+
+    /**
+     * Returns the number of bytes a bitmap of the given dimensions and configuration needs.
+     */
+    public static int getByteCount(int width, int height, Bitmap.Config config) {
+        return width * height * getBytesPerPixel(config);
+    }
+
+    private static int getBytesPerPixel(Bitmap.Config config) {
+        if (config == Bitmap.Config.ALPHA_8) {
+            return 1;
+        } else if (config == Bitmap.Config.RGB_565 || config == Bitmap.Config.ARGB_4444) {
+            return 2;
+        }
+        return 4;
+    }
+
+    @TargetApi(Build.VERSION_CODES.KITKAT)
+    private static int getAllocationSize(Bitmap bitmap) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT) {
+            return bitmap.getAllocationByteCount();
+        }
+        return bitmap.getByteCount();
+    }
+
+    @TargetApi(Build.VERSION_CODES.KITKAT)
+    private Bitmap findReconfigurable(int width, int height, Bitmap.Config config) {
+        int needed = getByteCount(width, height, config);
+        for (Map.Entry<Integer, LinkedList<Bitmap>> entry
+                : mBuckets.tailMap(needed, true).entrySet()) {
+            if (entry.getKey() > (long) needed * MAX_SIZE_MULTIPLE) {
+                break;
+            }
+            Bitmap bitmap = entry.getValue().removeFirst();
+            if (entry.getValue().isEmpty()) {
+                mBuckets.remove(entry.getKey());
+            }
+            mOrder.remove(bitmap);
+            mCurrentBytes -= entry.getKey();
+            bitmap.reconfigure(width, height, config);
+            return bitmap;
+        }
+        return null;
+    }
+
+    private Bitmap findExact(int width, int height, Bitmap.Config config) {
+        int size = getByteCount(width, height, config);
+        LinkedList<Bitmap> bucket = mBuckets.get(size);
+        if (bucket == null) {
+            return null;
+        }
+        for (Iterator<Bitmap> it = bucket.iterator(); it.hasNext(); ) {
+            Bitmap bitmap = it.next();
+            if (bitmap.getWidth() == width && bitmap.getHeight() == height
+                    && bitmap.getConfig() == config) {
+                it.remove();
+                if (bucket.isEmpty()) {
+                    mBuckets.remove(size);
+                }
+                mOrder.remove(bitmap);
+                mCurrentBytes -= size;
+                return bitmap;
+            }
+        }
+        return null;
+    }
+
+    private void trimTo(long maxBytes) {
+        while (mCurrentBytes > maxBytes && !mOrder.isEmpty()) {
+            Bitmap bitmap = mOrder.removeFirst();
+            int size = getAllocationSize(bitmap);
+            LinkedList<Bitmap> bucket = mBuckets.get(size);
+            if (bucket != null) {
+                bucket.remove(bitmap);
+                if (bucket.isEmpty()) {
+                    mBuckets.remove(size);
+                }
+            }
+            mCurrentBytes -= size;
+            mEvictions++;
+        }
+    }
+}
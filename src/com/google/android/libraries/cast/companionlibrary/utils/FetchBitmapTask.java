@@ -16,38 +16,90 @@
 
 package com.google.android.libraries.cast.companionlibrary.utils;
 
-import android.annotation.TargetApi;
 import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
 import android.net.Uri;
 import android.os.AsyncTask;
-import android.os.Build;
-
-import java.io.BufferedInputStream;
-import java.io.IOException;
-import java.io.InputStream;
-import java.net.HttpURLConnection;
-import java.net.MalformedURLException;
-import java.net.URL;
 
 /**
  * An AsyncTask to fetch an image over HTTP and scale it to the desired size. Clients need to extend
  * this and implement their own {@code onPostExecute(Bitmap bitmap)} method. It provides a uniform
- * treatment of ThreadPool across various versions of Android.
+ * treatment of ThreadPool across various versions of Android. Images are loaded through the shared
+ * {@link ArtworkLoader}, so concurrent requests for the same artwork are served by a single fetch
+ * and the result is kept in the {@link ArtworkCache}.
+ * <p>
+ * Clients that display the resulting bitmap for a while can pass it to
+ * {@link ArtworkCache#retain(Bitmap)}, and to {@link ArtworkCache#release(Bitmap)} once it is
+ * replaced, which allows its memory to be reused for later artwork.
  */
 public abstract class FetchBitmapTask extends AsyncTask<Uri, Void, Bitmap> {
+
+    /**
+     * Only subsample the image while decoding, so that it is at least as large as the preferred
+     * size in both dimensions, without scaling it to fit that size exactly. This is the right
+     * choice for images that are displayed with a center-crop.
+     */
+    public static final int FLAG_SUBSAMPLE_ONLY = 1;
+
+    /**
+     * Decode opaque (JPEG) images to {@code RGB_565}, which halves their memory footprint.
+     */
+    public static final int FLAG_PREFER_RGB_565 = 1 << 1;
+
+    /**
+     * Priority of artwork that is on screen, e.g. in a mini controller or in the notification.
+     * This is the default.
+     */
+    public static final int PRIORITY_VISIBLE = 2;
+
+    /**
+     * Priority of the lock screen artwork.
+     */
+    public static final int PRIORITY_LOCK_SCREEN = 1;
+
+    /**
+     * Priority of artwork that is loaded ahead of time and not displayed yet.
+     */
+    public static final int PRIORITY_PREFETCH = 0;
+
     private final int mPreferredWidth;
     private final int mPreferredHeight;
+    private final int mFlags;
+    private int mPriority = PRIORITY_VISIBLE;
+    private final ArtworkLoader.Waiter mWaiter = new ArtworkLoader.Waiter() {
+        @Override
+        public boolean isCancelled() {
+            return FetchBitmapTask.this.isCancelled();
+        }
+
+        @Override
+        public void onArtworkLoaded(Bitmap bitmap) {
+            onPostExecute(bitmap);
+        }
+    };
 
     /**
-     * Constructs a new FetchBitmapTask that will do scaling.
+     * Constructs a new FetchBitmapTask that will do scaling. Large images are subsampled while
+     * they are decoded, so they are never fully decoded at their original resolution.
      *
      * @param preferredWidth The preferred image width.
      * @param preferredHeight The preferred image height.
+     * @param flags A combination of {@link #FLAG_SUBSAMPLE_ONLY} and {@link #FLAG_PREFER_RGB_565},
+     * or 0.
      */
-    public FetchBitmapTask(int preferredWidth, int preferredHeight) {
+    public FetchBitmapTask(int preferredWidth, int preferredHeight, int flags) {
         mPreferredWidth = preferredWidth;
         mPreferredHeight = preferredHeight;
+        mFlags = flags;
+    }
+
+    /**
+     * Constructs a new FetchBitmapTask that will do scaling.
+     *
+     * @param preferredWidth The preferred image width.
+     * @param preferredHeight The preferred image height.
+     */
+    public FetchBitmapTask(int preferredWidth, int preferredHeight) {
+        this(preferredWidth, preferredHeight, 0);
     }
 
     /**
@@ -57,88 +109,37 @@ public abstract class FetchBitmapTask extends AsyncTask<Uri, Void, Bitmap> {
         this(0, 0);
     }
 
+    /**
+     * Sets the priority of this task, one of {@link #PRIORITY_VISIBLE},
+     * {@link #PRIORITY_LOCK_SCREEN} or {@link #PRIORITY_PREFETCH}. This must be called before the
+     * task is executed.
+     */
+    public void setPriority(int priority) {
+        mPriority = priority;
+    }
+
+    public int getPriority() {
+        return mPriority;
+    }
+
     @Override
     protected Bitmap doInBackground(Uri... uris) {
         if (uris.length != 1 || uris[0] == null) {
             return null;
         }
-
-        Bitmap bitmap = null;
-        URL url;
-        try {
-            url = new URL(uris[0].toString());
-        } catch (MalformedURLException e) {
-            return null;
-        }
-        HttpURLConnection urlConnection = null;
-        try {
-            urlConnection = (HttpURLConnection) url.openConnection();
-            urlConnection.setDoInput(true);
-
-            if (urlConnection.getResponseCode() == HttpURLConnection.HTTP_OK) {
-                InputStream stream = new BufferedInputStream(urlConnection.getInputStream());
-                bitmap = BitmapFactory.decodeStream(stream);
-                if ((mPreferredWidth > 0) && (mPreferredHeight > 0)) {
-                    bitmap = scaleBitmap(bitmap);
-                }
-            }
-        } catch (IOException e) { /* ignore */
-        } finally {
-            if (urlConnection != null) {
-                urlConnection.disconnect();
-            }
-        }
-
-        return bitmap;
+        return ArtworkLoader.getInstance().loadBlocking(uris[0].toString(), mPreferredWidth,
+                mPreferredHeight, mFlags, mPriority, mWaiter);
     }
 
     /**
-     * Executes the task.
+     * Executes the task on the artwork executor, ahead of any queued task with a lower priority.
+     * The result is delivered to {@code onPostExecute(Bitmap bitmap)} on the main thread, unless
+     * the task is cancelled first. Cancelling the task does not affect other tasks that are waiting
+     * for the same image; once no task waits for it any more, its download is aborted.
      */
-    @TargetApi(Build.VERSION_CODES.HONEYCOMB)
     public void execute(Uri uri) {
-        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB) {
-            executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR, uri);
-        } else {
-            execute(new Uri[] {uri});
-        }
-    }
-
-    /*
-     * Scales the bitmap to the preferred width and height.
-     *
-     * @param bitmap The bitmap to scale.
-     * @return The scaled bitmap.
-     */
-    private Bitmap scaleBitmap(Bitmap bitmap) {
-        int width = bitmap.getWidth();
-        int height = bitmap.getHeight();
-
-        // Calculate deltas.
-        int dw = width - mPreferredWidth;
-        int dh = height - mPreferredHeight;
-
-        if ((dw == 0) && (dh == 0)) {
-            return bitmap;
-        }
-
-        float scaleFactor;
-        if ((dw > 0) || (dh > 0)) {
-            // Icon is too big; scale down.
-            float scaleWidth = (float) mPreferredWidth / width;
-            float scaleHeight = (float) mPreferredHeight / height;
-            scaleFactor = Math.min(scaleHeight, scaleWidth);
-        } else {
-            // Icon is too small; scale up.
-            float scaleWidth = width / (float) mPreferredWidth;
-            float scaleHeight = height / (float) mPreferredHeight;
-            scaleFactor = Math.min(scaleHeight, scaleWidth);
-        }
-
-        int finalWidth = (int) ((width * scaleFactor) + 0.5f);
-        int finalHeight = (int) ((height * scaleFactor) + 0.5f);
-
-        return Bitmap.createScaledBitmap(bitmap, finalWidth, finalHeight, false);
+        ArtworkLoader.getInstance().load(uri == null ? null : uri.toString(), mPreferredWidth,
+                mPreferredHeight, mFlags, mPriority, mWaiter);
     }
 
 }
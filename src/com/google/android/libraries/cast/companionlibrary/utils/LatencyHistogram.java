@@ -0,0 +1,140 @@
+/*
+ * Copyright (C) 2015 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.android.libraries.cast.companionlibrary.utils;
+
+import java.util.Arrays;
+
+/**
+ * A small, thread-safe histogram of latencies (in milliseconds) with fixed bucket boundaries. It
+ * is meant for lightweight in-process metrics; it keeps no individual samples, so its memory
+ * footprint is constant regardless of how many values are recorded.
+ */
+public class LatencyHistogram {
+
+    /**
+     * Upper bounds (inclusive, in milliseconds) of the buckets. The last bucket collects every
+     * value above the largest bound.
+     */
+    private static final long[] BUCKET_BOUNDS_MS =
+            {10, 25, 50, 100, 250, 500, 1000, 2500, 5000, 10000, 30000, 60000};
+
+    private final String mName;
+    private final long[] mBuckets = new long[BUCKET_BOUNDS_MS.length + 1];
+    private long mCount;
+    private long mSumMs;
+    private long mMaxMs;
+    private long mLastMs = -1;
+
+    public LatencyHistogram(String name) {
+        mName = name;
+    }
+
+    /**
+     * Records a single latency value, in milliseconds. Negative values are ignored.
+     */
+    public synchronized void record(long latencyMs) {
+        if (latencyMs < 0) {
+            return;
+        }
+        int index = Arrays.binarySearch(BUCKET_BOUNDS_MS, latencyMs);
+        if (index < 0) {
+            index = -index - 1;
+        }
+        mBuckets[index]++;
+        mCount++;
+        mSumMs += latencyMs;
+        mLastMs = latencyMs;
+        if (latencyMs > mMaxMs) {
+            mMaxMs = latencyMs;
+        }
+    }
+
+    public String getName() {
+        return mName;
+    }
+
+    /**
+     * Returns the number of recorded values.
+     */
+    public synchronized long getCount() {
+        return mCount;
+    }
+
+    /**
+     * Returns the last recorded value, or -1 if nothing has been recorded yet.
+     */
+    public synchronized long getLastMs() {
+        return mLastMs;
+    }
+
+    public synchronized long getMaxMs() {
+        return mMaxMs;
+    }
+
+    /**
+     * Returns the mean of the recorded values, or 0 if nothing has been recorded yet.
+     */
+    public synchronized long getMeanMs() {
+        return mCount == 0 ? 0 : mSumMs / mCount;
+    }
+
+    /**
+     * Returns an upper bound for the given percentile (between 0 and 100), based on the bucket
+     * boundaries. For values that fall in the overflow bucket, the largest recorded value is
+     * returned.
+     */
+    public synchronized long getPercentileMs(double percentile) {
+        if (mCount == 0) {
+            return 0;
+        }
+        long target = (long) Math.ceil(mCount * Math.max(0, Math.min(100, percentile)) / 100d);
+        long seen = 0;
+        for (int i = 0; i < BUCKET_BOUNDS_MS.length; i++) {
+            seen += mBuckets[i];
+            if (seen >= target && seen > 0) {
+                return Math.min(BUCKET_BOUNDS_MS[i], mMaxMs);
+            }
+        }
+        return mMaxMs;
+    }
+
+    /**
+     * Returns a copy of the bucket counts; see {@link #getBucketBoundsMs()} for their boundaries.
+     */
+    public synchronized long[] getBucketCounts() {
+        return mBuckets.clone();
+    }
+
+    public static long[] getBucketBoundsMs() {
+        return BUCKET_BOUNDS_MS.clone();
+    }
+
+    public synchronized void reset() {
+        Arrays.fill(mBuckets, 0);
+        mCount = 0;
+        mSumMs = 0;
+        mMaxMs = 0;
+        mLastMs = -1;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return mName + "{count=" + mCount + ", last=" + mLastMs + "ms, mean=" + getMeanMs()
+                + "ms, p50=" + getPercentileMs(50) + "ms, p95=" + getPercentileMs(95)
+                + "ms, max=" + mMaxMs + "ms}";
+    }
+}
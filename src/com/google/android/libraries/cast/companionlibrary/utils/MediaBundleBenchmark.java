@@ -0,0 +1,151 @@
+/*
+ * Copyright (C) 2015 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.android.libraries.cast.companionlibrary.utils;
+
+import static com.google.android.libraries.cast.companionlibrary.utils.LogUtils.LOGD;
+
+import com.connectsdk.core.ImageInfo;
+import com.connectsdk.core.MediaInfo;
+import com.connectsdk.core.MediaInfoWithCustomData;
+
+import android.os.Bundle;
+import android.os.Parcel;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Times how long it takes to hand a {@link MediaInfoWithCustomData} with a large custom data to
+ * another component, with {@link Utils#mediaInfoToBundle(MediaInfo)} and
+ * {@link Utils#bundleToMediaInfo(Bundle)}, against the former path that stringified the custom
+ * data into the bundle and parsed it back. Each round trip builds the bundle, parcels it as an
+ * intent extra would be, reads the media back and then its custom data. It needs the Android
+ * runtime, so it is meant to be run on a device, e.g. from a debug screen of the sender app:
+ * <pre>
+ * LOGD(TAG, MediaBundleBenchmark.run(64 * 1024, 200));
+ * </pre>
+ */
+public final class MediaBundleBenchmark {
+
+    private static final String TAG = LogUtils.makeLogTag(MediaBundleBenchmark.class);
+    private static final int WARM_UP_ROUNDS = 20;
+
+    private MediaBundleBenchmark() {
+    }
+
+    /**
+     * Runs both paths {@code rounds} times with a custom data of about {@code customDataBytes}
+     * and returns the average time of a round trip of each, in microseconds.
+     */
+    public static String run(int customDataBytes, int rounds) {
+        MediaInfoWithCustomData media = createMedia(customDataBytes);
+        for (int i = 0; i < WARM_UP_ROUNDS; i++) {
+            roundTripBundle(media);
+            roundTripJson(media);
+        }
+        long bundleNs = 0;
+        long jsonNs = 0;
+        for (int i = 0; i < rounds; i++) {
+            long start = System.nanoTime();
+            roundTripBundle(media);
+            long middle = System.nanoTime();
+            roundTripJson(media);
+            long end = System.nanoTime();
+            bundleNs += middle - start;
+            jsonNs += end - middle;
+        }
+        String result = "customData=" + media.getCustomDataJson().length() + " chars, rounds="
+                + rounds + ", mediaInfoToBundle path=" + bundleNs / rounds / 1000
+                + "us, bundle+JSON path=" + jsonNs / rounds / 1000 + "us";
+        LOGD(TAG, result);
+        return result;
+    }
+
+    private static void roundTripBundle(MediaInfo media) {
+        Bundle received = parcel(Utils.mediaInfoToBundle(media));
+        MediaInfo info = Utils.bundleToMediaInfo(received);
+        ((MediaInfoWithCustomData) info).getCustomData();
+    }
+
+    /*
+     * The path of mediaInfoToBundle() and bundleToMediaInfo() before ParcelableMediaInfo.
+     */
+    private static void roundTripJson(MediaInfoWithCustomData media) {
+        Bundle wrapper = new Bundle();
+        wrapper.putString(Utils.KEY_TITLE, media.getTitle());
+        wrapper.putString(Utils.KEY_SUBTITLE, media.getDescription());
+        wrapper.putString(Utils.KEY_CUSTOMDATA, media.getCustomData().toString());
+        Bundle received = parcel(wrapper);
+        try {
+            MediaInfoWithCustomData info = new MediaInfoWithCustomData(media.getUrl(),
+                    media.getMimeType(), received.getString(Utils.KEY_TITLE),
+                    received.getString(Utils.KEY_SUBTITLE));
+            info.setCustomData(new JSONObject(received.getString(Utils.KEY_CUSTOMDATA)));
+        } catch (JSONException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static Bundle parcel(Bundle bundle) {
+        Parcel parcel = Parcel.obtain();
+        try {
+            parcel.writeBundle(bundle);
+            parcel.setDataPosition(0);
+            Bundle read = parcel.readBundle(MediaBundleBenchmark.class.getClassLoader());
+            // a bundle is only unparceled when it is first read
+            read.size();
+            return read;
+        } finally {
+            parcel.recycle();
+        }
+    }
+
+    /*
+     * A media whose custom data, already parsed, looks like a licensing blob: a few fields and a
+     * long list of entries.
+     */
+    private static MediaInfoWithCustomData createMedia(int customDataBytes) {
+        List<ImageInfo> images = new ArrayList<>();
+        images.add(new ImageInfo("http://example.com/poster.jpg"));
+        MediaInfoWithCustomData media = new MediaInfoWithCustomData(
+                "http://example.com/movie.mp4", "video/mp4", "Title", "Description", images);
+        try {
+            JSONObject customData = new JSONObject();
+            customData.put("contentId", "movie-1");
+            customData.put("licenseUrl", "http://example.com/license");
+            JSONArray entries = new JSONArray();
+            int size = 0;
+            for (int i = 0; size < customDataBytes; i++) {
+                JSONObject entry = new JSONObject();
+                entry.put("keyId", "key-" + i);
+                entry.put("token", "0123456789abcdef0123456789abcdef0123456789abcdef");
+                entry.put("expires", 1440000000000L + i);
+                entries.put(entry);
+                size += entry.toString().length() + 1;
+            }
+            customData.put("entries", entries);
+            media.setCustomData(customData);
+        } catch (JSONException e) {
+            throw new IllegalStateException(e);
+        }
+        return media;
+    }
+}
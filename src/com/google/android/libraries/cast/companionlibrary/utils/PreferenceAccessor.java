@@ -18,30 +18,161 @@ package com.google.android.libraries.cast.companionlibrary.utils;
 
 import android.content.Context;
 import android.content.SharedPreferences;
+import android.os.Handler;
+import android.os.Looper;
 import android.preference.PreferenceManager;
 
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
 /**
  * A class to streamline access to the Preference storage for both reading and writing.
+ * <p>
+ * Preferences are read from storage once and then served from memory. Writes update the memory
+ * view right away and are written behind: the ones made within {@link #FLUSH_WINDOW_MS} of each
+ * other, or between {@link #beginTransaction()} and {@link #endTransaction()}, are committed
+ * together with a single {@link SharedPreferences.Editor#apply()}, and a write that does not
+ * change the value is dropped. All methods are thread-safe.
  */
 public class PreferenceAccessor {
+
+    /**
+     * How long, in milliseconds, writes are collected before they are committed.
+     */
+    public static final long FLUSH_WINDOW_MS = 200;
+
+    // marks a pending removal
+    private static final Object REMOVED = new Object();
+
     private final SharedPreferences mSharedPreference;
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+    // the values as they will be once pending writes are committed; loaded on first access
+    private Map<String, Object> mValues;
+    private final Map<String, Object> mPendingWrites = new HashMap<>();
+    // the keys of the last flush, whose change notifications are our own
+    private final Set<String> mFlushedKeys = new HashSet<>();
+    private int mTransactionDepth;
+    private boolean mFlushScheduled;
+    private long mSkippedWriteCount;
+    private long mFlushCount;
+
+    private final Runnable mFlushRunnable = new Runnable() {
+        @Override
+        public void run() {
+            synchronized (PreferenceAccessor.this) {
+                mFlushScheduled = false;
+                if (mTransactionDepth == 0) {
+                    flush();
+                }
+            }
+        }
+    };
+
+    // keeps the memory view in sync with writes made to the same preferences elsewhere, e.g. by
+    // a preference screen; SharedPreferences only holds a weak reference to it
+    private final SharedPreferences.OnSharedPreferenceChangeListener mChangeListener =
+            new SharedPreferences.OnSharedPreferenceChangeListener() {
+                @Override
+                public void onSharedPreferenceChanged(SharedPreferences sharedPreferences,
+                        String key) {
+                    synchronized (PreferenceAccessor.this) {
+                        if (mFlushedKeys.remove(key) || mValues == null
+                                || mPendingWrites.containsKey(key)) {
+                            return;
+                        }
+                        Object value = readChanged(sharedPreferences, key, mValues.get(key));
+                        if (value == null) {
+                            mValues.remove(key);
+                        } else {
+                            mValues.put(key, value);
+                        }
+                    }
+                }
+            };
 
     public PreferenceAccessor(Context context) {
         mSharedPreference = PreferenceManager.getDefaultSharedPreferences(context);
+        mSharedPreference.registerOnSharedPreferenceChangeListener(mChangeListener);
+    }
+
+    /**
+     * Starts grouping writes: they are only committed once the matching
+     * {@link #endTransaction()} is called. Transactions can be nested.
+     */
+    public synchronized void beginTransaction() {
+        mTransactionDepth++;
     }
 
+    /**
+     * Ends a transaction started with {@link #beginTransaction()}, committing its writes if it is
+     * the outermost one.
+     */
+    public synchronized void endTransaction() {
+        if (mTransactionDepth == 0) {
+            throw new IllegalStateException("endTransaction() without beginTransaction()");
+        }
+        if (--mTransactionDepth == 0) {
+            flush();
+        }
+    }
+
+    /**
+     * Commits the pending writes right away.
+     */
+    public synchronized void flush() {
+        mHandler.removeCallbacks(mFlushRunnable);
+        mFlushScheduled = false;
+        if (mPendingWrites.isEmpty()) {
+            return;
+        }
+        SharedPreferences.Editor editor = mSharedPreference.edit();
+        for (Map.Entry<String, Object> entry : mPendingWrites.entrySet()) {
+            String key = entry.getKey();
+            Object value = entry.getValue();
+            if (value == REMOVED) {
+                editor.remove(key);
+            } else if (value instanceof String) {
+                editor.putString(key, (String) value);
+            } else if (value instanceof Float) {
+                editor.putFloat(key, (Float) value);
+            } else if (value instanceof Integer) {
+                editor.putInt(key, (Integer) value);
+            } else if (value instanceof Long) {
+                editor.putLong(key, (Long) value);
+            } else if (value instanceof Boolean) {
+                editor.putBoolean(key, (Boolean) value);
+            }
+        }
+        // a key flushed again before the notification of its previous flush only costs a read
+        mFlushedKeys.clear();
+        mFlushedKeys.addAll(mPendingWrites.keySet());
+        mPendingWrites.clear();
+        mFlushCount++;
+        editor.apply();
+    }
+
+    /**
+     * Returns the number of writes that were dropped because they did not change the value.
+     */
+    public synchronized long getSkippedWriteCount() {
+        return mSkippedWriteCount;
+    }
+
+    /**
+     * Returns the number of times pending writes were committed to storage.
+     */
+    public synchronized long getFlushCount() {
+        return mFlushCount;
+    }
 
     /**
      * Saves a string value under the provided key in the preference manager. If <code>value</code>
      * is <code>null</code>, then the provided key will be removed from the preferences.
      */
     public void saveStringToPreference(String key, String value) {
-        if (value == null) {
-            // we want to remove
-            mSharedPreference.edit().remove(key).apply();
-        } else {
-            mSharedPreference.edit().putString(key, value).apply();
-        }
+        write(key, value);
     }
 
     /**
@@ -49,12 +180,7 @@ public class PreferenceAccessor {
      * is {@code null}, then the provided key will be removed from the preferences.
      */
     public void saveFloatToPreference(String key, Float value) {
-        if (value == null) {
-            // we want to remove
-            mSharedPreference.edit().remove(key).apply();
-        } else {
-            mSharedPreference.edit().putFloat(key, value).apply();
-        }
+        write(key, value);
     }
 
     /**
@@ -62,12 +188,7 @@ public class PreferenceAccessor {
      * is {@code null}, then the provided key will be removed from the preferences.
      */
     public void saveIntToPreference(String key, Integer value) {
-        if (value == null) {
-            // we want to remove
-            mSharedPreference.edit().remove(key).apply();
-        } else {
-            mSharedPreference.edit().putInt(key, value).apply();
-        }
+        write(key, value);
     }
 
     /**
@@ -75,13 +196,7 @@ public class PreferenceAccessor {
      * is {@code null}, then the provided key will be removed from the preferences.
      */
     public void saveLongToPreference(String key, Long value) {
-        if (value == null) {
-            // we want to remove
-            mSharedPreference.edit().remove(key).apply();
-        } else {
-            mSharedPreference.edit().putLong(key, value).apply();
-        }
-
+        write(key, value);
     }
 
     /**
@@ -89,12 +204,7 @@ public class PreferenceAccessor {
      * is <code>null</code>, then the provided key will be removed from the preferences.
      */
     public void saveBooleanToPreference(String key, Boolean value) {
-        if (value == null) {
-            // we want to remove
-            mSharedPreference.edit().remove(key).apply();
-        } else {
-            mSharedPreference.edit().putBoolean(key, value).apply();
-        }
+        write(key, value);
     }
 
     /**
@@ -110,7 +220,8 @@ public class PreferenceAccessor {
      * <code>defaultValue</code>.
      */
     public String getStringFromPreference(String key, String defaultValue) {
-        return mSharedPreference.getString(key, defaultValue);
+        String value = (String) read(key);
+        return value == null ? defaultValue : value;
     }
 
     /**
@@ -118,7 +229,8 @@ public class PreferenceAccessor {
      * <code>Float.MIN_VALUE</code>.
      */
     public float getFloatFromPreference(String key) {
-        return mSharedPreference.getFloat(key, Float.MIN_VALUE);
+        Float value = (Float) read(key);
+        return value == null ? Float.MIN_VALUE : value;
     }
 
     /**
@@ -126,7 +238,7 @@ public class PreferenceAccessor {
      * <code>Integer.MIN_VALUE</code>.
      */
     public int getIntFromPreference(String key) {
-        return mSharedPreference.getInt(key, Integer.MIN_VALUE);
+        return getIntFromPreference(key, Integer.MIN_VALUE);
     }
 
     /**
@@ -134,7 +246,8 @@ public class PreferenceAccessor {
      * value provided by the {@code defaultValue}.
      */
     public int getIntFromPreference(String key, int defaultValue) {
-        return mSharedPreference.getInt(key, defaultValue);
+        Integer value = (Integer) read(key);
+        return value == null ? defaultValue : value;
     }
 
     /**
@@ -142,7 +255,8 @@ public class PreferenceAccessor {
      * value provided as <code>defaultValue</code>
      */
     public long getLongFromPreference(String key, long defaultValue) {
-        return mSharedPreference.getLong(key, defaultValue);
+        Long value = (Long) read(key);
+        return value == null ? defaultValue : value;
     }
 
     /**
@@ -150,9 +264,65 @@ public class PreferenceAccessor {
      * value provided as <code>defaultValue</code>
      */
     public boolean getBooleanFromPreference(String key, boolean defaultValue) {
-        return mSharedPreference.getBoolean(key, defaultValue);
+        Boolean value = (Boolean) read(key);
+        return value == null ? defaultValue : value;
     }
 
+    private synchronized Object read(String key) {
+        return getValues().get(key);
+    }
 
+    private synchronized void write(String key, Object value) {
+        Map<String, Object> values = getValues();
+        Object current = values.get(key);
+        if (value == null ? current == null : value.equals(current)) {
+            mSkippedWriteCount++;
+            return;
+        }
+        if (value == null) {
+            values.remove(key);
+            mPendingWrites.put(key, REMOVED);
+        } else {
+            values.put(key, value);
+            mPendingWrites.put(key, value);
+        }
+        if (mTransactionDepth == 0 && !mFlushScheduled) {
+            mFlushScheduled = true;
+            mHandler.postDelayed(mFlushRunnable, FLUSH_WINDOW_MS);
+        }
+    }
 
+    /*
+     * Reads a key changed elsewhere, with the getter of the type it had so far; only a key that
+     * was not known yet needs a copy of all the preferences.
+     */
+    private static Object readChanged(SharedPreferences sharedPreferences, String key,
+            Object previous) {
+        if (!sharedPreferences.contains(key)) {
+            return null;
+        }
+        try {
+            if (previous instanceof String) {
+                return sharedPreferences.getString(key, null);
+            } else if (previous instanceof Float) {
+                return sharedPreferences.getFloat(key, 0);
+            } else if (previous instanceof Integer) {
+                return sharedPreferences.getInt(key, 0);
+            } else if (previous instanceof Long) {
+                return sharedPreferences.getLong(key, 0);
+            } else if (previous instanceof Boolean) {
+                return sharedPreferences.getBoolean(key, false);
+            }
+        } catch (ClassCastException e) {
+            // the key changed type
+        }
+        return sharedPreferences.getAll().get(key);
+    }
+
+    private Map<String, Object> getValues() {
+        if (mValues == null) {
+            mValues = new HashMap<>(mSharedPreference.getAll());
+        }
+        return mValues;
+    }
 }
@@ -25,6 +25,7 @@ import static com.google.android.libraries.cast.companionlibrary.utils.LogUtils.
 import com.connectsdk.core.ImageInfo;
 import com.connectsdk.core.MediaInfo;
 import com.connectsdk.core.MediaInfoWithCustomData;
+import com.connectsdk.core.ParcelableMediaInfo;
 import com.google.android.gms.common.ConnectionResult;
 import com.google.android.gms.common.GooglePlayServicesUtil;
 
@@ -34,6 +35,7 @@ import android.content.Context;
 import android.content.DialogInterface;
 import android.graphics.Bitmap;
 import android.graphics.Canvas;
+import android.graphics.Color;
 import android.graphics.RectF;
 import android.net.Uri;
 import android.net.wifi.WifiInfo;
@@ -44,8 +46,6 @@ import android.os.Parcelable;
 import android.util.TypedValue;
 import android.widget.Toast;
 
-import org.json.JSONObject;
-
 import java.util.ArrayList;
 import java.util.List;
 
@@ -63,6 +63,7 @@ public final class Utils {
     private static final String KEY_URL = "movie-urls";
     private static final String KEY_CONTENT_TYPE = "content-type";
     private static final String KEY_STREAM_TYPE = "stream-type";
+    private static final String KEY_MEDIA_INFO = "media-info";
     private static final String KEY_CUSTOM_DATA = "custom-data";
     private static final String KEY_STREAM_DURATION = "stream-duration";
     private static final String KEY_TRACK_ID = "track-id";
@@ -163,7 +164,11 @@ public final class Utils {
     /**
      * Builds and returns a {@link Bundle} which contains a select subset of data in the
      * {@link MediaInfo}. Since {@link MediaInfo} is not {@link Parcelable}, one can use this
-     * container bundle to pass around from one activity to another.
+     * container bundle to pass around from one activity to another. The whole media is held as
+     * the bytes of a {@link ParcelableMediaInfo}, so its custom data is not converted to and from
+     * a string, and no class of the library is needed to unparcel the bundle. Every field is also
+     * put under its own key, as before; the custom data as the JSON it was received as, which is
+     * only stringified if it was parsed in the meantime.
      *
      * @see <code>bundleToMediaInfo()</code>
      */
@@ -172,64 +177,31 @@ public final class Utils {
             return null;
         }
 
-        //MediaMetadata md = info.getMetadata();
         Bundle wrapper = new Bundle();
+        wrapper.putByteArray(KEY_MEDIA_INFO, new ParcelableMediaInfo(info).marshall());
         wrapper.putString(KEY_TITLE, info.getTitle());
         wrapper.putString(KEY_SUBTITLE, info.getDescription());
         wrapper.putString(KEY_URL, info.getUrl());
-        //wrapper.putString(MediaMetadata.KEY_STUDIO, md.getString(MediaMetadata.KEY_STUDIO));
         wrapper.putString(KEY_CONTENT_TYPE, info.getMimeType());
-        //wrapper.putInt(KEY_STREAM_TYPE, info.getStreamType());
-        //wrapper.putInt(KEY_STREAM_TYPE, 1);
-        //wrapper.putLong(KEY_STREAM_DURATION, info.getStreamDuration());
-        if (!info.getImages().isEmpty()) {
+        if (info.getImages() != null && !info.getImages().isEmpty()) {
             ArrayList<String> urls = new ArrayList<>();
             for (ImageInfo img : info.getImages()) {
-                urls.add(img.getUrl().toString());
+                urls.add(img.getUrl());
             }
             wrapper.putStringArrayList(KEY_IMAGES, urls);
         }
-
-        if(info instanceof MediaInfoWithCustomData){
-            try {
-                wrapper.putInt(KEY_STREAM_TYPE, ((MediaInfoWithCustomData) info).getStreamType());
-                MediaInfoWithCustomData infoWithCustomData = (MediaInfoWithCustomData) info;
-                if(infoWithCustomData.getCustomData()!=null)
-                    wrapper.putString(KEY_CUSTOMDATA, infoWithCustomData.getCustomData().toString());
-                if(infoWithCustomData.getCustomDataForLoad()!=null)
-                    wrapper.putString(KEY_CUSTOMDATA_FORLOAD, infoWithCustomData.getCustomDataForLoad().toString());
-            } catch (Exception e) {
-                e.printStackTrace();
-                    }
-                    }
-//        JSONObject customData = info.getCustomData();
-//        if (customData != null) {
-//            wrapper.putString(KEY_CUSTOM_DATA, customData.toString());
-//        }
-//        if (info.getMediaTracks() != null && !info.getMediaTracks().isEmpty()) {
-//            try {
-//                JSONArray jsonArray = new JSONArray();
-//                for (MediaTrack mt : info.getMediaTracks()) {
-//                    JSONObject jsonObject = new JSONObject();
-//                    jsonObject.put(KEY_TRACK_NAME, mt.getName());
-//                    jsonObject.put(KEY_TRACK_CONTENT_ID, mt.getContentId());
-//                    jsonObject.put(KEY_TRACK_ID, mt.getId());
-//                    jsonObject.put(KEY_TRACK_LANGUAGE, mt.getLanguage());
-//                    jsonObject.put(KEY_TRACK_TYPE, mt.getType());
-//                    if (mt.getSubtype() != MediaTrack.SUBTYPE_UNKNOWN) {
-//                        jsonObject.put(KEY_TRACK_SUBTYPE, mt.getSubtype());
-//                    }
-//                    if (mt.getCustomData() != null) {
-//                        jsonObject.put(KEY_TRACK_CUSTOM_DATA, mt.getCustomData().toString());
-//                    }
-//                    jsonArray.put(jsonObject);
-//                }
-//                wrapper.putString(KEY_TRACKS_DATA, jsonArray.toString());
-//            } catch (JSONException e) {
-//                LOGE(TAG, "mediaInfoToBundle(): Failed to convert Tracks data to json", e);
-//            }
-//        }
-
+        if (info instanceof MediaInfoWithCustomData) {
+            MediaInfoWithCustomData infoWithCustomData = (MediaInfoWithCustomData) info;
+            wrapper.putInt(KEY_STREAM_TYPE, infoWithCustomData.getStreamType());
+            String customData = infoWithCustomData.getCustomDataJson();
+            if (customData != null) {
+                wrapper.putString(KEY_CUSTOMDATA, customData);
+            }
+            String customDataForLoad = infoWithCustomData.getCustomDataForLoadJson();
+            if (customDataForLoad != null) {
+                wrapper.putString(KEY_CUSTOMDATA_FORLOAD, customDataForLoad);
+            }
+        }
         return wrapper;
     }
 
@@ -245,6 +217,12 @@ public final class Utils {
             return null;
         }
 
+        byte[] bytes = wrapper.getByteArray(KEY_MEDIA_INFO);
+        ParcelableMediaInfo parcelable = bytes == null ? null : ParcelableMediaInfo.unmarshall(bytes);
+        if (parcelable != null) {
+            return parcelable.getMediaInfo();
+        }
+
         //MediaMetadata metaData = new MediaMetadata(MediaMetadata.MEDIA_TYPE_MOVIE);
 
         String contentId = wrapper.getString(KEY_URL);
@@ -317,17 +295,11 @@ public final class Utils {
 
         //return mediaBuilder.build();
         MediaInfo info;
-        if(wrapper.containsKey(KEY_CUSTOMDATA)){
+        if(wrapper.containsKey(KEY_CUSTOMDATA) || wrapper.containsKey(KEY_STREAM_TYPE)){
             info = new MediaInfoWithCustomData(contentId, mimetype, title, subtitle, imageInfos);
             ((MediaInfoWithCustomData)info).setStreamType(wrapper.getInt(KEY_STREAM_TYPE));
-            try {
-                if(wrapper.get(KEY_CUSTOMDATA)!=null)
-                    ((MediaInfoWithCustomData)info).setCustomData(new JSONObject(wrapper.getString(KEY_CUSTOMDATA)));
-                if(wrapper.get(KEY_CUSTOMDATA_FORLOAD)!=null)
-                    ((MediaInfoWithCustomData)info).setCustomDataForLoad(new JSONObject(wrapper.getString(KEY_CUSTOMDATA_FORLOAD)));
-            } catch (Exception e) {
-                e.printStackTrace();
-            }
+            ((MediaInfoWithCustomData)info).setCustomDataJson(wrapper.getString(KEY_CUSTOMDATA));
+            ((MediaInfoWithCustomData)info).setCustomDataForLoadJson(wrapper.getString(KEY_CUSTOMDATA_FORLOAD));
         }else{
             info = new MediaInfo(contentId, mimetype, title, subtitle, imageInfos);
         }
@@ -349,7 +321,9 @@ public final class Utils {
     }
 
     /**
-     * Scale and center-crop a bitmap to fit the given dimensions.
+     * Scale and center-crop a bitmap to fit the given dimensions. The result is drawn into a bitmap
+     * from the shared {@link BitmapPool} when one fits; callers that own the result can hand it
+     * back to the pool once it is no longer displayed.
      */
     public static Bitmap scaleAndCenterCropBitmap(Bitmap source, int newHeight, int newWidth) {
         if (source == null) {
@@ -370,7 +344,15 @@ public final class Utils {
 
         RectF targetRect = new RectF(left, top, left + scaledWidth, top + scaledHeight);
 
-        Bitmap destination = Bitmap.createBitmap(newWidth, newHeight, source.getConfig());
+        Bitmap.Config config = source.getConfig() != null
+                ? source.getConfig() : Bitmap.Config.ARGB_8888;
+        Bitmap destination = ArtworkCache.getInstance().getBitmapPool()
+                .get(newWidth, newHeight, config);
+        if (destination == null) {
+            destination = Bitmap.createBitmap(newWidth, newHeight, config);
+        } else {
+            destination.eraseColor(Color.TRANSPARENT);
+        }
         Canvas canvas = new Canvas(destination);
         canvas.drawBitmap(source, null, targetRect, null);
 
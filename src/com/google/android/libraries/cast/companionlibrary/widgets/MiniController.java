@@ -28,6 +28,8 @@ import com.google.android.libraries.cast.companionlibrary.cast.exceptions.CastEx
 import com.google.android.libraries.cast.companionlibrary.cast.exceptions.NoConnectionException;
 import com.google.android.libraries.cast.companionlibrary.cast.exceptions.OnFailedListener;
 import com.google.android.libraries.cast.companionlibrary.cast.exceptions.TransientNetworkDisconnectionException;
+import com.google.android.libraries.cast.companionlibrary.utils.ArtworkCache;
+import com.google.android.libraries.cast.companionlibrary.utils.ArtworkSpec;
 import com.google.android.libraries.cast.companionlibrary.utils.FetchBitmapTask;
 import com.google.android.libraries.cast.companionlibrary.utils.Utils;
 
@@ -83,6 +85,9 @@ public class MiniController extends RelativeLayout implements IMiniController {
     protected ProgressBar mLoading;
     private OnMiniControllerChangedListener mListener;
     private Uri mIconUri;
+    // the icon whose fetch was cut short by a detach, to fetch again on the next attach
+    private Uri mInterruptedIconUri;
+    private Bitmap mIconBitmap;
     private Drawable mPauseDrawable;
     private Drawable mPlayDrawable;
     private int mStreamType = MediaInfoWithCustomData.STREAM_TYPE_BUFFERED;
@@ -95,6 +100,7 @@ public class MiniController extends RelativeLayout implements IMiniController {
     private View mUpcomingPlay;
     private View mUpcomingStop;
     private Uri mUpcomingIconUri;
+    private Bitmap mUpcomingIconBitmap;
     private FetchBitmapTask mFetchUpcomingBitmapTask;
     private View mMainContainer;
     //private MediaQueueItem mUpcomingItem;
@@ -273,10 +279,17 @@ public class MiniController extends RelativeLayout implements IMiniController {
     @Override
     public final void setIcon(Bitmap bm) {
         mIcon.setImageBitmap(bm);
+        // keeps the displayed artwork out of the bitmap pool, and lets the previous one go there
+        ArtworkCache.getInstance().retain(bm);
+        ArtworkCache.getInstance().release(mIconBitmap);
+        mIconBitmap = bm;
     }
 
     private void setUpcomingIcon(Bitmap bm) {
         mUpcomingIcon.setImageBitmap(bm);
+        ArtworkCache.getInstance().retain(bm);
+        ArtworkCache.getInstance().release(mUpcomingIconBitmap);
+        mUpcomingIconBitmap = bm;
     }
 
     @Override
@@ -289,7 +302,9 @@ public class MiniController extends RelativeLayout implements IMiniController {
         if (mFetchBitmapTask != null) {
             mFetchBitmapTask.cancel(true);
         }
-        mFetchBitmapTask = new FetchBitmapTask() {
+        ArtworkSpec spec = ArtworkSpec.forMiniController(getContext());
+        mFetchBitmapTask = new FetchBitmapTask(spec.getWidth(), spec.getHeight(),
+                spec.getFlags()) {
             @Override
             protected void onPostExecute(Bitmap bitmap) {
                 if (bitmap == null) {
@@ -311,18 +326,32 @@ public class MiniController extends RelativeLayout implements IMiniController {
         super.onAttachedToWindow();
         if (mAutoSetup) {
             mCastManager.addMiniController(this);
+        } else if (mInterruptedIconUri != null) {
+            Uri uri = mInterruptedIconUri;
+            mInterruptedIconUri = null;
+            setIcon(uri);
         }
     }
 
     @Override
     protected void onDetachedFromWindow() {
         super.onDetachedFromWindow();
+        boolean fetchInterrupted = mFetchBitmapTask != null;
         if (mFetchBitmapTask != null) {
             mFetchBitmapTask.cancel(true);
             mFetchBitmapTask = null;
         }
         if (mAutoSetup) {
+            // the manager sets the icons again when this controller is added back
+            mIconUri = null;
+            setIcon((Bitmap) null);
+            mUpcomingIconUri = null;
+            setUpcomingIcon((Bitmap) null);
             mCastManager.removeMiniController(this);
+        } else if (fetchInterrupted) {
+            // nobody else will set this icon again, so it is fetched again on the next attach
+            mInterruptedIconUri = mIconUri;
+            mIconUri = null;
         }
     }
 
@@ -422,7 +451,9 @@ public class MiniController extends RelativeLayout implements IMiniController {
         if (mFetchUpcomingBitmapTask != null) {
             mFetchUpcomingBitmapTask.cancel(true);
         }
-        mFetchUpcomingBitmapTask = new FetchBitmapTask() {
+        ArtworkSpec spec = ArtworkSpec.forMiniController(getContext());
+        mFetchUpcomingBitmapTask = new FetchBitmapTask(spec.getWidth(), spec.getHeight(),
+                spec.getFlags()) {
             @Override
             protected void onPostExecute(Bitmap bitmap) {
                 if (bitmap == null) {